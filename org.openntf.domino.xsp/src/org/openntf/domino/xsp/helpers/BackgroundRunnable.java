@@ -4,9 +4,11 @@ import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
 
+import lotus.domino.NotesException;
 import lotus.domino.NotesFactory;
 import lotus.domino.Session;
 
+import org.openntf.domino.thread.SessionPool;
 import org.openntf.domino.utils.Factory;
 
 import com.ibm.domino.napi.c.xsp.XSPNative;
@@ -98,6 +100,14 @@ public abstract class BackgroundRunnable implements Runnable {
 			return result;
 		}
 
+		public SessionPool.Key getSessionKey() {
+			if (isXspContext()) {
+				return new SessionPool.Key(this.username, this.servername, SessionPool.Type.XSP);
+			} else {
+				return new SessionPool.Key(null, this.servername, SessionPool.Type.FULL_ACCESS);
+			}
+		}
+
 		public void initClassLoader(final Thread t) {
 			if (this.module != null) {
 				t.setContextClassLoader(this.module.getModuleClassLoader());
@@ -112,8 +122,10 @@ public abstract class BackgroundRunnable implements Runnable {
 	private static ThreadLocal<lotus.domino.Session> localSession_ = new ThreadLocal<lotus.domino.Session>() {
 
 	};
+	private static ThreadLocal<lotus.domino.Session> localDelegate_ = new ThreadLocal<lotus.domino.Session>();
 	private ThreadContext threadContext_;
 	private boolean useOpenntf_ = true;
+	private SessionPool sessionPool_;
 
 	public BackgroundRunnable(final ThreadContext threadContext) {
 		setThreadContext(threadContext);
@@ -132,13 +144,29 @@ public abstract class BackgroundRunnable implements Runnable {
 		return threadContext_;
 	}
 
-	private void initSession(final ThreadContext tc) {
+	/**
+	 * Borrows the session from a pool instead of creating it on every run. Pooled sessions stay on the thread that created them, so this
+	 * only pays off on long-lived threads, e.g. a DominoExecutor's workers.
+	 */
+	public void setSessionPool(final SessionPool pool) {
+		sessionPool_ = pool;
+	}
+
+	private void initSession(final ThreadContext tc) throws NotesException {
 		lotus.domino.Session delegate = null;
-		if (tc.isXspContext()) {
+		if (sessionPool_ != null) {
+			delegate = sessionPool_.borrow(tc.getSessionKey(), new SessionPool.SessionFactory() {
+				@Override
+				public Session createSession(final SessionPool.Key key) {
+					return tc.isXspContext() ? tc.getXspSessionAsUser() : tc.getNrpcSessionAsHost();
+				}
+			});
+		} else if (tc.isXspContext()) {
 			delegate = tc.getXspSessionAsUser();
 		} else {
 			delegate = tc.getNrpcSessionAsHost();
 		}
+		BackgroundRunnable.localDelegate_.set(delegate);
 		if (useOpenntf_) {
 			BackgroundRunnable.localSession_
 					.set((lotus.domino.Session) Factory.fromLotus(delegate, org.openntf.domino.Session.class, null));
@@ -161,7 +189,7 @@ public abstract class BackgroundRunnable implements Runnable {
 		} catch (Throwable t) {
 			t.printStackTrace();
 		} finally {
-			termSession();
+			termSession(tc);
 		}
 
 	}
@@ -174,9 +202,14 @@ public abstract class BackgroundRunnable implements Runnable {
 		threadContext_ = ctx;
 	}
 
-	private void termSession() {
+	private void termSession(final ThreadContext tc) {
 		lotus.domino.Session s = BackgroundRunnable.localSession_.get();
-		if (null != s) {
+		lotus.domino.Session delegate = BackgroundRunnable.localDelegate_.get();
+		BackgroundRunnable.localDelegate_.set(null);
+		if (sessionPool_ != null) {
+			sessionPool_.release(tc.getSessionKey(), delegate);
+			BackgroundRunnable.localSession_.set(null);
+		} else if (null != s) {
 			try {
 				s.recycle();
 			} catch (Exception e) {
@@ -847,10 +847,16 @@ public interface Document extends Base<lotus.domino.Document>, lotus.domino.Docu
 	@Override
 	public boolean renderToRTItem(final lotus.domino.RichTextItem rtitem);
 
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see lotus.domino.Document#replaceItemValue(java.lang.String, java.lang.Object)
+	/**
+	 * Replaces the value of an item, as {@link lotus.domino.Document#replaceItemValue(String, Object)} does, converting values Domino
+	 * can't store natively. A DocumentCollection or NoteCollection is stored as the UNIDs of its documents, in note id order, and is
+	 * rebuilt lazily when it's read back; any other order it had, such as the relevance order of a full-text search, is not kept.
+	 * 
+	 * @param itemName
+	 *            the item name
+	 * @param value
+	 *            the value
+	 * @return the item, or null if write-behind buffering is on
 	 */
 	@Override
 	public Item replaceItemValue(final String itemName, final Object value);
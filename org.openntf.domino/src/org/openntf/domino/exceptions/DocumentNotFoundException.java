@@ -0,0 +1,42 @@
+/**
+ * 
+ */
+package org.openntf.domino.exceptions;
+
+/**
+ * Thrown when a document that was handed out by note id, without opening its note, is used and the note can't be opened, e.g. because
+ * it was deleted in the meantime.
+ * 
+ * @author nfreeman
+ * 
+ */
+public class DocumentNotFoundException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	/** The note id. */
+	private final String noteid_;
+
+	/**
+	 * Instantiates a new document not found exception.
+	 * 
+	 * @param message
+	 *            the message
+	 * @param noteid
+	 *            the note id that couldn't be opened
+	 * @param cause
+	 *            the cause, or null
+	 */
+	public DocumentNotFoundException(final String message, final String noteid, final Throwable cause) {
+		super(message, cause);
+		noteid_ = noteid;
+	}
+
+	/**
+	 * Gets the note id that couldn't be opened.
+	 * 
+	 * @return the note id
+	 */
+	public String getNoteID() {
+		return noteid_;
+	}
+}
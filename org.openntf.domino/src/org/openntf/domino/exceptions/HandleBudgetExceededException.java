@@ -0,0 +1,55 @@
+/**
+ * 
+ */
+package org.openntf.domino.exceptions;
+
+/**
+ * Thrown when a thread holds more live Domino handles than its handle budget allows, and neither draining the recycle queue nor a GC
+ * could bring it back under.
+ * 
+ * @author nfreeman
+ * 
+ */
+public class HandleBudgetExceededException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	/** The live handle count. */
+	private final int liveCount_;
+
+	/** The budget. */
+	private final int budget_;
+
+	/**
+	 * Instantiates a new handle budget exceeded exception.
+	 * 
+	 * @param message
+	 *            the message
+	 * @param liveCount
+	 *            the live handle count when the budget couldn't be recovered
+	 * @param budget
+	 *            the budget
+	 */
+	public HandleBudgetExceededException(final String message, final int liveCount, final int budget) {
+		super(message);
+		liveCount_ = liveCount;
+		budget_ = budget;
+	}
+
+	/**
+	 * Gets the live handle count.
+	 * 
+	 * @return the live count
+	 */
+	public int getLiveCount() {
+		return liveCount_;
+	}
+
+	/**
+	 * Gets the budget.
+	 * 
+	 * @return the budget
+	 */
+	public int getBudget() {
+		return budget_;
+	}
+}
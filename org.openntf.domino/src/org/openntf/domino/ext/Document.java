@@ -9,6 +9,7 @@ import java.util.Map;
 
 import org.openntf.domino.exceptions.DataNotCompatibleException;
 import org.openntf.domino.exceptions.ItemNotFoundException;
+import org.openntf.domino.helpers.DocumentSnapshot;
 
 /**
  * @author withersp
@@ -58,6 +59,29 @@ public interface Document {
 	 */
 	public boolean isDirty();
 
+	/**
+	 * @return whether item writes are buffered until save
+	 */
+	public boolean isBufferedWrites();
+
+	/**
+	 * Turns write-behind buffering of item writes on or off. While it's on, replaceItemValue, appendItemValue and removeItem only record
+	 * the change and return null instead of an Item; the changes are applied to the note in one pass by {@link #flushItemWrites()} or the
+	 * next save, and repeated writes to the same item collapse into one. Values are copied when they're recorded; ones that can't be, such
+	 * as beans and maps, are written straight away. Reading an item with recorded changes writes them first, so it reads back exactly as
+	 * it would without buffering, except that a removed item is answered without asking the note. Turning it off applies whatever is
+	 * pending.
+	 * 
+	 * @param buffered
+	 *            whether to buffer item writes
+	 */
+	public void setBufferedWrites(final boolean buffered);
+
+	/**
+	 * Applies the buffered item writes to the note without saving it.
+	 */
+	public void flushItemWrites();
+
 	public boolean hasMIMEEntity(final String name);
 
 	public <T> T getItemValue(final String name, final Class<?> T) throws ItemNotFoundException, DataNotCompatibleException;
@@ -70,6 +94,22 @@ public interface Document {
 
 	public boolean containsValues(final Map<String, Object> filterMap);
 
+	/**
+	 * Takes an immutable snapshot of all items, reading each item once.
+	 * 
+	 * @return the snapshot
+	 */
+	public DocumentSnapshot getSnapshot();
+
+	/**
+	 * Takes an immutable snapshot of some items, reading each of them once.
+	 * 
+	 * @param itemNames
+	 *            the names of the items to include, case-insensitive
+	 * @return the snapshot
+	 */
+	public DocumentSnapshot getSnapshot(final String... itemNames);
+
 	// public <T> T getItemValue(String name, Class<?> T, ClassLoader loader) throws ItemNotFoundException, DataNotCompatibleException;
 
 }
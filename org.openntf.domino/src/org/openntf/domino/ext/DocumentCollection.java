@@ -6,6 +6,10 @@ package org.openntf.domino.ext;
 import java.util.Collection;
 import java.util.Map;
 
+import org.openntf.domino.thread.DominoExecutor;
+import org.openntf.domino.thread.ParallelProcessor;
+import org.openntf.domino.thread.SessionPool;
+
 /**
  * @author withersp
  * 
@@ -22,4 +26,51 @@ public interface DocumentCollection {
 	public org.openntf.domino.DocumentCollection filter(final Object value, Collection<String> itemnames);
 
 	public org.openntf.domino.DocumentCollection filter(final Map<String, Object> filterMap);
+
+	/**
+	 * Runs a callback over every document in the collection, split into ranges processed on several threads.
+	 * 
+	 * @param callback
+	 *            the callback
+	 * @param threads
+	 *            the number of threads
+	 * @return the results and failures
+	 * @see ParallelProcessor
+	 */
+	public <R> ParallelProcessor.Result<R> processParallel(final ParallelProcessor.Callback<R> callback, final int threads);
+
+	/**
+	 * Runs a callback over every document in the collection, split into ranges processed by an existing pool.
+	 * 
+	 * @param callback
+	 *            the callback
+	 * @param executor
+	 *            the executor
+	 * @param rangeSize
+	 *            the number of documents per range, or 0 to pick one from the pool size
+	 * @return the results and failures
+	 * @see ParallelProcessor
+	 */
+	public <R> ParallelProcessor.Result<R> processParallel(final ParallelProcessor.Callback<R> callback, final DominoExecutor executor,
+			final int rangeSize);
+
+	/**
+	 * Runs a callback over every document in the collection, split into ranges processed by an existing pool, with Sessions borrowed for a
+	 * given identity so that the workers have the caller's access rather than the process identity's.
+	 * 
+	 * @param callback
+	 *            the callback
+	 * @param executor
+	 *            the executor
+	 * @param rangeSize
+	 *            the number of documents per range, or 0 to pick one from the pool size
+	 * @param key
+	 *            the key to borrow each range's Session with
+	 * @param factory
+	 *            creates the Sessions for the key
+	 * @return the results and failures
+	 * @see ParallelProcessor
+	 */
+	public <R> ParallelProcessor.Result<R> processParallel(final ParallelProcessor.Callback<R> callback, final DominoExecutor executor,
+			final int rangeSize, final SessionPool.Key key, final SessionPool.SessionFactory factory);
 }
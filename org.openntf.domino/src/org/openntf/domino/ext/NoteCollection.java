@@ -6,6 +6,9 @@ package org.openntf.domino.ext;
 import java.util.Set;
 
 import org.openntf.domino.NoteCollection.SelectOption;
+import org.openntf.domino.thread.DominoExecutor;
+import org.openntf.domino.thread.ParallelProcessor;
+import org.openntf.domino.thread.SessionPool;
 
 /**
  * @author withersp
@@ -30,4 +33,51 @@ public interface NoteCollection {
 	public void setSelectOptions(final Set<SelectOption> options);
 
 	public void setSinceTime(final java.util.Date since);
+
+	/**
+	 * Runs a callback over every note in the collection, split into ranges processed on several threads.
+	 * 
+	 * @param callback
+	 *            the callback
+	 * @param threads
+	 *            the number of threads
+	 * @return the results and failures
+	 * @see ParallelProcessor
+	 */
+	public <R> ParallelProcessor.Result<R> processParallel(final ParallelProcessor.Callback<R> callback, final int threads);
+
+	/**
+	 * Runs a callback over every note in the collection, split into ranges processed by an existing pool.
+	 * 
+	 * @param callback
+	 *            the callback
+	 * @param executor
+	 *            the executor
+	 * @param rangeSize
+	 *            the number of notes per range, or 0 to pick one from the pool size
+	 * @return the results and failures
+	 * @see ParallelProcessor
+	 */
+	public <R> ParallelProcessor.Result<R> processParallel(final ParallelProcessor.Callback<R> callback, final DominoExecutor executor,
+			final int rangeSize);
+
+	/**
+	 * Runs a callback over every note in the collection, split into ranges processed by an existing pool, with Sessions borrowed for a
+	 * given identity so that the workers have the caller's access rather than the process identity's.
+	 * 
+	 * @param callback
+	 *            the callback
+	 * @param executor
+	 *            the executor
+	 * @param rangeSize
+	 *            the number of notes per range, or 0 to pick one from the pool size
+	 * @param key
+	 *            the key to borrow each range's Session with
+	 * @param factory
+	 *            creates the Sessions for the key
+	 * @return the results and failures
+	 * @see ParallelProcessor
+	 */
+	public <R> ParallelProcessor.Result<R> processParallel(final ParallelProcessor.Callback<R> callback, final DominoExecutor executor,
+			final int rangeSize, final SessionPool.Key key, final SessionPool.SessionFactory factory);
 }
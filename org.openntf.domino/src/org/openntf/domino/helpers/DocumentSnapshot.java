@@ -0,0 +1,593 @@
+/*
+ * Copyright 2013
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at:
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 
+ * implied. See the License for the specific language governing 
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.helpers;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import lotus.domino.NotesException;
+
+import org.openntf.domino.Document;
+import org.openntf.domino.Session;
+import org.openntf.domino.exceptions.ItemNotFoundException;
+import org.openntf.domino.impl.Base;
+import org.openntf.domino.utils.DominoUtils;
+import org.openntf.domino.utils.Factory;
+import org.openntf.domino.utils.TypeUtils;
+
+/**
+ * An immutable copy of a Document's items, taken in a single walk over {@link lotus.domino.Document#getItems()}.
+ * 
+ * Every item's name, type, flags and values are read once while the snapshot is built; after that nothing goes back to the Document, so a
+ * snapshot can be read from any thread, kept in a cache, serialized or compared with another snapshot long after the Document was
+ * recycled. DateTime values are stored as {@link Date}s, copied whenever they're handed out, and their handles recycled straight away.
+ * MIME items keep their name, type and flags but no values, because reading them would mean converting the MIME content; use
+ * {@link #isMIME(String)} to find them and read them from the Document instead. Rich text items are stored as their plain text.
+ * 
+ * The items are held in parallel arrays in the order getItems() returned them. If a name occurs more than once, the lookups by name see the
+ * first occurrence, just like {@link lotus.domino.Document#getFirstItem(String)}.
+ */
+public class DocumentSnapshot implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/** The Constant log_. */
+	private static final Logger log_ = Logger.getLogger(DocumentSnapshot.class.getName());
+
+	/** Flag bit for summary items. */
+	public static final int SUMMARY = 1;
+
+	/** Flag bit for readers items. */
+	public static final int READERS = 1 << 1;
+
+	/** Flag bit for authors items. */
+	public static final int AUTHORS = 1 << 2;
+
+	/** Flag bit for names items. */
+	public static final int NAMES = 1 << 3;
+
+	/** Flag bit for protected items. */
+	public static final int PROTECTED = 1 << 4;
+
+	/** Flag bit for encrypted items. */
+	public static final int ENCRYPTED = 1 << 5;
+
+	/** Flag bit for signed items. */
+	public static final int SIGNED = 1 << 6;
+
+	/** The universal id. */
+	private final String unid_;
+
+	/** The note id. */
+	private final String noteId_;
+
+	/** The last modified time in milliseconds, or 0 if it wasn't known. */
+	private final long lastModified_;
+
+	/** The time the snapshot was taken. */
+	private final long created_;
+
+	/** The item names. */
+	private final String[] names_;
+
+	/** The item types, as in {@link lotus.domino.Item#getType()}. */
+	private final int[] types_;
+
+	/** The item flags, a combination of the flag bits. */
+	private final int[] flags_;
+
+	/** The item value lengths. */
+	private final int[] valueLengths_;
+
+	/** The item values, null for MIME items. */
+	private final Object[][] values_;
+
+	/** The index of the first item of each name, keyed by lower case name. */
+	private final Map<String, Integer> index_;
+
+	/**
+	 * Takes a snapshot of all items of a document.
+	 * 
+	 * @param doc
+	 *            the document
+	 * @return the snapshot, or null if the document couldn't be read
+	 */
+	public static DocumentSnapshot of(final Document doc) {
+		return of(doc, (String[]) null);
+	}
+
+	/**
+	 * Takes a snapshot of some items of a document. The document is still walked only once; items with other names are skipped before
+	 * anything but their name has been read.
+	 * 
+	 * @param doc
+	 *            the document
+	 * @param itemNames
+	 *            the names of the items to keep, case-insensitive; null or empty for all items
+	 * @return the snapshot, or null if the document couldn't be read
+	 */
+	public static DocumentSnapshot of(final Document doc, final String... itemNames) {
+		Set<String> wanted = null;
+		if (itemNames != null && itemNames.length > 0) {
+			wanted = new LinkedHashSet<String>(itemNames.length * 2);
+			for (String itemName : itemNames) {
+				wanted.add(itemName.toLowerCase());
+			}
+		}
+		Session session = doc.getAncestorSession();
+		boolean convertMime = session.isConvertMIME();
+		session.setConvertMIME(false);
+		Vector<?> lotusItems = null;
+		try {
+			lotus.domino.Document lotusDoc = (lotus.domino.Document) Base.toLotus(doc);
+			long lastModified = 0l;
+			lotus.domino.DateTime modified = lotusDoc.getLastModified();
+			if (modified != null) {
+				lastModified = modified.toJavaDate().getTime();
+				Base.s_recycle(modified);
+			}
+
+			lotusItems = lotusDoc.getItems();
+			int size = lotusItems.size();
+			List<String> names = new ArrayList<String>(size);
+			int[] types = new int[size];
+			int[] flags = new int[size];
+			int[] valueLengths = new int[size];
+			Object[][] values = new Object[size][];
+			String lastName = null;
+			for (Object o : lotusItems) {
+				if (!(o instanceof lotus.domino.Item)) {
+					continue;
+				}
+				lotus.domino.Item item = (lotus.domino.Item) o;
+				try {
+					String name = item.getName();
+					lastName = name;
+					if (wanted != null && !wanted.contains(name.toLowerCase())) {
+						continue;
+					}
+					int i = names.size();
+					int type = item.getType();
+					types[i] = type;
+					flags[i] = readFlags(item);
+					valueLengths[i] = item.getValueLength();
+					values[i] = readValues(item, type);
+					names.add(name);
+				} catch (NotesException ne1) {
+					log_.log(Level.WARNING, "Problem reading the item following " + String.valueOf(lastName)
+							+ " into a snapshot. Skipping...", ne1);
+				}
+			}
+
+			int count = names.size();
+			return new DocumentSnapshot(lotusDoc.getUniversalID(), lotusDoc.getNoteID(), lastModified, names.toArray(new String[count]),
+					Arrays.copyOf(types, count), Arrays.copyOf(flags, count), Arrays.copyOf(valueLengths, count), Arrays.copyOf(values,
+							count));
+		} catch (NotesException e) {
+			DominoUtils.handleException(e);
+			return null;
+		} finally {
+			session.setConvertMIME(convertMime);
+			// the items are never wrapped, so nothing else would recycle them
+			Base.s_recycleUnwrapped(lotusItems);
+		}
+	}
+
+	/**
+	 * Reads the flags of an item.
+	 * 
+	 * @param item
+	 *            the item
+	 * @return the flag bits
+	 * @throws NotesException
+	 *             the notes exception
+	 */
+	private static int readFlags(final lotus.domino.Item item) throws NotesException {
+		int result = 0;
+		if (item.isSummary())
+			result |= SUMMARY;
+		if (item.isReaders())
+			result |= READERS;
+		if (item.isAuthors())
+			result |= AUTHORS;
+		if (item.isNames())
+			result |= NAMES;
+		if (item.isProtected())
+			result |= PROTECTED;
+		if (item.isEncrypted())
+			result |= ENCRYPTED;
+		if (item.isSigned())
+			result |= SIGNED;
+		return result;
+	}
+
+	/**
+	 * Reads the values of an item into handle-free objects.
+	 * 
+	 * @param item
+	 *            the item
+	 * @param type
+	 *            the item type
+	 * @return the values, or null for MIME items
+	 * @throws NotesException
+	 *             the notes exception
+	 */
+	private static Object[] readValues(final lotus.domino.Item item, final int type) throws NotesException {
+		switch (type) {
+		case lotus.domino.Item.MIME_PART:
+			return null;
+		case lotus.domino.Item.RICHTEXT:
+			return new Object[] { item.getText() };
+		default:
+			Vector<?> raw = item.getValues();
+			if (raw == null) {
+				return new Object[0];
+			}
+			Object[] result = new Object[raw.size()];
+			for (int i = 0; i < result.length; i++) {
+				Object o = raw.get(i);
+				if (o instanceof lotus.domino.DateTime) {
+					lotus.domino.DateTime dt = (lotus.domino.DateTime) o;
+					result[i] = dt.toJavaDate();
+					Base.s_recycle(dt);
+				} else if (o instanceof lotus.domino.DateRange) {
+					lotus.domino.DateRange dr = (lotus.domino.DateRange) o;
+					result[i] = dr.getText();
+					Base.s_recycle((lotus.domino.local.NotesBase) dr, false);
+				} else {
+					result[i] = o;
+				}
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Instantiates a new document snapshot.
+	 * 
+	 * @param unid
+	 *            the universal id
+	 * @param noteId
+	 *            the note id
+	 * @param lastModified
+	 *            the last modified time
+	 * @param names
+	 *            the item names
+	 * @param types
+	 *            the item types
+	 * @param flags
+	 *            the item flags
+	 * @param valueLengths
+	 *            the item value lengths
+	 * @param values
+	 *            the item values
+	 */
+	protected DocumentSnapshot(final String unid, final String noteId, final long lastModified, final String[] names, final int[] types,
+			final int[] flags, final int[] valueLengths, final Object[][] values) {
+		unid_ = unid;
+		noteId_ = noteId;
+		lastModified_ = lastModified;
+		created_ = System.currentTimeMillis();
+		names_ = names;
+		types_ = types;
+		flags_ = flags;
+		valueLengths_ = valueLengths;
+		values_ = values;
+		index_ = new HashMap<String, Integer>(names.length * 2);
+		for (int i = names.length - 1; i >= 0; i--) {
+			index_.put(names[i].toLowerCase(), i);
+		}
+	}
+
+	/**
+	 * Gets the index of the first item with a name.
+	 * 
+	 * @param name
+	 *            the item name, case-insensitive
+	 * @return the index, or -1
+	 */
+	private int indexOf(final String name) {
+		Integer result = index_.get(name.toLowerCase());
+		return result == null ? -1 : result.intValue();
+	}
+
+	/**
+	 * Gets the index of the first item with a name, failing if there isn't one.
+	 * 
+	 * @param name
+	 *            the item name, case-insensitive
+	 * @return the index
+	 */
+	private int requireIndex(final String name) {
+		int result = indexOf(name);
+		if (result < 0) {
+			throw new ItemNotFoundException("Item " + name + " is not in the snapshot of document " + unid_);
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the universal id.
+	 * 
+	 * @return the universal id
+	 */
+	public String getUniversalID() {
+		return unid_;
+	}
+
+	/**
+	 * Gets the note id.
+	 * 
+	 * @return the note id
+	 */
+	public String getNoteID() {
+		return noteId_;
+	}
+
+	/**
+	 * Gets the last modified date of the document when the snapshot was taken.
+	 * 
+	 * @return the last modified date, or null if it wasn't known
+	 */
+	public Date getLastModified() {
+		return lastModified_ == 0l ? null : new Date(lastModified_);
+	}
+
+	/**
+	 * Gets the time the snapshot was taken.
+	 * 
+	 * @return the time
+	 */
+	public Date getCreated() {
+		return new Date(created_);
+	}
+
+	/**
+	 * Gets the number of items.
+	 * 
+	 * @return the size
+	 */
+	public int size() {
+		return names_.length;
+	}
+
+	/**
+	 * Gets the item names in document order, including duplicates.
+	 * 
+	 * @return the names
+	 */
+	public List<String> getItemNames() {
+		return Collections.unmodifiableList(Arrays.asList(names_));
+	}
+
+	/**
+	 * Checks whether the snapshot has an item.
+	 * 
+	 * @param name
+	 *            the item name, case-insensitive
+	 * @return true, if it does
+	 */
+	public boolean hasItem(final String name) {
+		return indexOf(name) >= 0;
+	}
+
+	/**
+	 * Gets the type of an item.
+	 * 
+	 * @param name
+	 *            the item name, case-insensitive
+	 * @return the type, as in {@link lotus.domino.Item#getType()}
+	 */
+	public int getType(final String name) {
+		return types_[requireIndex(name)];
+	}
+
+	/**
+	 * Gets the flags of an item.
+	 * 
+	 * @param name
+	 *            the item name, case-insensitive
+	 * @return the flag bits
+	 */
+	public int getFlags(final String name) {
+		return flags_[requireIndex(name)];
+	}
+
+	/**
+	 * Checks a flag of an item.
+	 * 
+	 * @param name
+	 *            the item name, case-insensitive
+	 * @param flag
+	 *            one of the flag bits
+	 * @return true, if the item exists and has the flag
+	 */
+	public boolean hasFlag(final String name, final int flag) {
+		int i = indexOf(name);
+		return i >= 0 && (flags_[i] & flag) != 0;
+	}
+
+	/**
+	 * Checks whether an item is a MIME item, whose values are not in the snapshot.
+	 * 
+	 * @param name
+	 *            the item name, case-insensitive
+	 * @return true, if it is
+	 */
+	public boolean isMIME(final String name) {
+		int i = indexOf(name);
+		return i >= 0 && types_[i] == lotus.domino.Item.MIME_PART;
+	}
+
+	/**
+	 * Gets the value length of an item.
+	 * 
+	 * @param name
+	 *            the item name, case-insensitive
+	 * @return the value length
+	 */
+	public int getValueLength(final String name) {
+		return valueLengths_[requireIndex(name)];
+	}
+
+	/**
+	 * Gets the values of an item.
+	 * 
+	 * @param name
+	 *            the item name, case-insensitive
+	 * @return the values, or null if the item doesn't exist or is a MIME item
+	 */
+	public List<Object> getValues(final String name) {
+		int i = indexOf(name);
+		if (i < 0 || values_[i] == null) {
+			return null;
+		}
+		return Collections.unmodifiableList(copyValues(values_[i]));
+	}
+
+	/**
+	 * Gets the values of an item converted to a class, the same way {@link org.openntf.domino.ext.Document#getItemValue(String, Class)}
+	 * converts them. Converting to DateTime or Name needs the current thread's Session.
+	 * 
+	 * @param <T>
+	 *            the generic type
+	 * @param name
+	 *            the item name, case-insensitive
+	 * @param T
+	 *            the class to convert to
+	 * @return the converted value
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(final String name, final Class<?> T) {
+		int i = requireIndex(name);
+		if (values_[i] == null) {
+			throw new ItemNotFoundException("Item " + name + " is a MIME item; its value is not in the snapshot of document " + unid_);
+		}
+		Session session = null;
+		if (T == org.openntf.domino.DateTime.class || T == org.openntf.domino.Name.class
+				|| T == org.openntf.domino.DateTime[].class || T == org.openntf.domino.Name[].class) {
+			session = Factory.getSession();
+		}
+		return (T) TypeUtils.vectorToClass(copyValues(values_[i]), T, session);
+	}
+
+	/**
+	 * Copies an item's values to hand them out. Dates are the only mutable values a snapshot holds, so they're cloned; otherwise a caller
+	 * changing one would change the snapshot, and its equals and hashCode, for everyone sharing it.
+	 * 
+	 * @param values
+	 *            the values
+	 * @return the copy
+	 */
+	private static Vector<Object> copyValues(final Object[] values) {
+		Vector<Object> result = new Vector<Object>(values.length);
+		for (Object o : values) {
+			result.add(o instanceof Date ? ((Date) o).clone() : o);
+		}
+		return result;
+	}
+
+	/**
+	 * Lists the items whose type, flags or values differ between this snapshot and another one, including items only one of them has.
+	 * 
+	 * @param other
+	 *            the other snapshot
+	 * @return the names of the differing items, lower case
+	 */
+	public Set<String> diff(final DocumentSnapshot other) {
+		Set<String> result = new LinkedHashSet<String>();
+		for (Map.Entry<String, Integer> entry : index_.entrySet()) {
+			Integer j = other.index_.get(entry.getKey());
+			if (j == null || !sameItem(entry.getValue(), other, j)) {
+				result.add(entry.getKey());
+			}
+		}
+		for (String key : other.index_.keySet()) {
+			if (!index_.containsKey(key)) {
+				result.add(key);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Compares one item of this snapshot with one item of another.
+	 * 
+	 * @param i
+	 *            the index in this snapshot
+	 * @param other
+	 *            the other snapshot
+	 * @param j
+	 *            the index in the other snapshot
+	 * @return true, if type, flags and values are equal
+	 */
+	private boolean sameItem(final int i, final DocumentSnapshot other, final int j) {
+		return types_[i] == other.types_[j] && flags_[i] == other.flags_[j] && Arrays.equals(values_[i], other.values_[j]);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof DocumentSnapshot)) {
+			return false;
+		}
+		DocumentSnapshot other = (DocumentSnapshot) obj;
+		return lastModified_ == other.lastModified_ && String.valueOf(unid_).equals(String.valueOf(other.unid_))
+				&& Arrays.equals(names_, other.names_) && Arrays.equals(types_, other.types_) && Arrays.equals(flags_, other.flags_)
+				&& Arrays.deepEquals(values_, other.values_);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		int result = String.valueOf(unid_).hashCode();
+		result = 31 * result + (int) (lastModified_ ^ (lastModified_ >>> 32));
+		result = 31 * result + Arrays.hashCode(names_);
+		result = 31 * result + Arrays.deepHashCode(values_);
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "DocumentSnapshot[" + unid_ + ", " + names_.length + " items]";
+	}
+}
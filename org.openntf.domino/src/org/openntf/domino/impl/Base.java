@@ -15,14 +15,11 @@
  */
 package org.openntf.domino.impl;
 
-import java.lang.ref.Reference;
-import java.lang.reflect.Method;
-import java.security.AccessController;
-import java.security.PrivilegedExceptionAction;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -65,6 +62,31 @@ public abstract class Base<T extends org.openntf.domino.Base<D>, D extends lotus
 	/** The cpp_object. */
 	private long cpp_object = 0l;
 
+	/** The reference bagged for the current delegate, if it has one. */
+	private DominoReference delegateRef_;
+
+	/** The source of recycle epochs, so that no two threads ever use the same one. */
+	private static final AtomicLong epochSource_ = new AtomicLong();
+
+	/**
+	 * The current thread's recycle epoch. Replaced whenever the thread recycles a handle while a live wrapper might still point at it or at
+	 * one of its children, so a wrapper only has to probe its delegate once per epoch instead of on every call. Handles belong to the
+	 * thread that created them, so one thread's recycling doesn't make the other threads' wrappers probe again; a wrapper used on another
+	 * thread sees a different epoch there and probes.
+	 */
+	private static final ThreadLocal<long[]> recycleEpoch_ = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[] { epochSource_.incrementAndGet() };
+		}
+	};
+
+	/** Whether delegates are probed on every access, as they used to be. */
+	private static volatile boolean paranoidDelegateCheck_ = false;
+
+	/** The recycle epoch in which the delegate was last known to be valid, or -1 if it's known to be recycled. */
+	private volatile long delegateEpoch_ = -1l;
+
 	// /** The reference bag. */
 	// private static ThreadLocal<Set<DominoReference>> referenceBag = new ThreadLocal<Set<DominoReference>>() {
 	// @Override
@@ -77,29 +99,15 @@ public abstract class Base<T extends org.openntf.domino.Base<D>, D extends lotus
 	/** The Constant lockedRefSet. */
 	private static final DominoLockSet lockedRefSet = new DominoLockSet();
 
-	/** The get cpp method. */
-	private static Method getCppMethod;
-
-	/** The is invalid method. */
-	private static Method isInvalidMethod;
+	/** The handle accessor. */
+	private static volatile HandleAccessor handleAccessor_;
 
 	static {
-		try {
-			AccessController.doPrivileged(new PrivilegedExceptionAction<Object>() {
-				@Override
-				public Object run() throws Exception {
-					getCppMethod = lotus.domino.local.NotesBase.class.getDeclaredMethod("GetCppObj", (Class<?>[]) null);
-					getCppMethod.setAccessible(true);
-					isInvalidMethod = lotus.domino.local.NotesBase.class.getDeclaredMethod("isInvalid", (Class<?>[]) null);
-					isInvalidMethod.setAccessible(true);
-					return null;
-				}
-			});
-		} catch (Exception e) {
-			e.printStackTrace();
-			DominoUtils.handleException(e);
-		}
-
+		HandleAccessor reflection = new ReflectionHandleAccessor();
+		HandleAccessor fast = FieldHandleAccessor.bind(reflection);
+		handleAccessor_ = fast == null ? reflection : fast;
+		if (log_.isLoggable(Level.INFO))
+			log_.log(Level.INFO, "Reading Domino handle ids with a " + handleAccessor_.getClass().getSimpleName());
 	}
 
 	// /** The recycled_. */
@@ -161,20 +169,28 @@ public abstract class Base<T extends org.openntf.domino.Base<D>, D extends lotus
 			} else if (delegate instanceof lotus.domino.local.NotesBase) {
 				delegate_ = delegate;
 				cpp_object = getLotusId((lotus.domino.local.NotesBase) delegate);
+				delegateEpoch_ = getRecycleEpoch();
 				if (delegate instanceof lotus.domino.Name || delegate instanceof lotus.domino.DateTime
 						|| delegate instanceof lotus.domino.Session) {
 					// No reference needed. Will be recycled directly...
 					// Not creating auto-recycle references for Sessions
 					// TODO - NTF come up with a better solution for recycling Sessions!!!
 				} else {
-					recycleQueue.get().bagReference(new DominoReference(this, recycleQueue.get(), delegate));
+					DominoReferenceQueue drq = recycleQueue.get();
+					delegateRef_ = new DominoReference(this, drq, delegate);
+					drq.bagReference(delegateRef_);
+					drq.intern(cpp_object, this);
 				}
 			} else {
 				if (log_.isLoggable(Level.WARNING))
 					log_.log(Level.WARNING, "Why are you wrapping a non-Lotus object? " + delegate.getClass().getName());
 			}
 		}
-		drainQueue(cpp_object);
+		DominoReferenceQueue drq = recycleQueue.get();
+		if (drq.isDrainDue()) {
+			drq.drain(cpp_object);
+		}
+		drq.enforceBudget(cpp_object);
 		// else {
 		// encapsulated_ = true;
 		// }
@@ -185,10 +201,15 @@ public abstract class Base<T extends org.openntf.domino.Base<D>, D extends lotus
 
 		delegate_ = delegate;
 		cpp_object = getLotusId((lotus.domino.local.NotesBase) delegate);
+		delegateEpoch_ = getRecycleEpoch();
 		if (delegate instanceof lotus.domino.Name || delegate instanceof lotus.domino.DateTime || delegate instanceof lotus.domino.Session) {
 			// TODO - NTF come up with a better solution for recycling Sessions!!!
+			delegateRef_ = null;
 		} else {
-			recycleQueue.get().bagReference(new DominoReference(this, recycleQueue.get(), delegate));
+			DominoReferenceQueue drq = recycleQueue.get();
+			delegateRef_ = new DominoReference(this, drq, delegate);
+			drq.bagReference(delegateRef_);
+			drq.intern(cpp_object, this);
 		}
 		// if (delegate instanceof lotus.domino.Document) {
 		// try {
@@ -199,6 +220,26 @@ public abstract class Base<T extends org.openntf.domino.Base<D>, D extends lotus
 		// }
 	}
 
+	/**
+	 * Lets go of the delegate while the wrapper stays in use, recycling its handle unless another wrapper holds it too. The delegate is
+	 * null afterwards, and it's up to the subclass to open it again. Must be called on the thread that set the delegate.
+	 * 
+	 * @return true, if the handle was recycled
+	 */
+	protected final boolean releaseDelegate() {
+		DominoReference ref = delegateRef_;
+		delegate_ = null;
+		delegateRef_ = null;
+		cpp_object = 0l;
+		setDelegateRecycled();
+		if (ref != null && recycleQueue.get().releaseReference(ref)) {
+			// children such as Items may still point into the handle
+			invalidateDelegates();
+			return true;
+		}
+		return false;
+	}
+
 	/**
 	 * Gets the lotus id.
 	 * 
@@ -207,11 +248,30 @@ public abstract class Base<T extends org.openntf.domino.Base<D>, D extends lotus
 	 * @return the lotus id
 	 */
 	public static long getLotusId(final lotus.domino.local.NotesBase base) {
-		try {
-			return ((Long) getCppMethod.invoke(base, (Object[]) null)).longValue();
-		} catch (Exception e) {
-			return 0L;
+		return handleAccessor_.getCppId(base);
+	}
+
+	/**
+	 * Gets the handle accessor.
+	 * 
+	 * @return the handle accessor
+	 */
+	public static HandleAccessor getHandleAccessor() {
+		return handleAccessor_;
+	}
+
+	/**
+	 * Sets the accessor used to read handle ids and validity. By default that's a {@link FieldHandleAccessor} if one can be bound to the
+	 * running Notes.jar, and a {@link ReflectionHandleAccessor} otherwise.
+	 * 
+	 * @param accessor
+	 *            the accessor
+	 */
+	public static void setHandleAccessor(final HandleAccessor accessor) {
+		if (accessor == null) {
+			throw new IllegalArgumentException("The handle accessor cannot be null");
 		}
+		handleAccessor_ = accessor;
 	}
 
 	/**
@@ -223,21 +283,36 @@ public abstract class Base<T extends org.openntf.domino.Base<D>, D extends lotus
 		return recycleQueue.get();
 	}
 
+	/**
+	 * Gets the current thread's recycle queue, e.g. to change its drain policy.
+	 * 
+	 * @return the domino reference queue
+	 */
+	public static DominoReferenceQueue getRecycleQueue() {
+		return recycleQueue.get();
+	}
+
 	/**
 	 * Drain queue.
 	 * 
 	 * @return the int
 	 */
 	public static int drainQueue(final long cppid) {
-		int result = 0;
-		DominoReferenceQueue drq = _getRecycleQueue();
-		Reference<?> ref = drq.poll(cppid);
+		return _getRecycleQueue().drain(cppid);
+	}
 
-		while (ref != null) {
-			ref = drq.poll(cppid);
-			result++;
+	/**
+	 * Marks a safe point, such as the boundary between two batches of documents. If the current thread's drain mode is
+	 * {@link DominoReferenceQueue.DrainMode#CHECKPOINT}, the queue is fully drained here; the other modes drain as wrappers are created and
+	 * ignore checkpoints.
+	 * 
+	 * @return the number of references drained
+	 */
+	public static int checkpoint() {
+		if (_getRecycleQueue().getDrainMode() == DominoReferenceQueue.DrainMode.CHECKPOINT) {
+			return drainQueue(0l);
 		}
-		return result;
+		return 0;
 	}
 
 	/**
@@ -267,6 +342,22 @@ public abstract class Base<T extends org.openntf.domino.Base<D>, D extends lotus
 		return wrapper;
 	}
 
+	/**
+	 * Gets the delegate a wrapper holds right now, without probing, resurrecting or opening it; a document that has released its note
+	 * answers null.
+	 * 
+	 * @param wrapper
+	 *            the wrapper
+	 * @return the delegate, or null if the wrapper holds none
+	 */
+	@SuppressWarnings("rawtypes")
+	public static lotus.domino.Base getDelegateUnopened(final lotus.domino.Base wrapper) {
+		if (wrapper instanceof org.openntf.domino.impl.Base) {
+			return ((org.openntf.domino.impl.Base) wrapper).delegate_;
+		}
+		return wrapper;
+	}
+
 	/**
 	 * Gets the cpp_object.
 	 * 
@@ -279,6 +370,75 @@ public abstract class Base<T extends org.openntf.domino.Base<D>, D extends lotus
 		return ((org.openntf.domino.impl.Base) wrapper).cpp_object;
 	}
 
+	/**
+	 * Gets the current recycle epoch. A subclass that probes its delegate reads this before probing and passes it to
+	 * {@link #isDelegateSuspect(long)} and {@link #setDelegateValid(long)}.
+	 * 
+	 * @return the recycle epoch
+	 */
+	protected static long getRecycleEpoch() {
+		return recycleEpoch_.get()[0];
+	}
+
+	/**
+	 * Starts a new recycle epoch on the current thread, so every wrapper probes its delegate once more before trusting it there. Called by
+	 * the explicit recycle paths; call it yourself after recycling lotus objects directly while wrappers of them or their children are
+	 * still in use. Code that lets the runtime recycle objects behind its back, e.g. at the end of an XPages request, should call it when
+	 * it starts on new work, or turn on {@link #setParanoidDelegateCheck(boolean)}.
+	 */
+	public static void invalidateDelegates() {
+		recycleEpoch_.get()[0] = epochSource_.incrementAndGet();
+	}
+
+	/**
+	 * Checks if delegates are probed on every access.
+	 * 
+	 * @return true, if paranoid
+	 */
+	public static boolean isParanoidDelegateCheck() {
+		return paranoidDelegateCheck_;
+	}
+
+	/**
+	 * Sets whether delegates are probed on every access. That costs an extra JNI call per getter, but catches handles recycled by code that
+	 * bypasses this API and never calls {@link #invalidateDelegates()}.
+	 * 
+	 * @param paranoid
+	 *            true to probe on every access
+	 */
+	public static void setParanoidDelegateCheck(final boolean paranoid) {
+		paranoidDelegateCheck_ = paranoid;
+	}
+
+	/**
+	 * Checks whether the delegate has to be probed before use, because it was recycled or something was recycled since it was last known to
+	 * be valid.
+	 * 
+	 * @param epoch
+	 *            the recycle epoch, read before probing
+	 * @return true, if the delegate should be probed
+	 */
+	protected final boolean isDelegateSuspect(final long epoch) {
+		return paranoidDelegateCheck_ || delegateEpoch_ != epoch;
+	}
+
+	/**
+	 * Records that the delegate passed its probe.
+	 * 
+	 * @param epoch
+	 *            the recycle epoch read before probing
+	 */
+	protected final void setDelegateValid(final long epoch) {
+		delegateEpoch_ = epoch;
+	}
+
+	/**
+	 * Records that the delegate has been recycled, so the next access will probe it and resurrect it.
+	 */
+	protected final void setDelegateRecycled() {
+		delegateEpoch_ = -1l;
+	}
+
 	/**
 	 * Gets the delegate.
 	 * 
@@ -357,6 +517,31 @@ public abstract class Base<T extends org.openntf.domino.Base<D>, D extends lotus
 		lockedRefSet.unlock(allYourBase);
 	}
 
+	/**
+	 * Lock, either for the current thread only or for every thread. Locking long-lived objects such as a Session or Database in the shared
+	 * scope is the usual case.
+	 * 
+	 * @param scope
+	 *            the scope
+	 * @param allYourBase
+	 *            the all your base
+	 */
+	public static void lock(final DominoLockSet.Scope scope, final lotus.domino.Base... allYourBase) {
+		lockedRefSet.lock(scope, allYourBase);
+	}
+
+	/**
+	 * Unlock.
+	 * 
+	 * @param scope
+	 *            the scope the objects were locked in
+	 * @param allYourBase
+	 *            the all your base
+	 */
+	public static void unlock(final DominoLockSet.Scope scope, final lotus.domino.Base... allYourBase) {
+		lockedRefSet.unlock(scope, allYourBase);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -375,11 +560,7 @@ public abstract class Base<T extends org.openntf.domino.Base<D>, D extends lotus
 	 * @return true, if is recycled
 	 */
 	public static boolean isRecycled(final lotus.domino.local.NotesBase base) {
-		try {
-			return ((Boolean) isInvalidMethod.invoke(base, (Object[]) null)).booleanValue();
-		} catch (Exception e) {
-			return false;
-		}
+		return handleAccessor_.isInvalid(base);
 	}
 
 	// /**
@@ -566,11 +747,31 @@ public abstract class Base<T extends org.openntf.domino.Base<D>, D extends lotus
 	 * @return true, if successful
 	 */
 	public static boolean s_recycle(final lotus.domino.local.NotesBase base) {
+		return s_recycle(base, !(base instanceof lotus.domino.DateTime || base instanceof lotus.domino.Name));
+	}
+
+	/**
+	 * Recycle.
+	 * 
+	 * @param base
+	 *            the base
+	 * @param invalidate
+	 *            whether live wrappers might still use the handle or its children, and so must probe their delegates again
+	 * @return true, if successful
+	 */
+	public static boolean s_recycle(final lotus.domino.local.NotesBase base, final boolean invalidate) {
 		boolean result = false;
 		if (!isLocked(base)) {
 			try {
+				DominoReferenceQueue drq = _getRecycleQueue();
+				if (drq.isInterning()) {
+					drq.forget(getLotusId(base));
+				}
 				base.recycle();
 				result = true;
+				if (invalidate) {
+					invalidateDelegates();
+				}
 			} catch (Throwable t) {
 				Factory.countRecycleError();
 				// shikata ga nai
@@ -581,6 +782,31 @@ public abstract class Base<T extends org.openntf.domino.Base<D>, D extends lotus
 		return result;
 	}
 
+	/**
+	 * Recycles raw lotus objects that were read straight from a delegate and never wrapped, such as the Items walked to index a note.
+	 * Any whose handle a live wrapper also holds are left to that wrapper, since recycling them would pull the handle out from under it.
+	 * 
+	 * @param objects
+	 *            the objects, or null
+	 * @return the number recycled
+	 */
+	public static int s_recycleUnwrapped(final Collection<?> objects) {
+		int result = 0;
+		if (objects == null || objects.isEmpty()) {
+			return result;
+		}
+		DominoReferenceQueue drq = _getRecycleQueue();
+		for (Object o : objects) {
+			if (o instanceof lotus.domino.local.NotesBase) {
+				lotus.domino.local.NotesBase base = (lotus.domino.local.NotesBase) o;
+				if (!drq.isWrapped(getLotusId(base)) && s_recycle(base, false)) {
+					result++;
+				}
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * Recycle.
 	 * 
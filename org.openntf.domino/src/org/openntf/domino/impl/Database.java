@@ -2590,8 +2590,13 @@ public class Database extends Base<org.openntf.domino.Database, lotus.domino.Dat
 	@Override
 	protected lotus.domino.Database getDelegate() {
 		lotus.domino.Database db = super.getDelegate();
+		long epoch = getRecycleEpoch();
+		if (!isDelegateSuspect(epoch)) {
+			return db;
+		}
 		try {
 			db.isFTIndexed();
+			setDelegateValid(epoch);
 		} catch (NotesException e) {
 			resurrect();
 		}
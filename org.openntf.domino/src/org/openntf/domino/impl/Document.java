@@ -19,12 +19,15 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.io.Writer;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -45,17 +48,21 @@ import org.openntf.domino.annotations.Legacy;
 import org.openntf.domino.events.EnumEvent;
 import org.openntf.domino.events.IDominoEvent;
 import org.openntf.domino.exceptions.DataNotCompatibleException;
+import org.openntf.domino.exceptions.DocumentNotFoundException;
 import org.openntf.domino.exceptions.ItemNotFoundException;
 import org.openntf.domino.exceptions.MIMEConversionException;
 import org.openntf.domino.ext.Database.Events;
 import org.openntf.domino.ext.Session.Fixes;
+import org.openntf.domino.helpers.DocumentSnapshot;
 import org.openntf.domino.helpers.Formula;
 import org.openntf.domino.transactions.DatabaseTransaction;
 import org.openntf.domino.types.BigString;
 import org.openntf.domino.types.Null;
 import org.openntf.domino.utils.DominoUtils;
 import org.openntf.domino.utils.Factory;
+import org.openntf.domino.utils.PackedUnids;
 import org.openntf.domino.utils.TypeUtils;
+import org.openntf.domino.utils.mime.MIMEBeanCache;
 
 // TODO: Auto-generated Javadoc
 /**
@@ -68,6 +75,107 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 		SOFT_FALSE, SOFT_TRUE, HARD_FALSE, HARD_TRUE;
 	}
 
+	/**
+	 * An item change recorded while write-behind buffering is on. A replace or a remove wipes out whatever was recorded for the item
+	 * before it; appends are kept in order behind it.
+	 */
+	private static class PendingWrite {
+		/** The item name, as last written. */
+		private final String name_;
+
+		/** Whether the item is replaced with value_ before the appends are applied. */
+		private final boolean replace_;
+
+		/** Whether the item is removed before the appends are applied. */
+		private final boolean remove_;
+
+		/** The replacement value. */
+		private final Object value_;
+
+		/** The summary flag for the replacement, or null to leave it to replaceItemValue. */
+		private final Boolean summary_;
+
+		/** The appended values, or null if there are none. */
+		private List<Object> appends_;
+
+		PendingWrite(final String name, final boolean replace, final boolean remove, final Object value, final Boolean summary) {
+			name_ = name;
+			replace_ = replace;
+			remove_ = remove;
+			value_ = value;
+			summary_ = summary;
+		}
+
+		void append(final Object value) {
+			if (appends_ == null) {
+				appends_ = new ArrayList<Object>(2);
+			}
+			appends_.add(value);
+		}
+
+		/**
+		 * Checks whether a read can be answered from this write without asking the note. Only a plain remove can: what a replace reads
+		 * back as depends on the conversions the note does when it's written, so a replaced item is written before it's read.
+		 * 
+		 * @return true, if it's a remove and nothing has been appended since
+		 */
+		boolean isReadable() {
+			return appends_ == null && remove_;
+		}
+	}
+
+	/** Returned by copyPendingValue for a value it can't take a private copy of. */
+	private static final Object UNCOPYABLE = new Object();
+
+	/**
+	 * Takes a private copy of a value that is being buffered, so that changes the caller makes to it afterwards don't leak into the write.
+	 * Immutable values are kept as they are; dates, arrays and the plain JDK lists are copied to the same class.
+	 * 
+	 * @param value
+	 *            the value
+	 * @return the copy, or UNCOPYABLE if the value has to be written straight away
+	 */
+	private static Object copyPendingValue(final Object value) {
+		if (value == null || value instanceof Null || value instanceof String || value instanceof Boolean || value instanceof Character
+				|| value instanceof Integer || value instanceof Long || value instanceof Double || value instanceof Float
+				|| value instanceof Short || value instanceof Byte) {
+			return value;
+		}
+		if (value instanceof Date) {
+			return ((Date) value).clone();
+		}
+		if (value instanceof Object[]) {
+			Object[] result = ((Object[]) value).clone();
+			for (int i = 0; i < result.length; i++) {
+				result[i] = copyPendingValue(result[i]);
+				if (result[i] == UNCOPYABLE) {
+					return UNCOPYABLE;
+				}
+			}
+			return result;
+		}
+		Class<?> valueClass = value.getClass();
+		if (valueClass == ArrayList.class || valueClass == Vector.class || valueClass == LinkedList.class) {
+			List<Object> result;
+			if (valueClass == ArrayList.class) {
+				result = new ArrayList<Object>();
+			} else if (valueClass == Vector.class) {
+				result = new Vector<Object>();
+			} else {
+				result = new LinkedList<Object>();
+			}
+			for (Object o : (List<?>) value) {
+				Object copy = copyPendingValue(o);
+				if (copy == UNCOPYABLE) {
+					return UNCOPYABLE;
+				}
+				result.add(copy);
+			}
+			return result;
+		}
+		return UNCOPYABLE;
+	}
+
 	private RemoveType removeType_;
 
 	private boolean isDirty_ = false;
@@ -79,6 +187,27 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	private boolean shouldWriteItemMeta_ = false; // TODO NTF create rules for making this true
 	private boolean shouldResurrect_ = false;
 
+	/** Item writes recorded while write-behind buffering is on, keyed by lower case item name; null while it is off. */
+	private Map<String, PendingWrite> pendingWrites_;
+
+	/** Item index answer for a name the document has no item for. */
+	private static final int INDEX_NO_ITEM = -1;
+
+	/** Item index answer for a name the index can't vouch for, because the item was written to since the walk. */
+	private static final int INDEX_UNSURE = -2;
+
+	/** The number of probing reads a document gets before they're answered from the item index instead. */
+	private static final int INDEX_AFTER_READS = 2;
+
+	/**
+	 * The item index: the type of the first item of each name, keyed by lower case name, from one walk over getItems(). Null until enough
+	 * reads have needed it, and again after a write that can't be pinned to one item.
+	 */
+	private Map<String, Integer> itemTypes_;
+
+	/** The number of reads that have probed the note for an item's type. */
+	private int typeProbes_;
+
 	// NTF - these are immutable by definition, so we should just copy it when we read in the doc
 	// yes, we're creating objects we might not need, but that's better than risking the toxicity of evil, wicked DateTime
 	// these ought to be final, since they can't change, but it makes the constructor really messy
@@ -110,6 +239,19 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 		initialize(delegate);
 	}
 
+	/**
+	 * Instantiates a document whose note isn't opened until it's first needed, for {@link LazyDocument}.
+	 * 
+	 * @param parent
+	 *            the database
+	 * @param noteid
+	 *            the note id
+	 */
+	protected Document(final org.openntf.domino.Database parent, final String noteid) {
+		super(null, parent);
+		noteid_ = noteid;
+	}
+
 	/**
 	 * Initialize.
 	 * 
@@ -297,7 +439,11 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public Item appendItemValue(final String name) {
-		markDirty();
+		if (pendingWrites_ != null) {
+			bufferAppend(name, null);
+			return null;
+		}
+		markDirty(name);
 		try {
 			return Factory.fromLotus(getDelegate().appendItemValue(name), Item.class, this);
 		} catch (NotesException e) {
@@ -334,7 +480,11 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	@Override
 	public Item appendItemValue(final String name, final Object value) {
-		markDirty();
+		if (pendingWrites_ != null) {
+			bufferAppend(name, value);
+			return null;
+		}
+		markDirty(name);
 		Item result = null;
 		try {
 			if (!hasItem(name)) {
@@ -434,6 +584,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public boolean closeMIMEEntities(final boolean saveChanges, final String entityItemName) {
+		forgetItemType(null);
 		try {
 			return getDelegate().closeMIMEEntities(saveChanges, entityItemName);
 		} catch (NotesException e) {
@@ -449,6 +600,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public boolean computeWithForm(final boolean doDataTypes, final boolean raiseError) {
+		flushItemWrites();
 		markDirty();
 		try {
 			return getDelegate().computeWithForm(doDataTypes, raiseError);
@@ -465,6 +617,8 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public void convertToMIME() {
+		flushItemWrites();
+		forgetItemType(null);
 		try {
 			getDelegate().convertToMIME();
 		} catch (NotesException e) {
@@ -479,6 +633,8 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public void convertToMIME(final int conversionType) {
+		flushItemWrites();
+		forgetItemType(null);
 		try {
 			getDelegate().convertToMIME(conversionType);
 		} catch (NotesException e) {
@@ -493,6 +649,8 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public void convertToMIME(final int conversionType, final int options) {
+		flushItemWrites();
+		forgetItemType(null);
 		try {
 			getDelegate().convertToMIME(conversionType, options);
 		} catch (NotesException e) {
@@ -507,6 +665,8 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public void copyAllItems(final lotus.domino.Document doc, final boolean replace) {
+		flushItemWrites();
+		forgetItemType(null);
 		try {
 			getDelegate().copyAllItems((lotus.domino.Document) toLotus(doc), replace);
 		} catch (NotesException e) {
@@ -522,6 +682,8 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	@Override
 	public Item copyItem(final lotus.domino.Item item) {
 		// TODO - NTF markDirty()?
+		flushItemWrites();
+		forgetItemType(null);
 		try {
 			return Factory.fromLotus(getDelegate().copyItem((lotus.domino.Item) toLotus(item)), Item.class, this);
 		} catch (NotesException e) {
@@ -538,6 +700,8 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	@Override
 	public Item copyItem(final lotus.domino.Item item, final String newName) {
 		// TODO - NTF markDirty()?
+		flushItemWrite(newName);
+		forgetItemType(newName);
 		try {
 			return Factory.fromLotus(getDelegate().copyItem((lotus.domino.Item) toLotus(item), newName), Item.class, this);
 		} catch (NotesException e) {
@@ -553,6 +717,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public Document copyToDatabase(final lotus.domino.Database db) {
+		flushItemWrites();
 		// TODO - NTF markDirty()?
 		try {
 			return Factory.fromLotus(getDelegate().copyToDatabase((lotus.domino.Database) toLotus(db)), Document.class, this);
@@ -587,6 +752,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public MIMEEntity createMIMEEntity(final String itemName) {
+		flushItemWrite(itemName);
 		// if (entityCache_.containsKey(itemName)) {
 		// log_.warning("Returning MIMEEntity for " + itemName + " from cache instead of creating...");
 		// return entityCache_.get(itemName);
@@ -594,7 +760,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 		try {
 			try {
 				lotus.domino.MIMEEntity me = getDelegate().createMIMEEntity(itemName);
-				markDirty();
+				markDirty(itemName);
 				MIMEEntity wrapped = Factory.fromLotus(me, MIMEEntity.class, this);
 				// entityCache_.put(itemName, wrapped);
 				return wrapped;
@@ -605,7 +771,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 					item.remove();
 				}
 				lotus.domino.MIMEEntity me = getDelegate().createMIMEEntity(itemName);
-				markDirty();
+				markDirty(itemName);
 				MIMEEntity wrapped = Factory.fromLotus(me, MIMEEntity.class, this);
 				// entityCache_.put(itemName, wrapped);
 				return wrapped;
@@ -640,7 +806,8 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public RichTextItem createRichTextItem(final String name) {
-		markDirty();
+		flushItemWrite(name);
+		markDirty(name);
 		try {
 			return Factory.fromLotus(getDelegate().createRichTextItem(name), RichTextItem.class, this);
 		} catch (NotesException e) {
@@ -656,6 +823,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public void encrypt() {
+		flushItemWrites();
 		markDirty();
 		try {
 			getDelegate().encrypt();
@@ -671,6 +839,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public String generateXML() {
+		flushItemWrites();
 		try {
 			return getDelegate().generateXML();
 		} catch (NotesException e) {
@@ -686,6 +855,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public void generateXML(final Object style, final lotus.domino.XSLTResultTarget result) throws IOException {
+		flushItemWrites();
 		try {
 			getDelegate().generateXML(style, result);
 		} catch (NotesException e) {
@@ -700,6 +870,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public void generateXML(final Writer w) throws IOException {
+		flushItemWrites();
 		try {
 			getDelegate().generateXML(w);
 		} catch (NotesException e) {
@@ -714,6 +885,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public EmbeddedObject getAttachment(final String fileName) {
+		flushItemWrites();
 		try {
 			return Factory.fromLotus(getDelegate().getAttachment(fileName), EmbeddedObject.class, this);
 		} catch (NotesException e) {
@@ -745,6 +917,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public Vector<Object> getColumnValues() {
+		flushItemWrites();
 		try {
 			Vector<?> values = getDelegate().getColumnValues();
 			if (values != null) {
@@ -765,6 +938,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public Vector<org.openntf.domino.EmbeddedObject> getEmbeddedObjects() {
+		flushItemWrites();
 		try {
 			return Factory.fromLotusAsVector(getDelegate().getEmbeddedObjects(), org.openntf.domino.EmbeddedObject.class,
 					this.getAncestorSession());
@@ -812,6 +986,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public Item getFirstItem(final String name) {
+		flushItemWrite(name);
 		try {
 			return Factory.fromLotus(getDelegate().getFirstItem(name), Item.class, this);
 		} catch (NotesException e) {
@@ -866,12 +1041,20 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 		// System.out.println("Requesting a value of type " + T.getName() + " in name " + name);
 		// }
 
-		boolean hasMime = hasMIMEEntity(name);
-		if (!hasMime) {
-			Item item = getFirstItem(name);
-			if (item != null && item.getType() == Item.MIME_PART) {
-				return (T) getItemValueMIME(name);
+		PendingWrite write = getPendingWrite(name);
+		if (write != null) {
+			return (T) TypeUtils.itemValueToClass(this, name, T);
+		}
+		int type = getIndexedItemType(name);
+		boolean hasMime = type == Item.MIME_PART;
+		if (type == INDEX_UNSURE) {
+			hasMime = hasMIMEEntity(name);
+			if (!hasMime) {
+				Item item = getFirstItem(name);
+				hasMime = item != null && item.getType() == Item.MIME_PART;
 			}
+		}
+		if (!hasMime) {
 			// if (T.equals(java.util.Collection.class) && getItemValueString("form").equalsIgnoreCase("container")) {
 			// System.out.println("No MIMEEntity found for " + name + ". Using regular item API...");
 			// }
@@ -890,8 +1073,36 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 		}
 	}
 
+	/**
+	 * Collects the UNIDs of a note collection for storing in a MIMEBean item, in the note id order the collection iterates in.
+	 * 
+	 * @param notes
+	 *            the notes
+	 * @return the packed UNIDs
+	 */
+	private static PackedUnids packUnids(final NoteCollection notes) {
+		List<String> unids = new ArrayList<String>(notes.getCount());
+		String noteid = notes.getFirstNoteID();
+		while (noteid != null && !noteid.isEmpty()) {
+			unids.add(notes.getUNID(noteid));
+			noteid = notes.getNextNoteID(noteid);
+		}
+		return new PackedUnids(unids);
+	}
+
 	private Object getItemValueMIME(final String name) {
 		Object resultObj = null;
+		// Unsaved changes don't show in the version, so only a clean document can use the bean cache
+		String cacheKey = null;
+		String cacheVersion = null;
+		if (MIMEBeanCache.isEnabled() && !isDirty() && !isNewNote()) {
+			cacheKey = MIMEBeanCache.getKey(getAncestorDatabase().getReplicaID(), getUniversalID(), name);
+			cacheVersion = MIMEBeanCache.getVersion(getLastModifiedDate(), getSize());
+			resultObj = MIMEBeanCache.get(cacheKey, cacheVersion);
+			if (resultObj != null) {
+				return resultObj;
+			}
+		}
 		try {
 			Session session = this.getAncestorSession();
 			boolean convertMime = session.isConvertMIME();
@@ -904,6 +1115,9 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 							"application/x-java-externalized-object"))) {
 				// Then it's a MIMEBean
 				resultObj = DominoUtils.restoreState(this, name);
+				if (cacheKey != null) {
+					MIMEBeanCache.put(cacheKey, cacheVersion, resultObj);
+				}
 			}
 			session.setConvertMIME(convertMime);
 		} catch (Throwable t) {
@@ -921,14 +1135,21 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	@Override
 	public Vector<Object> getItemValue(final String name) {
 		try {
+			PendingWrite write = getPendingWrite(name);
+			if (write != null) {
+				return new Vector<Object>();
+			}
 			// Check the item type to see if it's MIME - if so, then see if it's a MIMEBean
-			// This is a bit more expensive than I'd like
-			MIMEEntity entity = this.getMIMEEntity(name);
-			if (entity != null) {
+			// The item index answers this once the document has been read a few times; until then we have to ask for the entity
+			int type = getIndexedItemType(name);
+			if (type == Item.MIME_PART || (type == INDEX_UNSURE && this.getMIMEEntity(name) != null)) {
 				Vector<Object> result = new Vector<Object>(1);
 				result.add(getItemValueMIME(name));
 				return result;
 			}
+			if (type == INDEX_NO_ITEM) {
+				return new Vector<Object>();
+			}
 			Vector<?> vals = null;
 			try {
 				vals = getDelegate().getItemValue(name);
@@ -952,6 +1173,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public Object getItemValueCustomData(final String itemName) throws IOException, ClassNotFoundException {
+		flushItemWrite(itemName);
 		try {
 			return getDelegate().getItemValueCustomData(itemName);
 		} catch (NotesException e) {
@@ -967,6 +1189,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public Object getItemValueCustomData(final String itemName, final String dataTypeName) throws IOException, ClassNotFoundException {
+		flushItemWrite(itemName);
 		try {
 			return getDelegate().getItemValueCustomData(itemName, dataTypeName);
 		} catch (NotesException e) {
@@ -982,6 +1205,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public byte[] getItemValueCustomDataBytes(final String itemName, final String dataTypeName) throws IOException {
+		flushItemWrite(itemName);
 		try {
 			return getDelegate().getItemValueCustomDataBytes(itemName, dataTypeName);
 		} catch (NotesException e) {
@@ -997,6 +1221,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public Vector<org.openntf.domino.DateTime> getItemValueDateTimeArray(final String name) {
+		flushItemWrite(name);
 		try {
 			return Factory.fromLotusAsVector(getDelegate().getItemValueDateTimeArray(name), org.openntf.domino.DateTime.class, this);
 		} catch (NotesException e) {
@@ -1012,6 +1237,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public double getItemValueDouble(final String name) {
+		flushItemWrite(name);
 		try {
 			return getDelegate().getItemValueDouble(name);
 		} catch (NotesException e) {
@@ -1027,6 +1253,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public int getItemValueInteger(final String name) {
+		flushItemWrite(name);
 		try {
 			return getDelegate().getItemValueInteger(name);
 		} catch (NotesException e) {
@@ -1042,6 +1269,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public String getItemValueString(final String name) {
+		flushItemWrite(name);
 		try {
 			return getDelegate().getItemValueString(name);
 		} catch (NotesException e) {
@@ -1057,6 +1285,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public Vector<Item> getItems() {
+		flushItemWrites();
 		ItemVector iv = new ItemVector(this);
 		return iv;
 		// try {
@@ -1120,6 +1349,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public MIMEEntity getMIMEEntity(final String itemName) {
+		flushItemWrite(itemName);
 		// if (entityCache_.containsKey(itemName)) {
 		// log_.warning("Returning MIMEEntity " + itemName + " from local document cache...");
 		// return entityCache_.get(itemName);
@@ -1156,6 +1386,9 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public String getNoteID() {
+		if (delegate_ == null) {
+			return noteid_;
+		}
 		try {
 			return getDelegate().getNoteID();
 		} catch (NotesException e) {
@@ -1306,6 +1539,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public int getSize() {
+		flushItemWrites();
 		try {
 			return getDelegate().getSize();
 		} catch (NotesException e) {
@@ -1336,6 +1570,9 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public String getUniversalID() {
+		if (delegate_ == null && unid_ != null) {
+			return unid_;
+		}
 		try {
 			return getDelegate().getUniversalID();
 		} catch (NotesException e) {
@@ -1366,6 +1603,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public boolean hasEmbedded() {
+		flushItemWrites();
 		try {
 			return getDelegate().hasEmbedded();
 		} catch (NotesException e) {
@@ -1385,6 +1623,19 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 			if (name == null) {
 				return false;
 			} else {
+				PendingWrite write = getPendingWrite(name);
+				if (write != null) {
+					return !write.remove_;
+				}
+				if (itemTypes_ != null) {
+					// only use the index if some read already built it; a single hasItem is cheaper than the walk
+					Integer type = itemTypes_.get(name.toLowerCase());
+					if (type == null) {
+						return false;
+					} else if (type.intValue() != INDEX_UNSURE) {
+						return true;
+					}
+				}
 				return getDelegate().hasItem(name);
 			}
 		} catch (NotesException e) {
@@ -1394,6 +1645,10 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	}
 
 	public boolean hasMIMEEntity(final String name) {
+		int type = getIndexedItemType(name);
+		if (type != INDEX_UNSURE) {
+			return type == Item.MIME_PART;
+		}
 		boolean result = false;
 		Session session = this.getAncestorSession();
 		boolean convertMime = session.isConvertMIME();
@@ -1406,6 +1661,32 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 		return result;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.openntf.domino.ext.Document#getSnapshot()
+	 */
+	@Override
+	public DocumentSnapshot getSnapshot() {
+		flushItemWrites();
+		return DocumentSnapshot.of(this);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.openntf.domino.ext.Document#getSnapshot(java.lang.String[])
+	 */
+	@Override
+	public DocumentSnapshot getSnapshot(final String... itemNames) {
+		if (itemNames != null) {
+			for (String itemName : itemNames) {
+				flushItemWrite(itemName);
+			}
+		}
+		return DocumentSnapshot.of(this, itemNames);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -1731,6 +2012,8 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public void makeResponse(final lotus.domino.Document doc) {
+		// $Ref and $RefOptions are written directly, so nothing buffered may be replayed over them
+		flushItemWrites();
 		markDirty();
 		try {
 			getDelegate().makeResponse((lotus.domino.Document) toLotus(doc));
@@ -1877,9 +2160,14 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public void removeItem(final String name) {
-		markDirty();
-		keySet();
-		fieldNames_.remove(name);
+		if (pendingWrites_ != null) {
+			bufferWrite(name, false, true, null, null);
+			return;
+		}
+		markDirty(name);
+		if (fieldNames_ != null) {
+			fieldNames_.remove(name);
+		}
 		try {
 			if (getAncestorSession().isFixEnabled(Fixes.REMOVE_ITEM)) {
 				while (getDelegate().hasItem(name)) {
@@ -1926,6 +2214,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public boolean renderToRTItem(final lotus.domino.RichTextItem rtitem) {
+		flushItemWrites();
 		try {
 			getDelegate().renderToRTItem((lotus.domino.RichTextItem) toLotus(rtitem));
 		} catch (NotesException e) {
@@ -1941,9 +2230,13 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public Item replaceItemValue(final String itemName, final Object value, final boolean isSummary) {
-		markDirty();
+		if (pendingWrites_ != null) {
+			bufferWrite(itemName, true, false, value, Boolean.valueOf(isSummary));
+			return null;
+		}
+		markDirty(itemName);
 		Item result = replaceItemValue(itemName, value);
-		if (result.isSummary() != isSummary)
+		if (result != null && result.isSummary() != isSummary)
 			result.setSummary(isSummary);
 		return result;
 	}
@@ -1960,8 +2253,12 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 		// System.out.println("Replacing a value in " + itemName + " with a type of "
 		// + (value == null ? "null" : value.getClass().getSimpleName()));
 		// }
-		markDirty();
-		if (!keySet().contains(itemName)) {
+		if (pendingWrites_ != null) {
+			bufferWrite(itemName, true, false, value, null);
+			return null;
+		}
+		markDirty(itemName);
+		if (fieldNames_ != null) {
 			fieldNames_.add(itemName);
 		}
 		if (value == null || value instanceof Null) {
@@ -2073,12 +2370,15 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 					result = getDelegate().getFirstItem(itemName);
 					// result = null;
 				} else if (value instanceof DocumentCollection) {
-					// NoteIDs would be faster for this and, particularly, NoteCollection, but it should be replica-friendly
-					DocumentCollection docs = (DocumentCollection) value;
-					String[] unids = new String[docs.getCount()];
-					int index = 0;
-					for (org.openntf.domino.Document doc : docs) {
-						unids[index++] = doc.getUniversalID();
+					// Stored by UNID to be replica-friendly, but read from a NoteCollection so no document has to be opened. That
+					// puts them in note id order, so the collection's own order isn't kept
+					NoteCollection notes = org.openntf.domino.impl.DocumentCollection.toLotusNoteCollection((DocumentCollection) value);
+					PackedUnids unids;
+					try {
+						unids = packUnids(notes);
+					} finally {
+						// s_recycle ignores wrappers, so hand it the lotus handle
+						s_recycle(toLotus(notes));
 					}
 					Map<String, String> headers = new HashMap<String, String>(1);
 					headers.put("X-Original-Java-Class", "org.openntf.domino.DocumentCollection");
@@ -2086,18 +2386,9 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 					// result = null;
 					result = getDelegate().getFirstItem(itemName);
 				} else if (value instanceof NoteCollection) {
-					// Maybe it'd be faster to use .getNoteIDs - I'm not sure how the performance compares
-					NoteCollection notes = (NoteCollection) value;
-					String[] unids = new String[notes.getCount()];
-					String noteid = notes.getFirstNoteID();
-					int index = 0;
-					while (noteid != null && !noteid.isEmpty()) {
-						unids[index++] = notes.getUNID(noteid);
-						noteid = notes.getNextNoteID(noteid);
-					}
 					Map<String, String> headers = new HashMap<String, String>(1);
 					headers.put("X-Original-Java-Class", "org.openntf.domino.NoteCollection");
-					DominoUtils.saveState(unids, this, itemName, true, headers);
+					DominoUtils.saveState(packUnids((NoteCollection) value), this, itemName, true, headers);
 					// result = null;
 					result = getDelegate().getFirstItem(itemName);
 				} else {
@@ -2135,9 +2426,10 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 				} else {
 					infoNode = new HashMap<String, Serializable>();
 				}
-				infoNode.put("valueClass", valueClass.getName());
-				infoNode.put("updated", new Date()); // For sanity checking if the value was changed outside of Java
+				infoNode.put(ItemInfoCodec.VALUE_CLASS, valueClass.getName());
+				infoNode.put(ItemInfoCodec.UPDATED, new Date()); // For sanity checking if the value was changed outside of Java
 				itemInfo.put(itemName, infoNode);
+				itemInfoChanged_ = true;
 			}
 			if (result != null) {
 				return Factory.fromLotus(result, Item.class, this);
@@ -2151,29 +2443,64 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	}
 
 	private void writeItemInfo() {
-		if (this.shouldWriteItemMeta_) {
+		if (this.shouldWriteItemMeta_ && itemInfoChanged_) {
 			Map<String, Map<String, Serializable>> itemInfo = getItemInfo();
 			if (itemInfo != null && itemInfo.size() > 0) {
-				boolean convertMime = this.getAncestorSession().isConvertMime();
-				this.getAncestorSession().setConvertMime(false);
-				try {
-					DominoUtils.saveState((Serializable) getItemInfo(), this, "$$ItemInfo", false, null);
-				} catch (Throwable e) {
-					DominoUtils.handleException(e);
+				byte[] bytes = ItemInfoCodec.encode(itemInfo);
+				if (bytes != null && bytes.length <= ItemInfoCodec.MAX_BYTES) {
+					lotus.domino.Item previous = null;
+					lotus.domino.Item item = null;
+					try {
+						lotus.domino.Document del = getDelegate();
+						previous = del.getFirstItem("$$ItemInfo");
+						if (previous != null && previous.getType() != Item.USERDATA) {
+							// written in the old MIMEBean format; a custom data item can't replace a MIME part in place
+							del.removeItem("$$ItemInfo");
+						}
+						item = del.replaceItemValueCustomDataBytes("$$ItemInfo", ItemInfoCodec.DATA_TYPE, bytes);
+						item.setSummary(false);
+						markDirty("$$ItemInfo");
+					} catch (Throwable e) {
+						DominoUtils.handleException(e);
+					} finally {
+						// neither is wrapped, unless an Item wrapper for $$ItemInfo happens to share the handle
+						s_recycleUnwrapped(Arrays.asList(previous, item));
+					}
+				} else {
+					// something put values into the map that only serialization can hold
+					boolean convertMime = this.getAncestorSession().isConvertMime();
+					this.getAncestorSession().setConvertMime(false);
+					try {
+						DominoUtils.saveState((Serializable) getItemInfo(), this, "$$ItemInfo", false, null);
+					} catch (Throwable e) {
+						DominoUtils.handleException(e);
+					}
+					this.getAncestorSession().setConvertMime(convertMime);
 				}
-				this.getAncestorSession().setConvertMime(convertMime);
 			}
+			itemInfoChanged_ = false;
 		}
 	}
 
 	private Map<String, Map<String, Serializable>> itemInfo_;
 
+	/** Whether itemInfo_ has changed since it was read or written. */
+	private boolean itemInfoChanged_;
+
 	public Map<String, Map<String, Serializable>> getItemInfo() {
 		// TODO NTF make this optional
 		if (itemInfo_ == null) {
 			if (this.hasItem("$$ItemInfo")) {
-				if (this.getFirstItem("$$ItemInfo").getType() == Item.MIME_PART) {
-					// Then use the existing value
+				int type = this.getFirstItem("$$ItemInfo").getType();
+				if (type == Item.USERDATA) {
+					try {
+						itemInfo_ = ItemInfoCodec.decode(getDelegate().getItemValueCustomDataBytes("$$ItemInfo", ItemInfoCodec.DATA_TYPE));
+					} catch (Throwable t) {
+						DominoUtils.handleException(t);
+						itemInfo_ = new TreeMap<String, Map<String, Serializable>>();
+					}
+				} else if (type == Item.MIME_PART) {
+					// Then use the existing value, from before the binary format; it's rewritten in that format on the next change
 					try {
 						itemInfo_ = (Map<String, Map<String, Serializable>>) DominoUtils.restoreState(this, "$$ItemInfo");
 					} catch (Throwable t) {
@@ -2198,7 +2525,8 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public Item replaceItemValueCustomData(final String itemName, final Object userObj) throws IOException {
-		markDirty();
+		flushItemWrite(itemName);
+		markDirty(itemName);
 		try {
 			return Factory.fromLotus(getDelegate().replaceItemValueCustomData(itemName, userObj), Item.class, this);
 		} catch (NotesException e) {
@@ -2214,7 +2542,8 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public Item replaceItemValueCustomData(final String itemName, final String dataTypeName, final Object userObj) throws IOException {
-		markDirty();
+		flushItemWrite(itemName);
+		markDirty(itemName);
 		try {
 			return Factory.fromLotus(getDelegate().replaceItemValueCustomData(itemName, dataTypeName, userObj), Item.class, this);
 		} catch (NotesException e) {
@@ -2231,7 +2560,8 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	@Override
 	public Item replaceItemValueCustomDataBytes(final String itemName, final String dataTypeName, final byte[] byteArray)
 			throws IOException {
-		markDirty();
+		flushItemWrite(itemName);
+		markDirty(itemName);
 		try {
 			if (byteArray.length > 65535) {
 				// Then fall back to the normal method, which will MIMEBean it
@@ -2295,6 +2625,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 			boolean go = true;
 			go = getAncestorDatabase().fireListener(generateEvent(Events.BEFORE_UPDATE_DOCUMENT, null));
 			if (go) {
+				flushItemWrites();
 				writeItemInfo();
 				isNew_ = false;
 				try {
@@ -2341,6 +2672,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 				}
 				if (result) {
 					clearDirty();
+					lastModified_ = null;
 					getAncestorDatabase().fireListener(generateEvent(Events.AFTER_UPDATE_DOCUMENT, null));
 				}
 			} else {
@@ -2369,6 +2701,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public void send() {
+		flushItemWrites();
 		// TODO - NTF handle transaction context
 		try {
 			getDelegate().send();
@@ -2384,6 +2717,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public void send(final boolean attachForm) {
+		flushItemWrites();
 		// TODO - NTF handle transaction context
 		try {
 			getDelegate().send(attachForm);
@@ -2399,6 +2733,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public void send(final boolean attachForm, final String recipient) {
+		flushItemWrites();
 		// TODO - NTF handle transaction context
 		try {
 			getDelegate().send(attachForm, recipient);
@@ -2415,6 +2750,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	@SuppressWarnings("unchecked")
 	@Override
 	public void send(final boolean attachForm, final Vector recipients) {
+		flushItemWrites();
 		// TODO - NTF handle transaction context
 		try {
 			getDelegate().send(attachForm, recipients);
@@ -2430,6 +2766,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public void send(final String recipient) {
+		flushItemWrites();
 		// TODO - NTF handle transaction context
 		try {
 			getDelegate().send(recipient);
@@ -2446,6 +2783,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	@SuppressWarnings("unchecked")
 	@Override
 	public void send(final Vector recipients) {
+		flushItemWrites();
 		// TODO - NTF handle transaction context
 		try {
 			getDelegate().send(recipients);
@@ -2588,6 +2926,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	 */
 	@Override
 	public void sign() {
+		flushItemWrites();
 		try {
 			getDelegate().sign();
 		} catch (NotesException e) {
@@ -2611,6 +2950,17 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	}
 
 	void markDirty() {
+		markDirty(null);
+	}
+
+	/**
+	 * Marks the document as changed by a write to an item.
+	 * 
+	 * @param itemName
+	 *            the item written to, or null if the write may have touched any item
+	 */
+	void markDirty(final String itemName) {
+		forgetItemType(itemName);
 		isDirty_ = true;
 		if (!isQueued_) {
 			DatabaseTransaction txn = getParentDatabase().getTransaction();
@@ -2644,11 +2994,18 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	public void rollback() {
 		if (removeType_ != null)
 			removeType_ = null;
+		if (pendingWrites_ != null)
+			pendingWrites_.clear();
+		forgetItemType(null);
+		itemInfo_ = null;
+		itemInfoChanged_ = false;
 		if (isDirty()) {
 			String nid = getNoteID();
 			try {
 				lotus.domino.Database delDb = getDelegate().getParentDatabase();
 				getDelegate().recycle();
+				setDelegateRecycled();
+				invalidateDelegates(); // for our Items
 				shouldResurrect_ = true;
 				// lotus.domino.Document junkDoc = delDb.createDocument(); // NTF - Why? To make sure I get a new cppid. Otherwise the
 				// handle
@@ -2667,6 +3024,184 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 		return isDirty_;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.openntf.domino.ext.Document#isBufferedWrites()
+	 */
+	@Override
+	public boolean isBufferedWrites() {
+		return pendingWrites_ != null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.openntf.domino.ext.Document#setBufferedWrites(boolean)
+	 */
+	@Override
+	public void setBufferedWrites(final boolean buffered) {
+		if (buffered) {
+			if (pendingWrites_ == null) {
+				pendingWrites_ = new LinkedHashMap<String, PendingWrite>();
+			}
+		} else if (pendingWrites_ != null) {
+			flushItemWrites();
+			pendingWrites_ = null;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.openntf.domino.ext.Document#flushItemWrites()
+	 */
+	@Override
+	public void flushItemWrites() {
+		Map<String, PendingWrite> pending = pendingWrites_;
+		if (pending == null || pending.isEmpty()) {
+			return;
+		}
+		pendingWrites_ = null; // so the writes below go to the delegate
+		try {
+			for (PendingWrite write : pending.values()) {
+				applyPendingWrite(write);
+			}
+		} finally {
+			pending.clear();
+			pendingWrites_ = pending;
+		}
+	}
+
+	/**
+	 * Applies the buffered writes of one item, so that a direct read or write of it sees them.
+	 * 
+	 * @param name
+	 *            the item name
+	 */
+	private void flushItemWrite(final String name) {
+		Map<String, PendingWrite> pending = pendingWrites_;
+		if (pending == null || pending.isEmpty() || name == null) {
+			return;
+		}
+		PendingWrite write = pending.remove(name.toLowerCase());
+		if (write != null) {
+			pendingWrites_ = null;
+			try {
+				applyPendingWrite(write);
+			} finally {
+				pendingWrites_ = pending;
+			}
+		}
+	}
+
+	/**
+	 * Applies a buffered write through the regular, unbuffered methods, so it gets the same Fixes and MIME handling as a direct write.
+	 * 
+	 * @param write
+	 *            the write
+	 */
+	private void applyPendingWrite(final PendingWrite write) {
+		if (write.remove_) {
+			removeItem(write.name_);
+		} else if (write.replace_) {
+			if (write.summary_ == null) {
+				replaceItemValue(write.name_, write.value_);
+			} else {
+				replaceItemValue(write.name_, write.value_, write.summary_.booleanValue());
+			}
+		}
+		if (write.appends_ != null) {
+			for (Object value : write.appends_) {
+				if (value == null) {
+					appendItemValue(write.name_);
+				} else {
+					appendItemValue(write.name_, value);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the buffered write of an item if a read can be answered from it. If the item has buffered writes that can't, because they
+	 * depend on what the note makes of them, they are applied first.
+	 * 
+	 * @param name
+	 *            the item name
+	 * @return the write, or null if the note has to be read
+	 */
+	private PendingWrite getPendingWrite(final String name) {
+		if (pendingWrites_ == null || pendingWrites_.isEmpty() || name == null) {
+			return null;
+		}
+		PendingWrite write = pendingWrites_.get(name.toLowerCase());
+		if (write == null) {
+			return null;
+		}
+		if (write.isReadable()) {
+			return write;
+		}
+		flushItemWrite(name);
+		return null;
+	}
+
+	/**
+	 * Records a replace or remove, dropping anything recorded for the item before.
+	 * 
+	 * @param name
+	 *            the item name
+	 * @param replace
+	 *            whether it's a replace
+	 * @param remove
+	 *            whether it's a remove
+	 * @param value
+	 *            the replacement value
+	 * @param summary
+	 *            the summary flag, or null
+	 */
+	private void bufferWrite(final String name, final boolean replace, final boolean remove, final Object value, final Boolean summary) {
+		markDirty(name);
+		Object copy = copyPendingValue(value);
+		pendingWrites_.put(name.toLowerCase(), new PendingWrite(name, replace, remove, copy == UNCOPYABLE ? value : copy, summary));
+		if (fieldNames_ != null) {
+			if (remove) {
+				fieldNames_.remove(name);
+			} else {
+				fieldNames_.add(name);
+			}
+		}
+		if (copy == UNCOPYABLE) {
+			// the caller could still change it, so it has to be written as it is now
+			flushItemWrite(name);
+		}
+	}
+
+	/**
+	 * Records an append behind whatever was recorded for the item before.
+	 * 
+	 * @param name
+	 *            the item name
+	 * @param value
+	 *            the value, or null for appendItemValue(String)
+	 */
+	private void bufferAppend(final String name, final Object value) {
+		markDirty(name);
+		String key = name.toLowerCase();
+		PendingWrite write = pendingWrites_.get(key);
+		if (write == null) {
+			write = new PendingWrite(name, false, false, null, null);
+			pendingWrites_.put(key, write);
+		}
+		Object copy = copyPendingValue(value);
+		write.append(copy == UNCOPYABLE ? value : copy);
+		if (fieldNames_ != null) {
+			fieldNames_.add(name);
+		}
+		if (copy == UNCOPYABLE) {
+			flushItemWrite(name);
+		}
+	}
+
 	public boolean forceDelegateRemove() {
 		boolean result = false;
 		RemoveType type = removeType_;
@@ -2689,8 +3224,17 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	@Override
 	protected lotus.domino.Document getDelegate() {
 		lotus.domino.Document d = super.getDelegate();
+		if (d == null) {
+			openDelegate();
+			return super.getDelegate();
+		}
+		long epoch = getRecycleEpoch();
+		if (!isDelegateSuspect(epoch)) {
+			return d;
+		}
 		try {
 			d.isProfile();
+			setDelegateValid(epoch);
 		} catch (NotesException recycleSucks) {
 			// if (shouldResurrect_) {
 			resurrect();
@@ -2699,6 +3243,37 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 		return super.getDelegate();
 	}
 
+	/**
+	 * Opens the note for a document that doesn't have it open, because it was never opened or was released.
+	 * 
+	 * @throws DocumentNotFoundException
+	 *             if the note can't be opened, e.g. because it was deleted since the document was handed out
+	 */
+	protected void openDelegate() {
+		NotesException cause = null;
+		if (noteid_ != null) {
+			try {
+				lotus.domino.Database db = ((org.openntf.domino.impl.Database) getParentDatabase()).getDelegate();
+				lotus.domino.Document d = db.getDocumentByID(noteid_);
+				if (d != null) {
+					setDelegate(d);
+					forgetItemType(null);
+					if (unid_ == null) {
+						unid_ = d.getUniversalID();
+					}
+					return;
+				}
+			} catch (NotesException e) {
+				cause = e;
+			}
+		}
+		// a document without a delegate would only fail later with a NullPointerException
+		DocumentNotFoundException e = new DocumentNotFoundException("Document " + noteid_ + " could not be opened in database path "
+				+ getParentDatabase().getFilePath(), noteid_, cause);
+		DominoUtils.handleException(e);
+		throw e;
+	}
+
 	private void resurrect() {
 		if (noteid_ != null) {
 			try {
@@ -2735,6 +3310,7 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 				// d = ((org.openntf.domino.impl.Database) getParentDatabase()).getDelegate().getDocumentByID(noteid_);
 				// }
 				setDelegate(d);
+				forgetItemType(null);
 				shouldResurrect_ = false;
 				if (log_.isLoggable(Level.FINE)) {
 					log_.log(Level.FINE, "Document " + noteid_ + " in database path " + getParentDatabase().getFilePath()
@@ -2885,14 +3461,103 @@ public class Document extends Base<org.openntf.domino.Document, lotus.domino.Doc
 	@Override
 	public Set<String> keySet() {
 		if (fieldNames_ == null) {
-			fieldNames_ = new LinkedHashSet<String>();
-			ItemVector items = (ItemVector) this.getItems();
-			String[] names = items.getNames();
-			List<String> fieldNames_ = Arrays.asList(names);
+			indexItems();
+			if (fieldNames_ == null) {
+				fieldNames_ = new LinkedHashSet<String>();
+			}
+			if (pendingWrites_ != null) {
+				for (PendingWrite write : pendingWrites_.values()) {
+					if (write.remove_ && write.appends_ == null) {
+						fieldNames_.remove(write.name_);
+					} else {
+						fieldNames_.add(write.name_);
+					}
+				}
+			}
 		}
 		return Collections.unmodifiableSet(fieldNames_);
 	}
 
+	/**
+	 * Walks getItems() once to build the item index, and the field names if keySet() hasn't got them yet.
+	 * 
+	 * @return the item index, or null if the walk failed
+	 */
+	private Map<String, Integer> indexItems() {
+		Map<String, Integer> types = new HashMap<String, Integer>();
+		Set<String> names = new LinkedHashSet<String>();
+		Session session = getAncestorSession();
+		boolean convertMime = session.isConvertMIME();
+		session.setConvertMIME(false);
+		Vector<?> items = null;
+		try {
+			items = getDelegate().getItems();
+			for (Object o : items) {
+				if (o instanceof lotus.domino.Item) {
+					lotus.domino.Item item = (lotus.domino.Item) o;
+					String name = item.getName();
+					String key = name.toLowerCase();
+					if (!types.containsKey(key)) {
+						// the first item wins, as with getFirstItem
+						types.put(key, Integer.valueOf(item.getType()));
+					}
+					names.add(name);
+				}
+			}
+		} catch (NotesException e) {
+			// a partial index would claim that the items it missed don't exist
+			log_.log(Level.WARNING, "Unable to index the items of document " + noteid_ + ": " + e.text);
+			return null;
+		} finally {
+			session.setConvertMIME(convertMime);
+			// the items are never wrapped, so nothing else would recycle them
+			s_recycleUnwrapped(items);
+		}
+		itemTypes_ = types;
+		if (fieldNames_ == null) {
+			fieldNames_ = names;
+		}
+		return types;
+	}
+
+	/**
+	 * Looks up the type of the first item of a name in the item index. The index is built on the first read that needs it after
+	 * {@link #INDEX_AFTER_READS} reads have probed the note directly, so that documents that are only read once or twice never pay for
+	 * the walk.
+	 * 
+	 * @param name
+	 *            the item name
+	 * @return the item type, {@link #INDEX_NO_ITEM} if there is no such item, or {@link #INDEX_UNSURE} if the note has to be asked
+	 */
+	private int getIndexedItemType(final String name) {
+		if (name == null) {
+			return INDEX_NO_ITEM;
+		}
+		Map<String, Integer> types = itemTypes_;
+		if (types == null) {
+			if (++typeProbes_ <= INDEX_AFTER_READS || (types = indexItems()) == null) {
+				return INDEX_UNSURE;
+			}
+		}
+		Integer type = types.get(name.toLowerCase());
+		return type == null ? INDEX_NO_ITEM : type.intValue();
+	}
+
+	/**
+	 * Makes the item index forget what it knows about an item after a write to it.
+	 * 
+	 * @param itemName
+	 *            the item name, or null to drop the whole index along with the field names
+	 */
+	private void forgetItemType(final String itemName) {
+		if (itemName == null) {
+			itemTypes_ = null;
+			fieldNames_ = null;
+		} else if (itemTypes_ != null) {
+			itemTypes_.put(itemName.toLowerCase(), Integer.valueOf(INDEX_UNSURE));
+		}
+	}
+
 	@Override
 	public Object put(final String key, final Object value) {
 		if (key != null) {
@@ -25,6 +25,9 @@ import org.openntf.domino.Database;
 import org.openntf.domino.DateTime;
 import org.openntf.domino.Session;
 import org.openntf.domino.iterators.DocumentIterator;
+import org.openntf.domino.thread.DominoExecutor;
+import org.openntf.domino.thread.ParallelProcessor;
+import org.openntf.domino.thread.SessionPool;
 import org.openntf.domino.utils.DominoUtils;
 import org.openntf.domino.utils.Factory;
 
@@ -747,6 +750,57 @@ public class DocumentCollection extends Base<org.openntf.domino.DocumentCollecti
 		return new DocumentIterator(this);
 	}
 
+	/**
+	 * Gets the note ids of the documents in the collection.
+	 * 
+	 * @return the note ids
+	 */
+	private int[] getCollectionNoteIds() {
+		org.openntf.domino.NoteCollection nc = null;
+		try {
+			nc = toLotusNoteCollection(this);
+			return nc.getNoteIDs();
+		} finally {
+			// s_recycle ignores wrappers, so hand it the lotus handle
+			s_recycle(toLotus(nc));
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.openntf.domino.ext.DocumentCollection#processParallel(org.openntf.domino.thread.ParallelProcessor.Callback, int)
+	 */
+	@Override
+	public <R> ParallelProcessor.Result<R> processParallel(final ParallelProcessor.Callback<R> callback, final int threads) {
+		return ParallelProcessor.process(getParentDatabase(), getCollectionNoteIds(), callback, threads);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.openntf.domino.ext.DocumentCollection#processParallel(org.openntf.domino.thread.ParallelProcessor.Callback,
+	 * org.openntf.domino.thread.DominoExecutor, int)
+	 */
+	@Override
+	public <R> ParallelProcessor.Result<R> processParallel(final ParallelProcessor.Callback<R> callback, final DominoExecutor executor,
+			final int rangeSize) {
+		return ParallelProcessor.process(getParentDatabase(), getCollectionNoteIds(), callback, executor, rangeSize);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.openntf.domino.ext.DocumentCollection#processParallel(org.openntf.domino.thread.ParallelProcessor.Callback,
+	 * org.openntf.domino.thread.DominoExecutor, int, org.openntf.domino.thread.SessionPool.Key,
+	 * org.openntf.domino.thread.SessionPool.SessionFactory)
+	 */
+	@Override
+	public <R> ParallelProcessor.Result<R> processParallel(final ParallelProcessor.Callback<R> callback, final DominoExecutor executor,
+			final int rangeSize, final SessionPool.Key key, final SessionPool.SessionFactory factory) {
+		return ParallelProcessor.process(getParentDatabase(), getCollectionNoteIds(), callback, executor, rangeSize, key, factory);
+	}
+
 	public org.openntf.domino.Database getParentDatabase() {
 		return getParent();
 	}
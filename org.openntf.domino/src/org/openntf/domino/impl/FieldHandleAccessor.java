@@ -0,0 +1,176 @@
+/*
+ * Copyright 2013
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at:
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 
+ * implied. See the License for the specific language governing 
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.impl;
+
+import java.lang.reflect.Field;
+import java.security.AccessController;
+import java.security.PrivilegedExceptionAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads the handle id straight out of NotesBase's cpp_object field through a Field bound once when the class is loaded. There's no
+ * Method.invoke and no boxing, so it costs about as much as a field read, and it needs nothing beyond java.lang.reflect.
+ * 
+ * The field isn't part of any published API, so the first reads are checked against a fallback accessor; if they ever disagree, this
+ * accessor stops reading the field and hands every call to the fallback. A handle whose id reads as 0 has been recycled, so validity is
+ * answered from the field in that case and from the fallback otherwise.
+ */
+public class FieldHandleAccessor implements HandleAccessor {
+	/** The Constant log_. */
+	private static final Logger log_ = Logger.getLogger(FieldHandleAccessor.class.getName());
+
+	/** The name of the NotesBase field holding the handle id. */
+	private static final String CPP_FIELD = "cpp_object";
+
+	/** How many reads are checked against the fallback. */
+	private static final int VERIFY_COUNT = 64;
+
+	/** The handle id field, made accessible. */
+	private final Field cppField_;
+
+	/** The fallback. */
+	private final HandleAccessor fallback_;
+
+	/** The reads left to check. Races only cost an extra check. */
+	private int checksLeft_ = VERIFY_COUNT;
+
+	/** The validity answers left to check. */
+	private int invalidChecksLeft_ = VERIFY_COUNT;
+
+	/** Whether a check failed. */
+	private volatile boolean broken_;
+
+	/**
+	 * Instantiates a new field handle accessor.
+	 * 
+	 * @param cppField
+	 *            the handle id field, made accessible
+	 * @param fallback
+	 *            the fallback
+	 */
+	private FieldHandleAccessor(final Field cppField, final HandleAccessor fallback) {
+		cppField_ = cppField;
+		fallback_ = fallback;
+	}
+
+	/**
+	 * Binds an accessor to the running Notes.jar.
+	 * 
+	 * @param fallback
+	 *            the accessor used to check the first reads, and for everything this one can't do
+	 * @return the accessor, or null if the field isn't available
+	 */
+	public static FieldHandleAccessor bind(final HandleAccessor fallback) {
+		try {
+			return AccessController.doPrivileged(new PrivilegedExceptionAction<FieldHandleAccessor>() {
+				@Override
+				public FieldHandleAccessor run() throws Exception {
+					Field cppField = lotus.domino.local.NotesBase.class.getDeclaredField(CPP_FIELD);
+					if (cppField.getType() != Long.TYPE) {
+						return null;
+					}
+					cppField.setAccessible(true);
+					return new FieldHandleAccessor(cppField, fallback);
+				}
+			});
+		} catch (Throwable t) {
+			if (log_.isLoggable(Level.FINE))
+				log_.log(Level.FINE, "Unable to bind a FieldHandleAccessor; handle ids will be read through reflection", t);
+			return null;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.openntf.domino.impl.HandleAccessor#getCppId(lotus.domino.local.NotesBase)
+	 */
+	@Override
+	public long getCppId(final lotus.domino.local.NotesBase base) {
+		if (base == null) {
+			return 0L;
+		}
+		if (broken_) {
+			return fallback_.getCppId(base);
+		}
+		long result;
+		try {
+			result = cppField_.getLong(base);
+		} catch (IllegalAccessException e) {
+			fail("can't be read", e);
+			return fallback_.getCppId(base);
+		}
+		if (checksLeft_ > 0) {
+			long expected = fallback_.getCppId(base);
+			if (expected != result) {
+				fail("doesn't hold the handle id in this Notes.jar (read " + result + ", expected " + expected + ")", null);
+				return expected;
+			}
+			checksLeft_--;
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.openntf.domino.impl.HandleAccessor#isInvalid(lotus.domino.local.NotesBase)
+	 */
+	@Override
+	public boolean isInvalid(final lotus.domino.local.NotesBase base) {
+		if (base == null || broken_) {
+			return fallback_.isInvalid(base);
+		}
+		long id;
+		try {
+			id = cppField_.getLong(base);
+		} catch (IllegalAccessException e) {
+			fail("can't be read", e);
+			return fallback_.isInvalid(base);
+		}
+		if (id != 0L) {
+			return fallback_.isInvalid(base);
+		}
+		if (invalidChecksLeft_ > 0) {
+			if (!fallback_.isInvalid(base)) {
+				fail("reads as 0 for a valid handle in this Notes.jar", null);
+				return false;
+			}
+			invalidChecksLeft_--;
+		}
+		return true;
+	}
+
+	/**
+	 * Stops reading the field after a check failed.
+	 * 
+	 * @param reason
+	 *            what went wrong with the field
+	 * @param t
+	 *            the cause, or null
+	 */
+	private void fail(final String reason, final Throwable t) {
+		broken_ = true;
+		if (log_.isLoggable(Level.WARNING))
+			log_.log(Level.WARNING, "NotesBase." + CPP_FIELD + " " + reason + ". Falling back to reflection.", t);
+	}
+
+	/**
+	 * Checks if a check failed and every call now goes to the fallback.
+	 * 
+	 * @return true, if broken
+	 */
+	public boolean isBroken() {
+		return broken_;
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2013
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at:
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 
+ * implied. See the License for the specific language governing 
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.impl;
+
+/**
+ * Reads the C++ handle id and validity of a lotus object. {@link lotus.domino.local.NotesBase} only exposes these through non-public
+ * methods, and they're needed every time a wrapper is created, so the way they're reached is pluggable: see
+ * {@link Base#setHandleAccessor(HandleAccessor)}.
+ * 
+ * Implementations must be thread-safe.
+ */
+public interface HandleAccessor {
+
+	/**
+	 * Gets the C++ handle id.
+	 * 
+	 * @param base
+	 *            the lotus object, or null
+	 * @return the handle id, or 0 if it's null or can't be read
+	 */
+	public long getCppId(final lotus.domino.local.NotesBase base);
+
+	/**
+	 * Checks if the lotus object has been recycled or otherwise invalidated.
+	 * 
+	 * @param base
+	 *            the lotus object
+	 * @return true, if invalid
+	 */
+	public boolean isInvalid(final lotus.domino.local.NotesBase base);
+}
@@ -904,7 +904,7 @@ public class Item extends Base<org.openntf.domino.Item, lotus.domino.Item> imple
 	}
 
 	void markDirty() {
-		getAncestorDocument().markDirty();
+		getAncestorDocument().markDirty(name_);
 	}
 
 	/*
@@ -940,8 +940,13 @@ public class Item extends Base<org.openntf.domino.Item, lotus.domino.Item> imple
 	@Override
 	protected lotus.domino.Item getDelegate() {
 		lotus.domino.Item item = super.getDelegate();
+		long epoch = getRecycleEpoch();
+		if (!isDelegateSuspect(epoch)) {
+			return item;
+		}
 		try {
 			item.isEncrypted();
+			setDelegateValid(epoch);
 		} catch (NotesException recycleSucks) {
 			resurrect();
 		}
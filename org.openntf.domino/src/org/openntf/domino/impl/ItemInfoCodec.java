@@ -0,0 +1,146 @@
+/*
+ * Copyright 2013
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at:
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 
+ * implied. See the License for the specific language governing 
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Binary encoding of a Document's $$ItemInfo map, stored as a custom data item instead of a serialized, MIME-wrapped TreeMap.
+ * 
+ * Layout, all big-endian as written by {@link DataOutputStream}: a version byte; the number of distinct value class names and the names
+ * themselves; the number of items; then for each item its name, the index of its value class name (-1 for none) and its updated time in
+ * milliseconds (0 for none). Class names repeat across items far more than item names do, which is why they get a table.
+ * 
+ * Only the "valueClass" and "updated" entries that Document writes can be encoded. A map with anything else in it can't, and has to be
+ * stored the old way.
+ */
+final class ItemInfoCodec {
+	/** The custom data type name of the item. */
+	static final String DATA_TYPE = "OpenNTFItemInfo";
+
+	/** The largest encoding that fits a custom data item. */
+	static final int MAX_BYTES = 65000;
+
+	/** The format version this class writes. */
+	private static final byte VERSION = 1;
+
+	/** The info key for the value class name. */
+	static final String VALUE_CLASS = "valueClass";
+
+	/** The info key for the last update. */
+	static final String UPDATED = "updated";
+
+	private ItemInfoCodec() {
+	}
+
+	/**
+	 * Encodes an item info map.
+	 * 
+	 * @param itemInfo
+	 *            the item info
+	 * @return the encoding, or null if the map has entries this format can't hold
+	 */
+	static byte[] encode(final Map<String, Map<String, Serializable>> itemInfo) {
+		List<String> classNames = new ArrayList<String>();
+		Map<String, Integer> classIndex = new HashMap<String, Integer>();
+		for (Map<String, Serializable> infoNode : itemInfo.values()) {
+			for (Map.Entry<String, Serializable> entry : infoNode.entrySet()) {
+				String key = entry.getKey();
+				Object value = entry.getValue();
+				if (VALUE_CLASS.equals(key) && value instanceof String) {
+					if (!classIndex.containsKey(value)) {
+						classIndex.put((String) value, classNames.size());
+						classNames.add((String) value);
+					}
+				} else if (!(UPDATED.equals(key) && value instanceof Date)) {
+					return null;
+				}
+			}
+		}
+
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + itemInfo.size() * 24);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(VERSION);
+			out.writeInt(classNames.size());
+			for (String className : classNames) {
+				out.writeUTF(className);
+			}
+			out.writeInt(itemInfo.size());
+			for (Map.Entry<String, Map<String, Serializable>> entry : itemInfo.entrySet()) {
+				Map<String, Serializable> infoNode = entry.getValue();
+				Object valueClass = infoNode.get(VALUE_CLASS);
+				Date updated = (Date) infoNode.get(UPDATED);
+				out.writeUTF(entry.getKey());
+				out.writeInt(valueClass == null ? -1 : classIndex.get(valueClass).intValue());
+				out.writeLong(updated == null ? 0l : updated.getTime());
+			}
+			out.flush();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			// can't happen with a ByteArrayOutputStream, and a UTF string longer than 64K isn't an item name
+			return null;
+		}
+	}
+
+	/**
+	 * Decodes an item info map.
+	 * 
+	 * @param bytes
+	 *            the encoding
+	 * @return the item info, sorted by item name like the maps Document builds itself
+	 * @throws IOException
+	 *             if the bytes aren't in a known version of the format
+	 */
+	static Map<String, Map<String, Serializable>> decode(final byte[] bytes) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		byte version = in.readByte();
+		if (version != VERSION) {
+			throw new IOException("Unknown $$ItemInfo format version " + version);
+		}
+		String[] classNames = new String[in.readInt()];
+		for (int i = 0; i < classNames.length; i++) {
+			classNames[i] = in.readUTF();
+		}
+		int count = in.readInt();
+		Map<String, Map<String, Serializable>> result = new TreeMap<String, Map<String, Serializable>>();
+		for (int i = 0; i < count; i++) {
+			String itemName = in.readUTF();
+			int classIndex = in.readInt();
+			long updated = in.readLong();
+			Map<String, Serializable> infoNode = new HashMap<String, Serializable>(4);
+			if (classIndex >= 0) {
+				infoNode.put(VALUE_CLASS, classNames[classIndex]);
+			}
+			if (updated != 0l) {
+				infoNode.put(UPDATED, new Date(updated));
+			}
+			result.put(itemName, infoNode);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2013
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at:
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 
+ * implied. See the License for the specific language governing 
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.impl;
+
+import org.openntf.domino.thread.DominoReferenceQueue;
+import org.openntf.domino.thread.DominoReleasable;
+
+/**
+ * A Document that is built from its note id alone and doesn't open its note until something needs it. Iterating a large collection then
+ * costs no NSF open and no handle for the documents that are only looked at for their note id, or skipped.
+ * 
+ * Once open, the document registers with its thread's recycle queue, which may ask it to {@link #release()} its handle when the thread
+ * goes over its handle budget. A document without unsaved changes lets go and opens the note again when it's next used. Like other
+ * wrappers it must stay on the thread that created it.
+ * 
+ * If the note is gone by the time it's needed, e.g. because it was deleted while the collection was being iterated, the first use that
+ * opens it throws a {@link org.openntf.domino.exceptions.DocumentNotFoundException}.
+ */
+public class LazyDocument extends Document implements DominoReleasable {
+
+	/**
+	 * Instantiates a new lazy document.
+	 * 
+	 * @param parent
+	 *            the database the document is in
+	 * @param noteid
+	 *            the note id, in upper case hex
+	 */
+	public LazyDocument(final org.openntf.domino.Database parent, final String noteid) {
+		super(parent, noteid);
+	}
+
+	/**
+	 * Instantiates a new lazy document.
+	 * 
+	 * @param parent
+	 *            the database the document is in
+	 * @param noteid
+	 *            the note id
+	 */
+	public LazyDocument(final org.openntf.domino.Database parent, final int noteid) {
+		// upper case, as Notes itself returns note ids
+		this(parent, Integer.toHexString(noteid).toUpperCase());
+	}
+
+	/**
+	 * Checks if the note is open.
+	 * 
+	 * @return true, if open
+	 */
+	public boolean isOpen() {
+		return delegate_ != null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.openntf.domino.impl.Document#openDelegate()
+	 */
+	@Override
+	protected void openDelegate() {
+		super.openDelegate();
+		if (delegate_ != null) {
+			DominoReferenceQueue drq = getRecycleQueue();
+			// checked before registering, so relieving the budget can't release the note just opened
+			drq.enforceBudget(getDelegateId(this));
+			drq.addReleasable(this);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.openntf.domino.thread.DominoReleasable#release()
+	 */
+	@Override
+	public boolean release() {
+		if (delegate_ == null || isDirty() || isBufferedWrites()) {
+			return false;
+		}
+		releaseDelegate();
+		return true;
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at:
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 
+ * implied. See the License for the specific language governing 
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.impl;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import lotus.domino.NotesException;
+
+import org.openntf.domino.utils.DominoUtils;
+import org.openntf.domino.utils.PackedUnids;
+
+/**
+ * A DocumentCollection restored from a MIMEBean item, which doesn't look up its documents until it's first used. Restoring a large
+ * collection that is never iterated or counted then costs nothing beyond reading its UNIDs.
+ * 
+ * UNIDs of documents that have since been deleted are skipped when the collection is resolved.
+ */
+public class LazyDocumentCollection extends DocumentCollection {
+	private static final Logger log_ = Logger.getLogger(LazyDocumentCollection.class.getName());
+
+	/** The unids_ to resolve, or null once resolved. */
+	private PackedUnids unids_;
+
+	/**
+	 * Instantiates a new lazy document collection.
+	 * 
+	 * @param parent
+	 *            the database the documents are in
+	 * @param unids
+	 *            the UNIDs of the documents
+	 */
+	public LazyDocumentCollection(final org.openntf.domino.Database parent, final PackedUnids unids) {
+		super(null, parent);
+		unids_ = unids;
+	}
+
+	/**
+	 * Checks if the documents have been looked up yet.
+	 * 
+	 * @return true, if resolved
+	 */
+	public boolean isResolved() {
+		return unids_ == null;
+	}
+
+	/**
+	 * Adds the documents with the given UNIDs to a lotus DocumentCollection or NoteCollection, recycling each document handle as it goes.
+	 * 
+	 * @param db
+	 *            the database
+	 * @param unids
+	 *            the UNIDs
+	 * @param target
+	 *            the collection to add to
+	 * @throws NotesException
+	 *             if the collection can't be added to
+	 */
+	static void addAll(final lotus.domino.Database db, final PackedUnids unids, final lotus.domino.Base target) throws NotesException {
+		int missing = 0;
+		for (String unid : unids) {
+			lotus.domino.Document doc;
+			try {
+				doc = db.getDocumentByUNID(unid);
+			} catch (NotesException e) {
+				missing++;
+				continue;
+			}
+			try {
+				if (target instanceof lotus.domino.DocumentCollection) {
+					((lotus.domino.DocumentCollection) target).addDocument(doc);
+				} else {
+					((lotus.domino.NoteCollection) target).add(doc);
+				}
+			} finally {
+				if (doc instanceof lotus.domino.local.NotesBase) {
+					s_recycle((lotus.domino.local.NotesBase) doc, false);
+				}
+			}
+		}
+		if (missing > 0 && log_.isLoggable(Level.FINE)) {
+			log_.log(Level.FINE, missing + " of " + unids.size() + " stored UNIDs no longer resolve to documents");
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.openntf.domino.impl.Base#getDelegate()
+	 */
+	@Override
+	protected lotus.domino.DocumentCollection getDelegate() {
+		if (unids_ != null) {
+			PackedUnids unids = unids_;
+			try {
+				lotus.domino.Database db = (lotus.domino.Database) toLotus(getParent());
+				lotus.domino.DocumentCollection resolved = db.createDocumentCollection();
+				addAll(db, unids, resolved);
+				setDelegate(resolved);
+				unids_ = null;
+			} catch (NotesException e) {
+				DominoUtils.handleException(e);
+			}
+		}
+		return super.getDelegate();
+	}
+}
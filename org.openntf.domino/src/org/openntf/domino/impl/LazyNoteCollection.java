@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at:
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 
+ * implied. See the License for the specific language governing 
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.impl;
+
+import lotus.domino.NotesException;
+
+import org.openntf.domino.utils.DominoUtils;
+import org.openntf.domino.utils.PackedUnids;
+
+/**
+ * A NoteCollection restored from a MIMEBean item, which doesn't look up its notes until it's first used.
+ * 
+ * @see LazyDocumentCollection
+ */
+public class LazyNoteCollection extends NoteCollection {
+	/** The unids_ to resolve, or null once resolved. */
+	private PackedUnids unids_;
+
+	/**
+	 * Instantiates a new lazy note collection.
+	 * 
+	 * @param parent
+	 *            the database the notes are in
+	 * @param unids
+	 *            the UNIDs of the notes
+	 */
+	public LazyNoteCollection(final org.openntf.domino.Database parent, final PackedUnids unids) {
+		super(null, parent);
+		unids_ = unids;
+	}
+
+	/**
+	 * Checks if the notes have been looked up yet.
+	 * 
+	 * @return true, if resolved
+	 */
+	public boolean isResolved() {
+		return unids_ == null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.openntf.domino.impl.Base#getDelegate()
+	 */
+	@Override
+	protected lotus.domino.NoteCollection getDelegate() {
+		if (unids_ != null) {
+			PackedUnids unids = unids_;
+			try {
+				lotus.domino.Database db = (lotus.domino.Database) toLotus(getParent());
+				lotus.domino.NoteCollection resolved = db.createNoteCollection(false);
+				LazyDocumentCollection.addAll(db, unids, resolved);
+				setDelegate(resolved);
+				unids_ = null;
+			} catch (NotesException e) {
+				DominoUtils.handleException(e);
+			}
+		}
+		return super.getDelegate();
+	}
+}
@@ -25,6 +25,9 @@ import org.openntf.domino.Database;
 import org.openntf.domino.DateTime;
 import org.openntf.domino.Session;
 import org.openntf.domino.iterators.NoteIterator;
+import org.openntf.domino.thread.DominoExecutor;
+import org.openntf.domino.thread.ParallelProcessor;
+import org.openntf.domino.thread.SessionPool;
 import org.openntf.domino.utils.DominoUtils;
 import org.openntf.domino.utils.Factory;
 
@@ -964,6 +967,41 @@ public class NoteCollection extends org.openntf.domino.impl.Base<org.openntf.dom
 		return new NoteIterator(this);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.openntf.domino.ext.NoteCollection#processParallel(org.openntf.domino.thread.ParallelProcessor.Callback, int)
+	 */
+	@Override
+	public <R> ParallelProcessor.Result<R> processParallel(final ParallelProcessor.Callback<R> callback, final int threads) {
+		return ParallelProcessor.process(getParent(), getNoteIDs(), callback, threads);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.openntf.domino.ext.NoteCollection#processParallel(org.openntf.domino.thread.ParallelProcessor.Callback,
+	 * org.openntf.domino.thread.DominoExecutor, int)
+	 */
+	@Override
+	public <R> ParallelProcessor.Result<R> processParallel(final ParallelProcessor.Callback<R> callback, final DominoExecutor executor,
+			final int rangeSize) {
+		return ParallelProcessor.process(getParent(), getNoteIDs(), callback, executor, rangeSize);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.openntf.domino.ext.NoteCollection#processParallel(org.openntf.domino.thread.ParallelProcessor.Callback,
+	 * org.openntf.domino.thread.DominoExecutor, int, org.openntf.domino.thread.SessionPool.Key,
+	 * org.openntf.domino.thread.SessionPool.SessionFactory)
+	 */
+	@Override
+	public <R> ParallelProcessor.Result<R> processParallel(final ParallelProcessor.Callback<R> callback, final DominoExecutor executor,
+			final int rangeSize, final SessionPool.Key key, final SessionPool.SessionFactory factory) {
+		return ParallelProcessor.process(getParent(), getNoteIDs(), callback, executor, rangeSize, key, factory);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -973,6 +1011,7 @@ public class NoteCollection extends org.openntf.domino.impl.Base<org.openntf.dom
 	public void recycle() {
 		try {
 			getDelegate().recycle();
+			invalidateDelegates();
 		} catch (NotesException e) {
 			DominoUtils.handleException(e);
 
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at:
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 
+ * implied. See the License for the specific language governing 
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.impl;
+
+import java.lang.reflect.Method;
+import java.security.AccessController;
+import java.security.PrivilegedExceptionAction;
+
+import org.openntf.domino.utils.DominoUtils;
+
+/**
+ * Calls NotesBase.GetCppObj() and NotesBase.isInvalid() through reflection. Works with every Notes.jar, but each call goes through
+ * Method.invoke and boxes its result; it's the fallback when no faster {@link HandleAccessor} can be bound.
+ */
+public class ReflectionHandleAccessor implements HandleAccessor {
+
+	/** The get cpp method. */
+	private static Method getCppMethod;
+
+	/** The is invalid method. */
+	private static Method isInvalidMethod;
+
+	static {
+		try {
+			AccessController.doPrivileged(new PrivilegedExceptionAction<Object>() {
+				@Override
+				public Object run() throws Exception {
+					getCppMethod = lotus.domino.local.NotesBase.class.getDeclaredMethod("GetCppObj", (Class<?>[]) null);
+					getCppMethod.setAccessible(true);
+					isInvalidMethod = lotus.domino.local.NotesBase.class.getDeclaredMethod("isInvalid", (Class<?>[]) null);
+					isInvalidMethod.setAccessible(true);
+					return null;
+				}
+			});
+		} catch (Exception e) {
+			e.printStackTrace();
+			DominoUtils.handleException(e);
+		}
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.openntf.domino.impl.HandleAccessor#getCppId(lotus.domino.local.NotesBase)
+	 */
+	@Override
+	public long getCppId(final lotus.domino.local.NotesBase base) {
+		if (base == null) {
+			return 0L;
+		}
+		try {
+			return ((Long) getCppMethod.invoke(base, (Object[]) null)).longValue();
+		} catch (Exception e) {
+			return 0L;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.openntf.domino.impl.HandleAccessor#isInvalid(lotus.domino.local.NotesBase)
+	 */
+	@Override
+	public boolean isInvalid(final lotus.domino.local.NotesBase base) {
+		if (base == null) {
+			return false;
+		}
+		try {
+			return ((Boolean) isInvalidMethod.invoke(base, (Object[]) null)).booleanValue();
+		} catch (Exception e) {
+			return false;
+		}
+	}
+}
@@ -117,7 +117,7 @@ public class Session extends org.openntf.domino.impl.Base<org.openntf.domino.Ses
 	 */
 	public int addId(final long id) {
 		int result = lotusReferenceCounter_.increment(id);
-		if (result > 8)
+		if (result > 8 && log_.isLoggable(Level.INFO))
 			log_.log(Level.INFO, "Currently tracking more than 8 references for " + id);
 		return result;
 	}
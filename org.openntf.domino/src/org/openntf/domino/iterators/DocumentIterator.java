@@ -127,17 +127,16 @@ public class DocumentIterator extends AbstractDominoIterator<org.openntf.domino.
 	public Document next() {
 		Document result = null;
 		if (hasNext()) {
-			String noteId = Integer.toHexString(getIdArray()[getIndex()]);
+			if (getIndex() > 0 && getIndex() % Base.getRecycleQueue().getDrainInterval() == 0) {
+				// batch boundary: a safe point to recycle the documents we've already handed out
+				Base.checkpoint();
+			}
+			int noteId = getIdArray()[getIndex()];
 			setIndex(getIndex() + 1);
 			// Base.recycle(current_);
 			try {
-				Database db = getDatabase();
-				lotus.domino.Document doc = db.getDocumentByID(noteId);
-				if (doc instanceof org.openntf.domino.Document) {
-					result = (org.openntf.domino.Document) doc;
-				} else {
-					result = Factory.fromLotus(doc, Document.class, db);
-				}
+				// the note isn't opened until the caller needs more than its note id
+				result = Factory.lazyDocument(getDatabase(), noteId);
 				// current_ = result;
 			} catch (Throwable t) {
 				DominoUtils.handleException(t);
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2013
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at:
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 
+ * implied. See the License for the specific language governing 
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.thread;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import lotus.domino.NotesException;
+import lotus.domino.NotesFactory;
+
+import org.openntf.domino.impl.Base;
+import org.openntf.domino.utils.Factory;
+
+/**
+ * A bounded pool of long-lived {@link DominoThread}s. Unlike starting a DominoThread per task, a worker initializes NotesThread, creates
+ * its Session and sets up its recycle queue once, and keeps them for every task it runs.
+ * 
+ * Each task runs inside its own {@link RecycleScope}, so the handles it creates are recycled as soon as it finishes, and the recycle queue
+ * is drained before the worker takes the next task. Handles a task wants to keep must be escaped from the scope or locked. Domino objects
+ * belong to the thread that created them, so tasks shouldn't hand them back through their Futures either.
+ * 
+ * The workers' Session is checked before each task and replaced if a task recycled it. Tasks that don't fit in the queue are rejected, as
+ * the submitting thread usually isn't Domino-initialized and couldn't run them itself.
+ * 
+ * @author nfreeman
+ */
+public class DominoExecutor extends ThreadPoolExecutor {
+	/** The Constant log_. */
+	private static final Logger log_ = Logger.getLogger(DominoExecutor.class.getName());
+
+	/** The default number of tasks that can wait for a worker. */
+	public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+	/** The pool number, for thread names. */
+	private static final AtomicInteger poolNumber_ = new AtomicInteger();
+
+	/** Each worker's Session. */
+	private final ThreadLocal<lotus.domino.Session> session_ = new ThreadLocal<lotus.domino.Session>();
+
+	/** Each worker's scope for the task it's running. */
+	private final ThreadLocal<RecycleScope> taskScope_ = new ThreadLocal<RecycleScope>();
+
+	/** Whether each task's handles are recycled when it finishes. */
+	private volatile boolean recycleTaskHandles_ = true;
+
+	/**
+	 * The Class WorkerFactory.
+	 */
+	private static class WorkerFactory implements ThreadFactory {
+		/** The executor. */
+		private final DominoExecutor executor_;
+
+		/** The class loader handed to the workers. */
+		private final ClassLoader loader_;
+
+		/** The name prefix. */
+		private final String prefix_ = "DominoExecutor-" + poolNumber_.incrementAndGet() + "-";
+
+		/** The thread number. */
+		private final AtomicInteger threadNumber_ = new AtomicInteger();
+
+		/**
+		 * Instantiates a new worker factory.
+		 * 
+		 * @param executor
+		 *            the executor
+		 * @param loader
+		 *            the class loader
+		 */
+		WorkerFactory(final DominoExecutor executor, final ClassLoader loader) {
+			executor_ = executor;
+			loader_ = loader;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
+		 */
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			DominoThread result = new DominoThread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						runnable.run();
+					} finally {
+						executor_.releaseSession();
+					}
+				}
+			}, prefix_ + threadNumber_.incrementAndGet());
+			result.setDaemon(true);
+			result.setContextClassLoader(loader_);
+			return result;
+		}
+	}
+
+	/**
+	 * Instantiates a new domino executor.
+	 * 
+	 * @param poolSize
+	 *            the number of workers
+	 */
+	public DominoExecutor(final int poolSize) {
+		this(poolSize, DEFAULT_QUEUE_CAPACITY, Factory.getClassLoader());
+	}
+
+	/**
+	 * Instantiates a new domino executor.
+	 * 
+	 * @param poolSize
+	 *            the number of workers
+	 * @param queueCapacity
+	 *            the number of tasks that can wait for a worker
+	 * @param loader
+	 *            the class loader the workers hand to Factory
+	 */
+	public DominoExecutor(final int poolSize, final int queueCapacity, final ClassLoader loader) {
+		super(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(queueCapacity));
+		setThreadFactory(new WorkerFactory(this, loader));
+	}
+
+	/**
+	 * Checks if each task's handles are recycled when it finishes.
+	 * 
+	 * @return true, if recycling task handles
+	 */
+	public boolean isRecycleTaskHandles() {
+		return recycleTaskHandles_;
+	}
+
+	/**
+	 * Sets whether each task's handles are recycled when it finishes. If not, they're left to auto-recycling.
+	 * 
+	 * @param recycle
+	 *            true to recycle task handles
+	 */
+	public void setRecycleTaskHandles(final boolean recycle) {
+		recycleTaskHandles_ = recycle;
+	}
+
+	/**
+	 * Makes sure the current worker has a live Session, creating one if it has none or its last one was recycled.
+	 */
+	private void ensureSession() {
+		lotus.domino.Session session = session_.get();
+		if (session != null && !Base.isRecycled((lotus.domino.local.NotesBase) session)) {
+			return;
+		}
+		try {
+			session = NotesFactory.createSession();
+			session_.set(session);
+			Factory.setSession(session);
+		} catch (NotesException ne) {
+			session_.set(null);
+			if (log_.isLoggable(Level.WARNING))
+				log_.log(Level.WARNING, "Unable to create a Session for " + Thread.currentThread().getName(), ne);
+		}
+	}
+
+	/**
+	 * Recycles the current worker's Session, and its idle sessions in the default {@link SessionPool}. Called when the worker ends.
+	 */
+	void releaseSession() {
+		lotus.domino.Session session = session_.get();
+		session_.remove();
+		if (session != null) {
+			Base.s_recycle((lotus.domino.local.NotesBase) session);
+		}
+		// tasks such as BackgroundRunnables may have left sessions idle in the default pool
+		SessionPool.getDefault().clearThread();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.ThreadPoolExecutor#beforeExecute(java.lang.Thread, java.lang.Runnable)
+	 */
+	@Override
+	protected void beforeExecute(final Thread thread, final Runnable task) {
+		super.beforeExecute(thread, task);
+		ensureSession();
+		if (recycleTaskHandles_) {
+			taskScope_.set(RecycleScope.open());
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.ThreadPoolExecutor#afterExecute(java.lang.Runnable, java.lang.Throwable)
+	 */
+	@Override
+	protected void afterExecute(final Runnable task, final Throwable t) {
+		try {
+			RecycleScope scope = taskScope_.get();
+			taskScope_.remove();
+			if (scope != null) {
+				scope.closeScope();
+			}
+			Base.drainQueue(0l);
+		} catch (Throwable t2) {
+			if (log_.isLoggable(Level.WARNING))
+				log_.log(Level.WARNING, "Unable to clean up after a task on " + Thread.currentThread().getName(), t2);
+		} finally {
+			Factory.clearBubbleExceptions();
+			Factory.clearDominoGraph();
+			super.afterExecute(task, t);
+		}
+	}
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2013
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at:
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 
+ * implied. See the License for the specific language governing 
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.thread;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Per-thread table of live wrappers keyed by C++ handle id, so that wrapping a handle that already has a live wrapper can return that
+ * wrapper instead of creating another one. Values are weak, so the table never keeps a wrapper alive; entries whose wrapper has been
+ * collected are dropped when the wrapper's reference is polled, or swept before the table grows.
+ * 
+ * Open addressing with linear probing and backward-shift deletion, like {@link DominoReferenceMap}. Key 0 is never stored. Not
+ * thread-safe; each {@link DominoReferenceQueue} owns one.
+ * 
+ * @author nfreeman
+ */
+public class DominoInternTable {
+	/** The keys. */
+	private long[] keys;
+
+	/** The values. */
+	private WeakReference<?>[] values;
+
+	/** The mask. */
+	private int mask;
+
+	/** The size. */
+	private int size;
+
+	/** The threshold. */
+	private int threshold;
+
+	/**
+	 * Instantiates a new domino intern table.
+	 */
+	public DominoInternTable() {
+		allocate(1024);
+	}
+
+	/**
+	 * Allocate.
+	 * 
+	 * @param capacity
+	 *            the capacity, a power of two
+	 */
+	private void allocate(final int capacity) {
+		keys = new long[capacity];
+		values = new WeakReference<?>[capacity];
+		mask = capacity - 1;
+		threshold = capacity * 3 / 4;
+	}
+
+	/**
+	 * Finds the slot for a key.
+	 * 
+	 * @param key
+	 *            a non-zero key
+	 * @return the slot holding the key, or the empty slot where it would go
+	 */
+	private int slot(final long key) {
+		int i = DominoReferenceMap.hash(key) & mask;
+		long k;
+		while ((k = keys[i]) != 0L && k != key) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	/**
+	 * Gets the live wrapper for a handle.
+	 * 
+	 * @param key
+	 *            the handle id
+	 * @return the wrapper, or null if there is none or it has been collected
+	 */
+	public Object get(final long key) {
+		if (key == 0L)
+			return null;
+		int i = slot(key);
+		if (keys[i] == 0L)
+			return null;
+		return values[i].get();
+	}
+
+	/**
+	 * Records the wrapper for a handle, replacing any previous one.
+	 * 
+	 * @param key
+	 *            the handle id
+	 * @param wrapper
+	 *            the wrapper
+	 */
+	public void put(final long key, final Object wrapper) {
+		if (key == 0L)
+			return;
+		int i = slot(key);
+		if (keys[i] == 0L) {
+			if (size + 1 > threshold) {
+				sweep();
+				if (size + 1 > threshold) {
+					resize();
+				}
+				i = slot(key);
+			}
+			keys[i] = key;
+			size++;
+		}
+		values[i] = new WeakReference<Object>(wrapper);
+	}
+
+	/**
+	 * Removes the entry for a handle.
+	 * 
+	 * @param key
+	 *            the handle id
+	 */
+	public void remove(final long key) {
+		if (key == 0L)
+			return;
+		int i = slot(key);
+		if (keys[i] != 0L) {
+			removeSlot(i);
+		}
+	}
+
+	/**
+	 * Removes the entry for a handle if its wrapper has been collected.
+	 * 
+	 * @param key
+	 *            the handle id
+	 */
+	public void removeIfCleared(final long key) {
+		if (key == 0L)
+			return;
+		int i = slot(key);
+		if (keys[i] != 0L && values[i].get() == null) {
+			removeSlot(i);
+		}
+	}
+
+	/**
+	 * Removes a slot, shifting back the rest of its probe run.
+	 * 
+	 * @param slot
+	 *            the slot
+	 */
+	private void removeSlot(final int slot) {
+		int gap = slot;
+		int i = slot;
+		while (true) {
+			i = (i + 1) & mask;
+			long k = keys[i];
+			if (k == 0L) {
+				break;
+			}
+			int home = DominoReferenceMap.hash(k) & mask;
+			if (gap <= i ? (home <= gap || home > i) : (home <= gap && home > i)) {
+				keys[gap] = k;
+				values[gap] = values[i];
+				gap = i;
+			}
+		}
+		keys[gap] = 0L;
+		values[gap] = null;
+		size--;
+	}
+
+	/**
+	 * Drops every entry whose wrapper has been collected.
+	 */
+	private void sweep() {
+		for (int i = 0; i < keys.length; i++) {
+			// a removal can shift a later entry into slot i, so look at it again before moving on
+			while (keys[i] != 0L && values[i].get() == null) {
+				removeSlot(i);
+			}
+		}
+	}
+
+	/**
+	 * Doubles the table.
+	 */
+	private void resize() {
+		long[] oldKeys = keys;
+		WeakReference<?>[] oldValues = values;
+		allocate(oldKeys.length * 2);
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] != 0L) {
+				int i = slot(oldKeys[j]);
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of entries, including any whose wrapper has been collected but not yet dropped.
+	 * 
+	 * @return the size
+	 */
+	public int size() {
+		return size;
+	}
+}
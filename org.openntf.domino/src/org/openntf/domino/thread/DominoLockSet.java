@@ -15,30 +15,172 @@
  */
 package org.openntf.domino.thread;
 
-import java.util.ArrayList;
-import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import lotus.domino.Base;
 
 // TODO: Auto-generated Javadoc
 /**
- * The Class DominoLockSet.
+ * The Class DominoLockSet. Holds the handles that must not be recycled, keyed by handle id, so a wrapper and its lotus delegate lock the
+ * same thing and checking a handle is a hash lookup rather than a scan.
+ * 
+ * A lock is either held for the current thread only, or shared by all threads, including the DominoChildThreads working on the same
+ * handles. Recycling checks every handle, so both scopes are built to make that check cheap: the shared set is copied on write and read
+ * without locking, and the per-thread sets aren't even looked up while no thread holds a per-thread lock. Each thread counts its own
+ * locks, so a thread that lets go of its last one stops costing the others anything.
+ * 
+ * Locks are counted: a handle locked twice stays locked until it has been unlocked twice. Handles with no readable id can't be locked.
+ * 
+ * A handle can still be recycled while it's locked, e.g. explicitly, along with its parent, or by another thread that can't see a
+ * per-thread lock, and Notes may then reuse its id. So each lock remembers the lotus object it was taken for, and a lock whose object has
+ * been recycled is dropped the next time its id is checked or locked, rather than protecting whatever gets the id next.
  * 
  * @author nfreeman
  */
-public class DominoLockSet extends ThreadLocal<Collection<Base>> {
+public class DominoLockSet extends ThreadLocal<DominoLockSet.Locks> {
+
+	/**
+	 * The Enum Scope.
+	 */
+	public static enum Scope {
+		/** The lock only protects the handle from the current thread's recycling. */
+		THREAD,
+		/** The lock protects the handle from every thread's recycling. */
+		SHARED
+	}
+
+	/**
+	 * The locks of one scope: how often each handle id is locked, and the lotus object each was first locked for.
+	 */
+	public static final class Locks {
+		/** The lock counts, by handle id. */
+		private final DominoReferenceMap counts_;
 
-	/** The object set. */
-	private final Collection<Base> objectSet = new ArrayList<Base>();
+		/** The lotus objects the locks were taken for, by handle id. */
+		private final Map<Long, Base> owners_;
 
-	/** The lock collection. */
-	private final Collection<Base> lockCollection = new ArrayList<Base>();
+		/**
+		 * Instantiates an empty set of locks.
+		 */
+		Locks() {
+			counts_ = new DominoReferenceMap(16);
+			owners_ = new HashMap<Long, Base>();
+		}
+
+		/**
+		 * Instantiates a copy of a set of locks.
+		 * 
+		 * @param other
+		 *            the locks to copy
+		 */
+		Locks(final Locks other) {
+			counts_ = new DominoReferenceMap(other.counts_);
+			owners_ = new HashMap<Long, Base>(other.owners_);
+		}
+
+		/**
+		 * Adds a lock.
+		 * 
+		 * @param id
+		 *            the handle id
+		 * @param owner
+		 *            the lotus object it's locked for, or null if that isn't known
+		 */
+		void lock(final long id, final Base owner) {
+			if (isStale(id)) {
+				remove(id);
+			}
+			if (counts_.incrementAndGet(id) == 1) {
+				owners_.put(Long.valueOf(id), owner);
+			}
+		}
+
+		/**
+		 * Removes a lock.
+		 * 
+		 * @param id
+		 *            the handle id
+		 * @return true, if the id was locked
+		 */
+		boolean unlock(final long id) {
+			int count = counts_.decrementAndGet(id);
+			if (count == DominoReferenceMap.NO_VALUE) {
+				return false;
+			}
+			if (count < 1) {
+				owners_.remove(Long.valueOf(id));
+			}
+			return true;
+		}
+
+		/**
+		 * Checks if a lock's object has been recycled since the lock was taken.
+		 * 
+		 * @param id
+		 *            the handle id
+		 * @return true, if the lock no longer protects anything
+		 */
+		boolean isStale(final long id) {
+			Base owner = owners_.get(Long.valueOf(id));
+			return owner instanceof lotus.domino.local.NotesBase
+					&& org.openntf.domino.impl.Base.isRecycled((lotus.domino.local.NotesBase) owner);
+		}
+
+		/**
+		 * Drops every lock of a handle id.
+		 * 
+		 * @param id
+		 *            the handle id
+		 */
+		void remove(final long id) {
+			counts_.remove(id);
+			owners_.remove(Long.valueOf(id));
+		}
+	}
+
+	/** The shared locks. Never modified once published; writers copy it under sharedLock_. */
+	private volatile Locks shared_ = new Locks();
+
+	/** The writers' lock for the shared locks. */
+	private final Object sharedLock_ = new Object();
+
+	/** The number of threads holding per-thread locks. How many each holds is kept in its own set. */
+	private final AtomicInteger lockingThreads_ = new AtomicInteger();
 
 	/**
-	 * Instantiates a new domino reference set.
+	 * Instantiates a new domino lock set.
 	 */
 	public DominoLockSet() {
-		// TODO Auto-generated constructor stub
+	}
+
+	/**
+	 * Gets the handle id of a wrapper or lotus object.
+	 * 
+	 * @param base
+	 *            the base
+	 * @return the handle id, or 0 if it has none
+	 */
+	@SuppressWarnings("rawtypes")
+	private static long getId(final Base base) {
+		if (base instanceof org.openntf.domino.impl.Base) {
+			return org.openntf.domino.impl.Base.getDelegateId((org.openntf.domino.impl.Base) base);
+		} else if (base instanceof lotus.domino.local.NotesBase) {
+			return org.openntf.domino.impl.Base.getLotusId((lotus.domino.local.NotesBase) base);
+		}
+		return 0l;
+	}
+
+	/**
+	 * Gets the lotus object holding the handle of a wrapper or lotus object.
+	 * 
+	 * @param base
+	 *            the base
+	 * @return the lotus object, or null if a wrapper doesn't hold one right now
+	 */
+	private static Base getOwner(final Base base) {
+		return org.openntf.domino.impl.Base.getDelegateUnopened(base);
 	}
 
 	/**
@@ -48,7 +190,7 @@ public class DominoLockSet extends ThreadLocal<Collection<Base>> {
 	 *            the base
 	 */
 	public void unlock(final Base base) {
-		lockCollection.remove(base);
+		unlock(Scope.SHARED, base);
 	}
 
 	/**
@@ -58,7 +200,7 @@ public class DominoLockSet extends ThreadLocal<Collection<Base>> {
 	 *            the base
 	 */
 	public void lock(final Base base) {
-		lockCollection.add(base);
+		lock(Scope.SHARED, base);
 	}
 
 	/**
@@ -68,9 +210,7 @@ public class DominoLockSet extends ThreadLocal<Collection<Base>> {
 	 *            the bases
 	 */
 	public void lock(final Base... bases) {
-		for (Base base : bases) {
-			lockCollection.add(base);
-		}
+		lock(Scope.SHARED, bases);
 	}
 
 	/**
@@ -80,20 +220,147 @@ public class DominoLockSet extends ThreadLocal<Collection<Base>> {
 	 *            the bases
 	 */
 	public void unlock(final Base... bases) {
-		for (Base base : bases) {
-			lockCollection.remove(base);
+		unlock(Scope.SHARED, bases);
+	}
+
+	/**
+	 * Lock.
+	 * 
+	 * @param scope
+	 *            the scope
+	 * @param bases
+	 *            the bases
+	 */
+	public void lock(final Scope scope, final Base... bases) {
+		if (scope == Scope.THREAD) {
+			Locks locks = get();
+			boolean wasEmpty = locks.counts_.isEmpty();
+			for (Base base : bases) {
+				long id = getId(base);
+				if (id != 0l) {
+					locks.lock(id, getOwner(base));
+				}
+			}
+			if (wasEmpty && !locks.counts_.isEmpty()) {
+				lockingThreads_.incrementAndGet();
+			}
+		} else {
+			synchronized (sharedLock_) {
+				Locks locks = new Locks(shared_);
+				for (Base base : bases) {
+					long id = getId(base);
+					if (id != 0l) {
+						locks.lock(id, getOwner(base));
+					}
+				}
+				shared_ = locks;
+			}
+		}
+	}
+
+	/**
+	 * Unlock.
+	 * 
+	 * @param scope
+	 *            the scope the handles were locked in
+	 * @param bases
+	 *            the bases
+	 */
+	public void unlock(final Scope scope, final Base... bases) {
+		if (scope == Scope.THREAD) {
+			Locks locks = get();
+			if (locks.counts_.isEmpty()) {
+				return;
+			}
+			for (Base base : bases) {
+				long id = getId(base);
+				if (id != 0l) {
+					locks.unlock(id);
+				}
+			}
+			if (locks.counts_.isEmpty()) {
+				lockingThreads_.decrementAndGet();
+			}
+		} else {
+			synchronized (sharedLock_) {
+				if (shared_.counts_.isEmpty()) {
+					return;
+				}
+				Locks locks = new Locks(shared_);
+				for (Base base : bases) {
+					long id = getId(base);
+					if (id != 0l) {
+						locks.unlock(id);
+					}
+				}
+				shared_ = locks;
+			}
 		}
 	}
 
 	/**
-	 * Checks if is locked.
+	 * Checks if is locked, in either scope. A lock found for a handle that has been recycled since is dropped.
 	 * 
 	 * @param base
 	 *            the base
 	 * @return true, if is locked
 	 */
 	public boolean isLocked(final Base base) {
-		return lockCollection.contains(base);
+		Locks shared = shared_;
+		boolean checkThread = lockingThreads_.get() > 0;
+		if (shared.counts_.isEmpty() && !checkThread) {
+			return false;
+		}
+		long id = getId(base);
+		if (id == 0l) {
+			return false;
+		}
+		if (!shared.counts_.isEmpty() && shared.counts_.containsKey(id)) {
+			if (!shared.isStale(id)) {
+				return true;
+			}
+			dropShared(id);
+		}
+		if (checkThread) {
+			Locks locks = get();
+			if (!locks.counts_.isEmpty() && locks.counts_.containsKey(id)) {
+				if (!locks.isStale(id)) {
+					return true;
+				}
+				locks.remove(id);
+				if (locks.counts_.isEmpty()) {
+					lockingThreads_.decrementAndGet();
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Drops a shared lock whose handle has been recycled.
+	 * 
+	 * @param id
+	 *            the handle id
+	 */
+	private void dropShared(final long id) {
+		synchronized (sharedLock_) {
+			if (shared_.counts_.containsKey(id) && shared_.isStale(id)) {
+				Locks locks = new Locks(shared_);
+				locks.remove(id);
+				shared_ = locks;
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of locked handles in a scope. The thread scope is the current thread's.
+	 * 
+	 * @param scope
+	 *            the scope
+	 * @return the number of locked handles
+	 */
+	public int size(final Scope scope) {
+		return scope == Scope.THREAD ? get().counts_.size() : shared_.counts_.size();
 	}
 
 	/*
@@ -102,8 +369,8 @@ public class DominoLockSet extends ThreadLocal<Collection<Base>> {
 	 * @see java.lang.ThreadLocal#initialValue()
 	 */
 	@Override
-	protected Collection<Base> initialValue() {
-		return objectSet;
+	protected Locks initialValue() {
+		return new Locks();
 	}
 
 }
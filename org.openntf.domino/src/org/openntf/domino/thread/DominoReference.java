@@ -48,6 +48,15 @@ public class DominoReference extends PhantomReference<org.openntf.domino.Base<?>
 	/** The referrant session_. */
 	private Session referrantSession_;
 
+	/** The previous reference in the owning queue's bag. Maintained by {@link DominoReferenceQueue}. */
+	DominoReference bagPrev_;
+
+	/** The next reference in the owning queue's bag. Maintained by {@link DominoReferenceQueue}. */
+	DominoReference bagNext_;
+
+	/** Whether this reference is currently in the owning queue's bag. */
+	boolean bagged_;
+
 	/** The watched cpp. */
 	private static long watchedCpp = 0l;
 
@@ -71,12 +80,11 @@ public class DominoReference extends PhantomReference<org.openntf.domino.Base<?>
 		} else {
 			delegateId_ = org.openntf.domino.impl.Base.getLotusId((lotus.domino.local.NotesBase) delegate);
 		}
+		delegateType_ = delegate.getClass();
 		if (log_.isLoggable(Level.FINE)) {
-			delegateType_ = delegate.getClass();
 			referrantHash_ = r.hashCode();
 			referrantId_ = System.identityHashCode(r);
 		} else {
-			delegateType_ = null;
 			referrantHash_ = 0;
 			referrantId_ = 0;
 		}
@@ -96,7 +104,7 @@ public class DominoReference extends PhantomReference<org.openntf.domino.Base<?>
 	 * 
 	 * @return the delegate id
 	 */
-	public Long getDelegateId() {
+	public long getDelegateId() {
 		return delegateId_;
 	}
 
@@ -137,11 +145,21 @@ public class DominoReference extends PhantomReference<org.openntf.domino.Base<?>
 	}
 
 	/**
-	 * Recycle.
+	 * Checks if the delegate is locked against recycling.
+	 * 
+	 * @return true, if is locked
+	 */
+	public boolean isLocked() {
+		return org.openntf.domino.impl.Base.isLocked(delegate_);
+	}
+
+	/**
+	 * Recycles the delegate. This doesn't start a new recycle epoch: the wrapper is gone, and the reference counts ensure that no other
+	 * wrapper shares the handle. Callers that recycle on behalf of live wrappers have to invalidate delegates themselves.
 	 */
 	public void recycle() {
-		org.openntf.domino.impl.Base.s_recycle(delegate_);
-		int total = Factory.countAutoRecycle();
+		org.openntf.domino.impl.Base.s_recycle(delegate_, false);
+		int total = Factory.countAutoRecycle(delegateType_);
 		if (log_.isLoggable(Level.FINE)) {
 			if (total % 5000 == 0) {
 				log_.log(Level.FINE, "Auto-recycled " + total + " references");
@@ -15,37 +15,47 @@
  */
 package org.openntf.domino.thread;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 // TODO: Auto-generated Javadoc
 /**
  * The Class DominoReferenceCounter.
+ * 
+ * Counts wrappers per C++ handle id. Backed by primitive {@link DominoReferenceMap} tables, so counting never boxes the id or the count.
+ * The synced variant splits the ids across a fixed number of stripes, each guarded by its own monitor, so threads sharing a Session only
+ * contend when they touch handles in the same stripe.
  */
 public class DominoReferenceCounter {
 	// NTF - move reference counter to session. It would appear that the same handles are used across threads if they have a common
 	// Session. Which is RIDICULOUS, but, whatever...
 
-	// TODO replace the underlying map with an implementation that uses primitive long and a non-synchronized counter.
-
 	/** The Constant log_. */
 	private static final Logger log_ = Logger.getLogger(DominoReferenceCounter.class.getName());
 
+	/** The number of stripes for a synced counter. Must be a power of two. */
+	public static final int DEFAULT_STRIPES = 16;
+
+	/** The initial capacity of each stripe. */
+	private static final int STRIPE_CAPACITY = 256;
+
+	/** The initial capacity of an unsynced counter. */
+	private static final int LOCAL_CAPACITY = 1024;
+
 	/** The synced_. */
 	private final boolean synced_;
 
+	/** The stripes. An unsynced counter has exactly one. */
+	private final DominoReferenceMap[] stripes_;
+
+	/** The stripe mask. */
+	private final int stripeMask_;
+
 	/**
 	 * Instantiates a new domino reference counter.
 	 */
 	public DominoReferenceCounter() {
-		synced_ = true;
-		// this.map = Collections.synchronizedMap(new HashMap<Long, AtomicInteger>());
-		this.map = new ConcurrentHashMap<Long, AtomicInteger>();
-		// this.refMap = new DominoReferenceMap();
+		this(true);
 	}
 
 	/**
@@ -56,33 +66,28 @@ public class DominoReferenceCounter {
 	 */
 	public DominoReferenceCounter(final boolean synced) {
 		synced_ = synced;
-		// this.refMap = new DominoReferenceMap();
 		if (synced) {
-			// this.map = Collections.synchronizedMap(new HashMap<Long, AtomicInteger>());
-			this.map = new ConcurrentHashMap<Long, AtomicInteger>();
+			stripes_ = new DominoReferenceMap[DEFAULT_STRIPES];
+			for (int i = 0; i < stripes_.length; i++) {
+				stripes_[i] = new DominoReferenceMap(STRIPE_CAPACITY);
+			}
 		} else {
-			this.map = new HashMap<Long, AtomicInteger>();
+			stripes_ = new DominoReferenceMap[] { new DominoReferenceMap(LOCAL_CAPACITY) };
 		}
+		stripeMask_ = stripes_.length - 1;
 	}
 
-	/** The map. */
-	private final Map<Long, AtomicInteger> map;
-
-	// private final DominoReferenceMap refMap;
-
 	/**
-	 * Gets the map.
+	 * Gets the stripe for an id. Uses the high bits of the hash, since the map itself uses the low bits to pick a slot.
 	 * 
-	 * @return the map
+	 * @param id
+	 *            the id
+	 * @return the stripe
 	 */
-	private Map<Long, AtomicInteger> getMap() {
-		return map;
+	private DominoReferenceMap getStripe(final long id) {
+		return stripes_[(DominoReferenceMap.hash(id) >>> 24) & stripeMask_];
 	}
 
-	// private DominoReferenceMap getRefMap() {
-	// return refMap;
-	// }
-
 	/**
 	 * Increment.
 	 * 
@@ -90,32 +95,14 @@ public class DominoReferenceCounter {
 	 *            the id
 	 * @return the int
 	 */
-	public int increment(final Long id) {
-		// DominoReferenceMap refMap = getRefMap();
-		// int key = Long.valueOf(id).intValue();
-		// if (refMap.get(key) == DominoReferenceMap.NO_VALUE) {
-		// refMap.put(key, 1);
-		// return 1;
-		// } else {
-		// return refMap.incrementAndGet(key);
-		// }
-		Map<Long, AtomicInteger> map = getMap();
+	public int increment(final long id) {
+		DominoReferenceMap map = getStripe(id);
 		if (synced_) {
 			synchronized (map) {
-				if (map.containsKey(id)) {
-					return map.get(id).incrementAndGet();
-				} else {
-					map.put(id, new AtomicInteger(1));
-					return 1;
-				}
+				return map.incrementAndGet(id);
 			}
 		} else {
-			if (map.containsKey(id)) {
-				return map.get(id).incrementAndGet();
-			} else {
-				map.put(id, new AtomicInteger(1));
-				return 1;
-			}
+			return map.incrementAndGet(id);
 		}
 	}
 
@@ -126,39 +113,21 @@ public class DominoReferenceCounter {
 	 *            the id
 	 * @return the int
 	 */
-	public int decrement(final Long id) {
-		// DominoReferenceMap refMap = getRefMap();
-		// int key = Long.valueOf(id).intValue();
-		// if (refMap.get(key) == DominoReferenceMap.NO_VALUE) {
-		// refMap.put(key, 0);
-		// return 0;
-		// } else {
-		// return refMap.decrementAndGet(key);
-		// }
-		Map<Long, AtomicInteger> map = getMap();
+	public int decrement(final long id) {
+		DominoReferenceMap map = getStripe(id);
+		int result;
 		if (synced_) {
 			synchronized (map) {
-				if (map.containsKey(id)) {
-					int result = map.get(id).decrementAndGet();
-					if (result == 0)
-						map.remove(id);
-					return result;
-				} else {
-					log_.log(Level.WARNING, "Attempt to decrement a key not found in the counter map: " + id);
-					return 0;
-				}
+				result = map.decrementAndGet(id);
 			}
 		} else {
-			if (map.containsKey(id)) {
-				int result = map.get(id).decrementAndGet();
-				if (result == 0)
-					map.remove(id);
-				return result;
-			} else {
-				log_.log(Level.WARNING, "Attempt to decrement a key not found in the counter map: " + id);
-				return 0;
-			}
+			result = map.decrementAndGet(id);
+		}
+		if (result == DominoReferenceMap.NO_VALUE) {
+			log_.log(Level.WARNING, "Attempt to decrement a key not found in the counter map: " + id);
+			return 0;
 		}
+		return result;
 	}
 
 	/**
@@ -166,36 +135,38 @@ public class DominoReferenceCounter {
 	 * 
 	 * @param id
 	 *            the id
-	 * @return the count
+	 * @return the count, or -1 if the id isn't tracked
 	 */
-	public int getCount(final Long id) {
-		// DominoReferenceMap refMap = getRefMap();
-		// int key = Long.valueOf(id).intValue();
-		// return refMap.get(key);
-		Map<Long, AtomicInteger> map = getMap();
+	public int getCount(final long id) {
+		DominoReferenceMap map = getStripe(id);
+		int result;
 		if (synced_) {
-			AtomicInteger ai = map.get(id);
-			if (ai == null)
-				return -1;
-			return ai.intValue();
-			// synchronized (map) {
-			// if (map.containsKey(id)) {
-			// return map.get(id).intValue();
-			// } else {
-			// return -1;
-			// }
-			// }
+			synchronized (map) {
+				result = map.get(id);
+			}
 		} else {
-			AtomicInteger ai = map.get(id);
-			if (ai == null)
-				return -1;
-			return ai.intValue();
-			// if (map.containsKey(id)) {
-			// return map.get(id).intValue();
-			// } else {
-			// return -1;
-			// }
+			result = map.get(id);
+		}
+		return result == DominoReferenceMap.NO_VALUE ? -1 : result;
+	}
+
+	/**
+	 * Gets the number of distinct ids currently tracked.
+	 * 
+	 * @return the size
+	 */
+	public int size() {
+		int result = 0;
+		for (DominoReferenceMap map : stripes_) {
+			if (synced_) {
+				synchronized (map) {
+					result += map.size();
+				}
+			} else {
+				result += map.size();
+			}
 		}
+		return result;
 	}
 
 }
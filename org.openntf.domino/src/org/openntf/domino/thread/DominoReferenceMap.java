@@ -1,89 +1,349 @@
-/**
+/*
+ * Copyright 2013
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at:
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
  * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 
+ * implied. See the License for the specific language governing 
+ * permissions and limitations under the License.
  */
 package org.openntf.domino.thread;
 
 import java.util.Arrays;
-import java.util.logging.Logger;
 
 /**
- * @author nfreeman
+ * Open-addressing map from primitive long keys (C++ handle ids) to primitive int values (reference counts). Nothing is boxed, so
+ * incrementing and decrementing a count allocates nothing unless the table has to grow.
+ * 
+ * Uses linear probing with backward-shift deletion, so there are no tombstones and lookups stay short under heavy put/remove churn. Key 0
+ * is used to mark an empty slot; a genuine key of 0 is stored outside the table.
  * 
- *         Experimental class to test whether a primitive-based reference counter would improve performance of iteration and auto-recycling.
- *         No apparent difference occured.
+ * This class is NOT thread-safe. See {@link DominoReferenceCounter} for the striped, synchronized use of it.
  * 
+ * @author nfreeman
  */
 public class DominoReferenceMap {
-	private static final Logger log_ = Logger.getLogger(DominoReferenceMap.class.getName());
-	private static final long serialVersionUID = 1L;
-
+	/** Returned by {@link #get(long)} and the adjust methods when the key isn't present. */
 	public static final int NO_VALUE = Integer.MIN_VALUE;
-	private int[] keys = new int[1024];
-	{
-		Arrays.fill(keys, NO_VALUE);
+
+	/** The Constant DEFAULT_CAPACITY. */
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	/** The Constant EMPTY_KEY. */
+	private static final long EMPTY_KEY = 0L;
+
+	/** The keys. */
+	private long[] keys;
+
+	/** The values. */
+	private int[] values;
+
+	/** The mask, always keys.length - 1. */
+	private int mask;
+
+	/** The number of keys in the table. */
+	private int size;
+
+	/** The resize threshold. */
+	private int threshold;
+
+	/** Whether the key 0 is present. */
+	private boolean hasZeroKey;
+
+	/** The value for the key 0. */
+	private int zeroValue;
+
+	/**
+	 * Instantiates a new domino reference map.
+	 */
+	public DominoReferenceMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new domino reference map.
+	 * 
+	 * @param initialCapacity
+	 *            the expected number of keys
+	 */
+	public DominoReferenceMap(final int initialCapacity) {
+		int capacity = 16;
+		while (capacity * 3 / 4 < initialCapacity) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	/**
+	 * Instantiates a copy of another domino reference map.
+	 * 
+	 * @param other
+	 *            the map to copy
+	 */
+	public DominoReferenceMap(final DominoReferenceMap other) {
+		keys = other.keys.clone();
+		values = other.values.clone();
+		mask = other.mask;
+		size = other.size;
+		threshold = other.threshold;
+		hasZeroKey = other.hasZeroKey;
+		zeroValue = other.zeroValue;
+	}
+
+	/**
+	 * Mixes the bits of a handle id. Handles are pointers, so their low bits are mostly zero and can't be used directly as a slot index.
+	 * 
+	 * @param key
+	 *            the key
+	 * @return the hash
+	 */
+	static int hash(final long key) {
+		long h = key;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return (int) h;
 	}
 
-	private int[] values = new int[1024];
-	private int lastKey = keys.length / 2 - 1;
+	/**
+	 * Allocate.
+	 * 
+	 * @param capacity
+	 *            the capacity, a power of two
+	 */
+	private void allocate(final int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+		threshold = capacity * 3 / 4;
+	}
+
+	/**
+	 * Finds the slot for a key.
+	 * 
+	 * @param key
+	 *            a non-zero key
+	 * @return the slot holding the key, or the empty slot where it would go
+	 */
+	private int slot(final long key) {
+		int i = hash(key) & mask;
+		long k;
+		while ((k = keys[i]) != EMPTY_KEY && k != key) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
 
-	public int get(final int key) {
-		int hash = key & lastKey;
-		if (keys[hash] == key)
-			return values[hash];
-		return NO_VALUE;
+	/**
+	 * Gets the value for a key.
+	 * 
+	 * @param key
+	 *            the key
+	 * @return the value, or {@link #NO_VALUE} if the key isn't present
+	 */
+	public int get(final long key) {
+		if (key == EMPTY_KEY) {
+			return hasZeroKey ? zeroValue : NO_VALUE;
+		}
+		int i = slot(key);
+		return keys[i] == EMPTY_KEY ? NO_VALUE : values[i];
 	}
 
-	public int incrementAndGet(final int key) {
-		int cur = get(key);
-		put(key, ++cur);
-		return cur;
+	/**
+	 * Checks whether a key is present.
+	 * 
+	 * @param key
+	 *            the key
+	 * @return true, if present
+	 */
+	public boolean containsKey(final long key) {
+		if (key == EMPTY_KEY) {
+			return hasZeroKey;
+		}
+		return keys[slot(key)] != EMPTY_KEY;
 	}
 
-	public int decrementAndGet(final int key) {
-		int cur = get(key);
-		if (cur == NO_VALUE) {
-			put(key, 0);
-			return 0;
+	/**
+	 * Puts a value.
+	 * 
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 */
+	public void put(final long key, final int value) {
+		if (key == EMPTY_KEY) {
+			hasZeroKey = true;
+			zeroValue = value;
+			return;
+		}
+		int i = slot(key);
+		if (keys[i] == EMPTY_KEY) {
+			keys[i] = key;
+			values[i] = value;
+			if (++size > threshold) {
+				resize();
+			}
 		} else {
-			put(key, --cur);
-			return cur;
+			values[i] = value;
+		}
+	}
+
+	/**
+	 * Increments the value for a key, adding it with a value of 1 if it isn't present.
+	 * 
+	 * @param key
+	 *            the key
+	 * @return the new value
+	 */
+	public int incrementAndGet(final long key) {
+		if (key == EMPTY_KEY) {
+			zeroValue = hasZeroKey ? zeroValue + 1 : 1;
+			hasZeroKey = true;
+			return zeroValue;
+		}
+		int i = slot(key);
+		if (keys[i] == EMPTY_KEY) {
+			keys[i] = key;
+			values[i] = 1;
+			if (++size > threshold) {
+				resize();
+			}
+			return 1;
+		}
+		return ++values[i];
+	}
+
+	/**
+	 * Decrements the value for a key. The key is removed once its value drops to zero or below.
+	 * 
+	 * @param key
+	 *            the key
+	 * @return the new value, or {@link #NO_VALUE} if the key wasn't present
+	 */
+	public int decrementAndGet(final long key) {
+		if (key == EMPTY_KEY) {
+			if (!hasZeroKey) {
+				return NO_VALUE;
+			}
+			int result = --zeroValue;
+			if (result < 1) {
+				hasZeroKey = false;
+			}
+			return result;
+		}
+		int i = slot(key);
+		if (keys[i] == EMPTY_KEY) {
+			return NO_VALUE;
+		}
+		int result = --values[i];
+		if (result < 1) {
+			removeSlot(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Removes a key.
+	 * 
+	 * @param key
+	 *            the key
+	 * @return the value it had, or {@link #NO_VALUE} if it wasn't present
+	 */
+	public int remove(final long key) {
+		if (key == EMPTY_KEY) {
+			if (!hasZeroKey) {
+				return NO_VALUE;
+			}
+			hasZeroKey = false;
+			return zeroValue;
+		}
+		int i = slot(key);
+		if (keys[i] == EMPTY_KEY) {
+			return NO_VALUE;
 		}
+		int result = values[i];
+		removeSlot(i);
+		return result;
 	}
 
-	public void put(final int key, final int value) {
-		int hash = key & lastKey;
-		if (keys[hash] != NO_VALUE && keys[hash] != key) {
-			resize();
-			hash = key & lastKey;
-			if (keys[hash] != NO_VALUE && keys[hash] != key)
-				throw new UnsupportedOperationException("Unable to handle collision.");
+	/**
+	 * Empties a slot and shifts back any following entries of the same probe run, so that no lookup can stop early at the gap.
+	 * 
+	 * @param slot
+	 *            the slot
+	 */
+	private void removeSlot(final int slot) {
+		int gap = slot;
+		int i = slot;
+		while (true) {
+			i = (i + 1) & mask;
+			long k = keys[i];
+			if (k == EMPTY_KEY) {
+				break;
+			}
+			int home = hash(k) & mask;
+			// move the entry into the gap unless its home slot lies cyclically in (gap, i]
+			if (gap <= i ? (home <= gap || home > i) : (home <= gap && home > i)) {
+				keys[gap] = k;
+				values[gap] = values[i];
+				gap = i;
+			}
 		}
-		keys[hash] = key;
-		values[hash] = value;
+		keys[gap] = EMPTY_KEY;
+		values[gap] = 0;
+		size--;
 	}
 
+	/**
+	 * Doubles the table.
+	 */
 	private void resize() {
-		int len2 = keys.length * 2;
-		int[] keys2 = new int[len2];
-		Arrays.fill(keys2, NO_VALUE);
-		int[] values2 = new int[len2];
-		lastKey = len2 - 1;
-		for (int i = 0; i < keys.length; i++) {
-			int key = keys[i];
-			int value = values[i];
-			if (key == NO_VALUE)
-				continue;
-			int hash = key & lastKey;
-			if (keys2[hash] != NO_VALUE)
-				throw new UnsupportedOperationException("Unable to handle collision.");
-			keys2[hash] = key;
-			values2[hash] = value;
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(oldKeys.length * 2);
+		for (int j = 0; j < oldKeys.length; j++) {
+			long k = oldKeys[j];
+			if (k != EMPTY_KEY) {
+				int i = slot(k);
+				keys[i] = k;
+				values[i] = oldValues[j];
+			}
 		}
-		keys = keys2;
-		values = values2;
 	}
 
+	/**
+	 * Gets the number of keys.
+	 * 
+	 * @return the size
+	 */
+	public int size() {
+		return hasZeroKey ? size + 1 : size;
+	}
+
+	/**
+	 * Checks if is empty.
+	 * 
+	 * @return true, if is empty
+	 */
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Removes all keys. The table keeps its current capacity.
+	 */
 	public void clear() {
-		Arrays.fill(keys, NO_VALUE);
+		Arrays.fill(keys, EMPTY_KEY);
+		Arrays.fill(values, 0);
+		size = 0;
+		hasZeroKey = false;
+		zeroValue = 0;
 	}
 }
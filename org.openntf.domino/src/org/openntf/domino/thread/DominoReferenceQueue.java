@@ -17,14 +17,18 @@ package org.openntf.domino.thread;
 
 import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
-import java.util.ArrayList;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.openntf.domino.Base;
+import org.openntf.domino.exceptions.HandleBudgetExceededException;
 import org.openntf.domino.exceptions.UnimplementedException;
 
 // TODO: Auto-generated Javadoc
@@ -48,9 +52,553 @@ public class DominoReferenceQueue extends ReferenceQueue<Base> {
 	 * The reference bag. NTF This is just a junk storehouse for our DominoReference objects BEFORE they get enqueued. if we didn't keep
 	 * this, there would be nothing with a pointer to the reference, and the reference itself would be GC'ed
 	 * 
+	 * It's an intrusive doubly-linked list threaded through the references themselves, so bagging and unbagging are both constant time no
+	 * matter how many wrappers the thread holds.
+	 * 
 	 * */
-	// private final Set<DominoReference> referenceBag = new HashSet<DominoReference>();
-	private final List<DominoReference> referenceBag = new ArrayList<DominoReference>();
+	private DominoReference referenceBag_;
+
+	/** The number of references in the bag. */
+	private int referenceBagSize_;
+
+	/**
+	 * Adds a reference to the head of the bag.
+	 * 
+	 * @param ref
+	 *            the ref
+	 */
+	private void bag(final DominoReference ref) {
+		if (ref.bagged_)
+			return;
+		ref.bagPrev_ = null;
+		ref.bagNext_ = referenceBag_;
+		if (referenceBag_ != null) {
+			referenceBag_.bagPrev_ = ref;
+		}
+		referenceBag_ = ref;
+		ref.bagged_ = true;
+		referenceBagSize_++;
+	}
+
+	/**
+	 * Removes a reference from the bag.
+	 * 
+	 * @param ref
+	 *            the ref
+	 */
+	private void unbag(final DominoReference ref) {
+		if (!ref.bagged_)
+			return;
+		DominoReference prev = ref.bagPrev_;
+		DominoReference next = ref.bagNext_;
+		if (prev == null) {
+			referenceBag_ = next;
+		} else {
+			prev.bagNext_ = next;
+		}
+		if (next != null) {
+			next.bagPrev_ = prev;
+		}
+		ref.bagPrev_ = null;
+		ref.bagNext_ = null;
+		ref.bagged_ = false;
+		referenceBagSize_--;
+	}
+
+	/**
+	 * Gets the number of references that have been bagged and not yet polled.
+	 * 
+	 * @return the bag size
+	 */
+	public int getBagSize() {
+		return referenceBagSize_;
+	}
+
+	/**
+	 * The Enum DrainMode. Decides when wrapper construction polls the queue for references to recycle.
+	 */
+	public static enum DrainMode {
+		/** Drain on every wrapper construction. */
+		ON_WRAP,
+		/** Drain once every {@link DominoReferenceQueue#getDrainInterval()} wrapper constructions. */
+		EVERY_N_WRAPS,
+		/** Drain on wrapper construction only while more than {@link DominoReferenceQueue#getDrainThreshold()} references are bagged. */
+		LIVE_HANDLE_THRESHOLD,
+		/** Never drain on wrapper construction; only at explicit checkpoints. */
+		CHECKPOINT;
+	}
+
+	/** The default drain mode for new queues. */
+	private static volatile DrainMode defaultDrainMode_ = DrainMode.EVERY_N_WRAPS;
+
+	/** The default drain interval for new queues. */
+	private static volatile int defaultDrainInterval_ = 64;
+
+	/** The default drain threshold for new queues. */
+	private static volatile int defaultDrainThreshold_ = 4096;
+
+	/**
+	 * Sets the drain mode used by queues created from now on. Existing threads keep their own settings.
+	 * 
+	 * @param mode
+	 *            the mode
+	 */
+	public static void setDefaultDrainMode(final DrainMode mode) {
+		defaultDrainMode_ = mode;
+	}
+
+	/**
+	 * Gets the default drain mode.
+	 * 
+	 * @return the default drain mode
+	 */
+	public static DrainMode getDefaultDrainMode() {
+		return defaultDrainMode_;
+	}
+
+	/**
+	 * Sets the drain interval used by queues created from now on.
+	 * 
+	 * @param interval
+	 *            the number of wraps between drains, at least 1
+	 */
+	public static void setDefaultDrainInterval(final int interval) {
+		defaultDrainInterval_ = Math.max(1, interval);
+	}
+
+	/**
+	 * Gets the default drain interval.
+	 * 
+	 * @return the default drain interval
+	 */
+	public static int getDefaultDrainInterval() {
+		return defaultDrainInterval_;
+	}
+
+	/**
+	 * Sets the drain threshold used by queues created from now on.
+	 * 
+	 * @param threshold
+	 *            the number of bagged references above which wraps drain
+	 */
+	public static void setDefaultDrainThreshold(final int threshold) {
+		defaultDrainThreshold_ = Math.max(0, threshold);
+	}
+
+	/**
+	 * Gets the default drain threshold.
+	 * 
+	 * @return the default drain threshold
+	 */
+	public static int getDefaultDrainThreshold() {
+		return defaultDrainThreshold_;
+	}
+
+	/** The drain mode. */
+	private DrainMode drainMode_ = defaultDrainMode_;
+
+	/** The drain interval. */
+	private int drainInterval_ = defaultDrainInterval_;
+
+	/** The drain threshold. */
+	private int drainThreshold_ = defaultDrainThreshold_;
+
+	/** The wraps since the last drain. */
+	private int wrapsSinceDrain_;
+
+	/**
+	 * Gets the drain mode.
+	 * 
+	 * @return the drain mode
+	 */
+	public DrainMode getDrainMode() {
+		return drainMode_;
+	}
+
+	/**
+	 * Sets the drain mode for this thread.
+	 * 
+	 * @param mode
+	 *            the mode
+	 */
+	public void setDrainMode(final DrainMode mode) {
+		drainMode_ = mode == null ? defaultDrainMode_ : mode;
+	}
+
+	/**
+	 * Gets the drain interval.
+	 * 
+	 * @return the drain interval
+	 */
+	public int getDrainInterval() {
+		return drainInterval_;
+	}
+
+	/**
+	 * Sets the drain interval for this thread. Used by {@link DrainMode#EVERY_N_WRAPS}, and as the batch size for checkpoints in iterators.
+	 * 
+	 * @param interval
+	 *            the number of wraps between drains, at least 1
+	 */
+	public void setDrainInterval(final int interval) {
+		drainInterval_ = Math.max(1, interval);
+	}
+
+	/**
+	 * Gets the drain threshold.
+	 * 
+	 * @return the drain threshold
+	 */
+	public int getDrainThreshold() {
+		return drainThreshold_;
+	}
+
+	/**
+	 * Sets the drain threshold for this thread. Used by {@link DrainMode#LIVE_HANDLE_THRESHOLD}.
+	 * 
+	 * @param threshold
+	 *            the number of bagged references above which wraps drain
+	 */
+	public void setDrainThreshold(final int threshold) {
+		drainThreshold_ = Math.max(0, threshold);
+	}
+
+	/**
+	 * Records a wrapper construction and decides whether it should drain the queue.
+	 * 
+	 * @return true, if the queue should be drained now
+	 */
+	public boolean isDrainDue() {
+		switch (drainMode_) {
+		case ON_WRAP:
+			return true;
+		case EVERY_N_WRAPS:
+			return ++wrapsSinceDrain_ >= drainInterval_;
+		case LIVE_HANDLE_THRESHOLD:
+			return referenceBagSize_ > drainThreshold_;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Resets the wrap count after the queue has been drained.
+	 */
+	public void drained() {
+		wrapsSinceDrain_ = 0;
+	}
+
+	/** The default handle budget for new queues. 0 means no budget. */
+	private static volatile int defaultHandleBudget_ = 0;
+
+	/** Whether new queues hint a GC when they're over budget. */
+	private static volatile boolean defaultBudgetGcHint_ = true;
+
+	/**
+	 * Sets the handle budget used by queues created from now on.
+	 * 
+	 * @param budget
+	 *            the high-water mark for live handles per thread, or 0 for no budget
+	 * @param gcHint
+	 *            whether to call System.gc() when draining alone doesn't get back under budget
+	 */
+	public static void setDefaultHandleBudget(final int budget, final boolean gcHint) {
+		defaultHandleBudget_ = Math.max(0, budget);
+		defaultBudgetGcHint_ = gcHint;
+	}
+
+	/**
+	 * Gets the default handle budget.
+	 * 
+	 * @return the default handle budget
+	 */
+	public static int getDefaultHandleBudget() {
+		return defaultHandleBudget_;
+	}
+
+	/** The handle budget. */
+	private int handleBudget_ = defaultHandleBudget_;
+
+	/** The budget gc hint. */
+	private boolean budgetGcHint_ = defaultBudgetGcHint_;
+
+	/**
+	 * Sets the handle budget for this thread.
+	 * 
+	 * @param budget
+	 *            the high-water mark for live handles, or 0 for no budget
+	 * @param gcHint
+	 *            whether to call System.gc() when draining alone doesn't get back under budget
+	 */
+	public void setHandleBudget(final int budget, final boolean gcHint) {
+		handleBudget_ = Math.max(0, budget);
+		budgetGcHint_ = gcHint;
+	}
+
+	/**
+	 * Gets the handle budget.
+	 * 
+	 * @return the handle budget, or 0 if there is none
+	 */
+	public int getHandleBudget() {
+		return handleBudget_;
+	}
+
+	/**
+	 * Gets the number of distinct live handles this thread is tracking, i.e. handles with wrappers that have not been collected and polled
+	 * yet. Several wrappers of one handle count once, since only the last of them releases it. A child thread shares its counts through
+	 * the session, so it counts the handles it was the first to wrap, which are the ones it recycles.
+	 * 
+	 * @return the live count
+	 */
+	public int getLiveCount() {
+		return childThread_ ? originatorSet.size() : localLotusReferenceCounter_.size();
+	}
+
+	/**
+	 * Gets the live wrappers this thread is tracking, counted by delegate type. Walks the bag, so it's meant for monitoring, not for hot
+	 * paths.
+	 * 
+	 * @return the live counts by type
+	 */
+	public Map<Class<?>, Integer> getLiveCountsByType() {
+		Map<Class<?>, Integer> result = new HashMap<Class<?>, Integer>();
+		for (DominoReference ref = referenceBag_; ref != null; ref = ref.bagNext_) {
+			Class<?> type = ref._getType();
+			Integer count = result.get(type);
+			result.put(type, count == null ? 1 : count + 1);
+		}
+		return result;
+	}
+
+	/**
+	 * Polls until the queue is empty.
+	 * 
+	 * @param cppid
+	 *            the handle currently being wrapped, which must not be recycled
+	 * @return the number of references polled
+	 */
+	public int drain(final long cppid) {
+		int result = 0;
+		while (poll(cppid) != null) {
+			result++;
+		}
+		drained();
+		return result;
+	}
+
+	/**
+	 * Checks the live handle count against the budget. When it's over, drains the queue, then asks registered wrappers to
+	 * {@link #relieve()} it and, if that's not enough and GC hints are on, asks for a GC and drains again.
+	 * 
+	 * @param cppid
+	 *            the handle currently being wrapped, which must not be recycled
+	 * @throws HandleBudgetExceededException
+	 *             if the thread is still over budget afterwards
+	 */
+	public void enforceBudget(final long cppid) {
+		if (handleBudget_ < 1 || getLiveCount() <= handleBudget_)
+			return;
+		drain(cppid);
+		if (getLiveCount() > handleBudget_) {
+			relieve();
+		}
+		if (getLiveCount() > handleBudget_ && budgetGcHint_) {
+			System.gc();
+			drain(cppid);
+		}
+		int live = getLiveCount();
+		if (live > handleBudget_) {
+			throw new HandleBudgetExceededException("Thread " + Thread.currentThread().getName() + " holds " + live
+					+ " live Domino handles, over its budget of " + handleBudget_ + ", and none could be recycled. Live wrappers by type: "
+					+ getLiveCountsByType(), live, handleBudget_);
+		}
+	}
+
+	/**
+	 * Checks if a wrapper on this thread may still hold a handle, so that a raw object sharing the handle must not be recycled under it.
+	 * Child threads share their counts with other threads through the session, so they always answer true.
+	 * 
+	 * @param cppid
+	 *            the handle id
+	 * @return true, if the handle may be wrapped
+	 */
+	public boolean isWrapped(final long cppid) {
+		if (childThread_)
+			return true;
+		return localLotusReferenceCounter_.getCount(cppid) > 0;
+	}
+
+	/** The wrappers that can release their handles early, least recently opened first. Cleared ones are pruned as it grows. */
+	private final LinkedList<WeakReference<DominoReleasable>> releasables_ = new LinkedList<WeakReference<DominoReleasable>>();
+
+	/** The size releasables_ may reach before it's next pruned. */
+	private int releasablesPruneAt_ = 64;
+
+	/**
+	 * Registers a wrapper that has just opened its handle and could release it again, so that it's asked to when this thread goes over
+	 * its handle budget. It's registered again each time it reopens its handle.
+	 * 
+	 * @param releasable
+	 *            the wrapper
+	 */
+	public void addReleasable(final DominoReleasable releasable) {
+		if (releasables_.size() >= releasablesPruneAt_) {
+			Iterator<WeakReference<DominoReleasable>> it = releasables_.iterator();
+			while (it.hasNext()) {
+				if (it.next().get() == null) {
+					it.remove();
+				}
+			}
+			releasablesPruneAt_ = Math.max(64, releasables_.size() * 2);
+		}
+		releasables_.add(new WeakReference<DominoReleasable>(releasable));
+	}
+
+	/**
+	 * Asks registered wrappers to release their handles, least recently opened first, until the thread is back under its handle budget.
+	 * Wrappers that release are dropped from the list; ones that can't, such as documents with unsaved changes, stay on it.
+	 * 
+	 * @return the number of handles released
+	 */
+	public int relieve() {
+		int result = 0;
+		Iterator<WeakReference<DominoReleasable>> it = releasables_.iterator();
+		while (it.hasNext() && getLiveCount() > handleBudget_) {
+			DominoReleasable releasable = it.next().get();
+			if (releasable == null) {
+				it.remove();
+			} else if (releasable.release()) {
+				it.remove();
+				result++;
+			}
+		}
+		if (result > 0 && log_.isLoggable(Level.FINE)) {
+			log_.log(Level.FINE, "Released " + result + " handles early to get back under the budget of " + handleBudget_);
+		}
+		return result;
+	}
+
+	/**
+	 * Releases a wrapper's reference before the GC enqueues it, for a wrapper that is letting go of its delegate but staying in use. The
+	 * handle is recycled if no other wrapper holds it.
+	 * 
+	 * @param ref
+	 *            the reference bagged for the delegate
+	 * @return true, if the handle was recycled
+	 */
+	public boolean releaseReference(final DominoReference ref) {
+		return release(ref, 0l);
+	}
+
+	/** Whether new queues intern wrappers by handle id. */
+	private static volatile boolean defaultInterning_ = false;
+
+	/**
+	 * Sets whether queues created from now on intern wrappers by handle id.
+	 * 
+	 * @param interning
+	 *            the interning
+	 */
+	public static void setDefaultInterning(final boolean interning) {
+		defaultInterning_ = interning;
+	}
+
+	/**
+	 * Gets whether new queues intern wrappers by handle id.
+	 * 
+	 * @return true, if interning is on by default
+	 */
+	public static boolean isDefaultInterning() {
+		return defaultInterning_;
+	}
+
+	/** The intern table, or null when interning is off. */
+	private DominoInternTable internTable_ = defaultInterning_ ? new DominoInternTable() : null;
+
+	/**
+	 * Checks if this thread interns wrappers by handle id.
+	 * 
+	 * @return true, if is interning
+	 */
+	public boolean isInterning() {
+		return internTable_ != null;
+	}
+
+	/**
+	 * Turns interning of wrappers by handle id on or off for this thread.
+	 * 
+	 * @param interning
+	 *            the interning
+	 */
+	public void setInterning(final boolean interning) {
+		if (interning) {
+			if (internTable_ == null) {
+				internTable_ = new DominoInternTable();
+			}
+		} else {
+			internTable_ = null;
+		}
+	}
+
+	/**
+	 * Gets the live wrapper interned for a handle.
+	 * 
+	 * @param cppid
+	 *            the handle id
+	 * @return the wrapper, or null if there is none or interning is off
+	 */
+	public Object getInterned(final long cppid) {
+		return internTable_ == null ? null : internTable_.get(cppid);
+	}
+
+	/**
+	 * Interns a wrapper for its handle. Does nothing when interning is off.
+	 * 
+	 * @param cppid
+	 *            the handle id
+	 * @param wrapper
+	 *            the wrapper
+	 */
+	public void intern(final long cppid, final Object wrapper) {
+		if (internTable_ != null) {
+			internTable_.put(cppid, wrapper);
+		}
+	}
+
+	/**
+	 * Drops any wrapper interned for a handle, e.g. because the handle has been recycled and its id may be reused.
+	 * 
+	 * @param cppid
+	 *            the handle id
+	 */
+	public void forget(final long cppid) {
+		if (internTable_ != null) {
+			internTable_.remove(cppid);
+		}
+	}
+
+	/** The innermost open recycle scope on this thread. */
+	private RecycleScope scope_;
+
+	/**
+	 * Gets the innermost open recycle scope.
+	 * 
+	 * @return the scope, or null if none is open
+	 */
+	RecycleScope getScope() {
+		return scope_;
+	}
+
+	/**
+	 * Sets the innermost open recycle scope.
+	 * 
+	 * @param scope
+	 *            the scope
+	 */
+	void setScope(final RecycleScope scope) {
+		scope_ = scope;
+	}
 
 	/**
 	 * Finalize queue.
@@ -63,6 +611,9 @@ public class DominoReferenceQueue extends ReferenceQueue<Base> {
 			ref.recycle();
 			result++;
 		}
+		if (result > 0) {
+			org.openntf.domino.impl.Base.invalidateDelegates();
+		}
 		return result;
 	}
 
@@ -77,40 +628,64 @@ public class DominoReferenceQueue extends ReferenceQueue<Base> {
 	public Reference<? extends Base> poll(final long cppid) {
 		DominoReference result = (DominoReference) super.poll();
 
-		if (result != null) {
-			long did = result.getDelegateId();
-			referenceBag.remove(result);
-			int count = -1;
-			boolean shouldRecycle = false;
-			if (childThread_) {
-				count = result.getSession().subtractId(did);
-				if (count == 0) { // if we're the originating thread, and we're also the last to use it. See ya!
-					if (originatorSet.contains(result)) {
-						originatorSet.remove(result);
-						shouldRecycle = true;
-					}
+		if (result != null && result.bagged_) {
+			release(result, cppid);
+		}
+		return result;
+	}
+
+	/**
+	 * Releases a reference: takes it out of the bag, decrements the wrapper count for its handle and recycles the handle if that was the
+	 * last wrapper. Called for references the GC has enqueued, and for references a {@link RecycleScope} releases early. A reference that
+	 * has already been released is ignored, so one released early is simply skipped when the GC enqueues it later.
+	 * 
+	 * @param ref
+	 *            the ref
+	 * @param cppid
+	 *            the handle currently being wrapped, which must not be recycled
+	 * @return true, if the handle was recycled
+	 */
+	boolean release(final DominoReference ref, final long cppid) {
+		if (!ref.bagged_)
+			return false;
+		long did = ref.getDelegateId();
+		unbag(ref);
+		int count = -1;
+		boolean shouldRecycle = false;
+		if (childThread_) {
+			count = ref.getSession().subtractId(did);
+			if (count == 0) { // if we're the originating thread, and we're also the last to use it. See ya!
+				if (originatorSet.contains(ref)) {
+					originatorSet.remove(ref);
+					shouldRecycle = true;
 				}
-			} else {
-				count = localLotusReferenceCounter_.decrement(did);
-				if (count < 1) {
-					if (did == cppid) {
-						// System.out.println("ALERT!!! Attemping to auto-recycle the same handle we're currently wrapping. Don't! " +
-						// cppid);
-					} else {
-						shouldRecycle = true;
-					}
+			}
+		} else {
+			count = localLotusReferenceCounter_.decrement(did);
+			if (count < 1) {
+				if (did == cppid) {
+					// System.out.println("ALERT!!! Attemping to auto-recycle the same handle we're currently wrapping. Don't! " +
+					// cppid);
+				} else {
+					shouldRecycle = true;
 				}
 			}
+		}
+		if (internTable_ != null) {
 			if (shouldRecycle) {
-				result.recycle();
+				internTable_.remove(did);
 			} else {
-				if (log_.isLoggable(Level.FINER))
-					log_.log(Level.FINER, "Not recycling a " + result._getType().getSimpleName() + " (" + result.getDelegateId()
-							+ ") because it still has " + count + " wrappers");
+				internTable_.removeIfCleared(did);
 			}
-
 		}
-		return result;
+		if (shouldRecycle) {
+			ref.recycle();
+		} else {
+			if (log_.isLoggable(Level.FINER))
+				log_.log(Level.FINER, "Not recycling a " + ref._getType().getSimpleName() + " (" + ref.getDelegateId()
+						+ ") because it still has " + count + " wrappers");
+		}
+		return shouldRecycle;
 	}
 
 	/* (non-Javadoc)
@@ -153,7 +728,10 @@ public class DominoReferenceQueue extends ReferenceQueue<Base> {
 			int count = localLotusReferenceCounter_.increment(ref.getDelegateId());
 		}
 		// int localCount = ref.getSession().addId(ref.getDelegateId());
-		referenceBag.add(ref);
+		bag(ref);
+		if (scope_ != null) {
+			scope_.register(ref);
+		}
 	}
 
 	/**
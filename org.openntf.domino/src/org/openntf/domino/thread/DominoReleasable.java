@@ -0,0 +1,32 @@
+/*
+ * Copyright 2013
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at:
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 
+ * implied. See the License for the specific language governing 
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.thread;
+
+/**
+ * A wrapper that can give its Domino handle back before it is collected, and open it again when it's next used. The recycle queue asks
+ * the ones registered with {@link DominoReferenceQueue#addReleasable(DominoReleasable)} to do so when its thread is over the handle
+ * budget.
+ */
+public interface DominoReleasable {
+
+	/**
+	 * Releases the handle, if it can be opened again without losing anything.
+	 * 
+	 * @return true, if the handle was released
+	 */
+	public boolean release();
+
+}
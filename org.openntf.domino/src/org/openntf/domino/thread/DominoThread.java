@@ -77,6 +77,8 @@ public class DominoThread extends Thread {
 		} catch (Throwable t) {
 			throw new RuntimeException(t);
 		} finally {
+			// sessions can't outlive their thread, so recycle whatever the run left idle in the pool, e.g. from BackgroundRunnables
+			SessionPool.getDefault().clearThread();
 			System.gc();
 			try {
 				sleep(1000);
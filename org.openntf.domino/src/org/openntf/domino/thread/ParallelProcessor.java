@@ -0,0 +1,423 @@
+/*
+ * Copyright 2013
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at:
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 
+ * implied. See the License for the specific language governing 
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.thread;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openntf.domino.Database;
+import org.openntf.domino.Document;
+import org.openntf.domino.Session;
+import org.openntf.domino.utils.Factory;
+
+/**
+ * Runs a callback over a set of notes on several threads. The note ids are split into contiguous ranges, and each range is processed by a
+ * {@link DominoExecutor} worker that opens the database through its own Session, so no handle is ever shared between threads.
+ * 
+ * The workers' Sessions run as the process identity unless a {@link SessionPool.SessionFactory} is passed, in which case each range
+ * borrows a Session for the given key from the default {@link SessionPool}. Without one, a caller whose Session has a different effective
+ * user is refused rather than have its ACL-sensitive work run with another identity's access.
+ * 
+ * Failures don't stop the run: an exception thrown for one document is recorded against its note id, and the other documents carry on.
+ * A range that can't run at all, because the pool rejects it or its Session or database can't be had, has every one of its note ids
+ * recorded as failed, so the processed and failed counts always add up to the number of notes.
+ * 
+ * @author nfreeman
+ */
+public class ParallelProcessor {
+	/** The Constant log_. */
+	private static final Logger log_ = Logger.getLogger(ParallelProcessor.class.getName());
+
+	/** How many ranges each thread gets, on average, when the range size is left to the processor. */
+	private static final int RANGES_PER_THREAD = 4;
+
+	/**
+	 * The Interface Callback.
+	 * 
+	 * @param <R>
+	 *            the result type
+	 */
+	public static interface Callback<R> {
+		/**
+		 * Processes one document. Called on a worker thread, with a Document opened through that worker's Session; the document and
+		 * anything obtained from it are recycled once its range is done, so they must not be returned.
+		 * 
+		 * @param doc
+		 *            the document
+		 * @return a result to collect, or null for none
+		 * @throws Exception
+		 *             to record a failure for this document
+		 */
+		public R process(final Document doc) throws Exception;
+	}
+
+	/**
+	 * The results of a run.
+	 * 
+	 * @param <R>
+	 *            the result type
+	 */
+	public static class Result<R> {
+		/** The number of documents processed without failing. */
+		private int processed_;
+
+		/** The non-null results, in note id order. */
+		private final List<R> results_ = new ArrayList<R>();
+
+		/** The failures, by note id. */
+		private final Map<Integer, Throwable> failures_ = new LinkedHashMap<Integer, Throwable>();
+
+		/**
+		 * Adds the results of a range.
+		 * 
+		 * @param other
+		 *            the results of the range
+		 */
+		void addAll(final Result<R> other) {
+			processed_ += other.processed_;
+			results_.addAll(other.results_);
+			failures_.putAll(other.failures_);
+		}
+
+		/**
+		 * Records every note of a range as failed.
+		 * 
+		 * @param noteIds
+		 *            the note ids
+		 * @param from
+		 *            the start of the range
+		 * @param to
+		 *            the end of the range, exclusive
+		 * @param t
+		 *            the failure
+		 */
+		void failAll(final int[] noteIds, final int from, final int to, final Throwable t) {
+			for (int i = from; i < to; i++) {
+				failures_.put(Integer.valueOf(noteIds[i]), t);
+			}
+		}
+
+		/**
+		 * Gets the number of documents processed without failing.
+		 * 
+		 * @return the processed count
+		 */
+		public int getProcessed() {
+			return processed_;
+		}
+
+		/**
+		 * Gets the non-null results returned by the callback, in note id order.
+		 * 
+		 * @return the results
+		 */
+		public List<R> getResults() {
+			return Collections.unmodifiableList(results_);
+		}
+
+		/**
+		 * Gets the failures, by note id.
+		 * 
+		 * @return the failures
+		 */
+		public Map<Integer, Throwable> getFailures() {
+			return Collections.unmodifiableMap(failures_);
+		}
+
+		/**
+		 * Checks for failures.
+		 * 
+		 * @return true, if any document failed
+		 */
+		public boolean hasFailures() {
+			return !failures_.isEmpty();
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return processed_ + " processed, " + results_.size() + " results, " + failures_.size() + " failures";
+		}
+	}
+
+	/**
+	 * A task processing one range of note ids.
+	 * 
+	 * @param <R>
+	 *            the result type
+	 */
+	private static class RangeTask<R> implements Callable<Result<R>> {
+		/** The server. */
+		private final String server_;
+
+		/** The file path. */
+		private final String path_;
+
+		/** The note ids. */
+		private final int[] noteIds_;
+
+		/** The start of the range. */
+		private final int from_;
+
+		/** The end of the range, exclusive. */
+		private final int to_;
+
+		/** The callback. */
+		private final Callback<R> callback_;
+
+		/** The effective user the worker's own Session must have, used when there is no factory. */
+		private final String userName_;
+
+		/** The key to borrow a Session with, or null to use the worker's own. */
+		private final SessionPool.Key key_;
+
+		/** Creates the borrowed Sessions, or null to use the worker's own. */
+		private final SessionPool.SessionFactory factory_;
+
+		/**
+		 * Instantiates a new range task.
+		 * 
+		 * @param server
+		 *            the server
+		 * @param path
+		 *            the file path
+		 * @param noteIds
+		 *            the note ids
+		 * @param from
+		 *            the start of the range
+		 * @param to
+		 *            the end of the range, exclusive
+		 * @param callback
+		 *            the callback
+		 * @param userName
+		 *            the effective user of the caller's Session
+		 * @param key
+		 *            the key to borrow a Session with, or null
+		 * @param factory
+		 *            the factory for borrowed Sessions, or null to use the worker's own Session
+		 */
+		RangeTask(final String server, final String path, final int[] noteIds, final int from, final int to, final Callback<R> callback,
+				final String userName, final SessionPool.Key key, final SessionPool.SessionFactory factory) {
+			server_ = server;
+			path_ = path;
+			noteIds_ = noteIds;
+			from_ = from;
+			to_ = to;
+			callback_ = callback;
+			userName_ = userName;
+			key_ = key;
+			factory_ = factory;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.concurrent.Callable#call()
+		 */
+		@Override
+		public Result<R> call() {
+			Result<R> result = new Result<R>();
+			int i = from_;
+			lotus.domino.Session borrowed = null;
+			try {
+				Session session;
+				if (factory_ == null) {
+					session = Factory.getSession();
+					if (!userName_.equalsIgnoreCase(session.getEffectiveUserName())) {
+						throw new IllegalStateException("Workers run as " + session.getEffectiveUserName() + ", not as " + userName_
+								+ "; pass a SessionFactory to process as the caller");
+					}
+				} else {
+					borrowed = SessionPool.getDefault().borrow(key_, factory_);
+					if (borrowed == null) {
+						throw new IllegalStateException("Unable to create a " + key_ + " on " + Thread.currentThread().getName());
+					}
+					session = Factory.fromLotus(borrowed, Session.class, null);
+				}
+				Database db = session.getDatabase(server_, path_);
+				if (db == null) {
+					throw new IllegalStateException("Unable to open database " + server_ + "!!" + path_ + " on "
+							+ Thread.currentThread().getName());
+				}
+				for (; i < to_; i++) {
+					int noteId = noteIds_[i];
+					try {
+						Document doc = db.getDocumentByID(Integer.toHexString(noteId));
+						if (doc == null) {
+							throw new IllegalStateException("No document found for note id " + Integer.toHexString(noteId));
+						}
+						R r = callback_.process(doc);
+						if (r != null) {
+							result.results_.add(r);
+						}
+						result.processed_++;
+					} catch (Throwable t) {
+						result.failures_.put(Integer.valueOf(noteId), t);
+					}
+				}
+			} catch (Throwable t) {
+				// the rest of the range can't be processed
+				result.failAll(noteIds_, i, to_, t);
+			} finally {
+				if (borrowed != null) {
+					SessionPool.getDefault().release(key_, borrowed);
+				}
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Instantiates a new parallel processor.
+	 */
+	private ParallelProcessor() {
+	}
+
+	/**
+	 * Processes notes on a pool of its own, which is shut down again afterwards.
+	 * 
+	 * @param <R>
+	 *            the result type
+	 * @param db
+	 *            the database the notes are in
+	 * @param noteIds
+	 *            the note ids
+	 * @param callback
+	 *            the callback
+	 * @param threads
+	 *            the number of threads
+	 * @return the results
+	 */
+	public static <R> Result<R> process(final Database db, final int[] noteIds, final Callback<R> callback, final int threads) {
+		DominoExecutor executor = new DominoExecutor(threads, Integer.MAX_VALUE, Factory.getClassLoader());
+		try {
+			return process(db, noteIds, callback, executor, 0);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Processes notes on an existing pool.
+	 * 
+	 * @param <R>
+	 *            the result type
+	 * @param db
+	 *            the database the notes are in
+	 * @param noteIds
+	 *            the note ids
+	 * @param callback
+	 *            the callback
+	 * @param executor
+	 *            the executor
+	 * @param rangeSize
+	 *            the number of notes per range, or 0 to pick one from the pool size
+	 * @return the results
+	 */
+	public static <R> Result<R> process(final Database db, final int[] noteIds, final Callback<R> callback, final DominoExecutor executor,
+			final int rangeSize) {
+		return process(db, noteIds, callback, executor, rangeSize, null, null);
+	}
+
+	/**
+	 * Processes notes on an existing pool, with Sessions borrowed for a given identity, so that the workers have the caller's access rather
+	 * than the process identity's.
+	 * 
+	 * @param <R>
+	 *            the result type
+	 * @param db
+	 *            the database the notes are in
+	 * @param noteIds
+	 *            the note ids
+	 * @param callback
+	 *            the callback
+	 * @param executor
+	 *            the executor
+	 * @param rangeSize
+	 *            the number of notes per range, or 0 to pick one from the pool size
+	 * @param key
+	 *            the key to borrow each range's Session with
+	 * @param factory
+	 *            creates the Sessions for the key, or null to use the workers' own Sessions, which only works for callers running as the
+	 *            process identity
+	 * @return the results
+	 */
+	public static <R> Result<R> process(final Database db, final int[] noteIds, final Callback<R> callback, final DominoExecutor executor,
+			final int rangeSize, final SessionPool.Key key, final SessionPool.SessionFactory factory) {
+		if (factory != null && key == null) {
+			throw new IllegalArgumentException("A SessionFactory needs a key");
+		}
+		Result<R> result = new Result<R>();
+		if (noteIds == null || noteIds.length == 0) {
+			return result;
+		}
+		int size = rangeSize;
+		if (size < 1) {
+			int ranges = Math.max(1, executor.getMaximumPoolSize()) * RANGES_PER_THREAD;
+			size = Math.max(1, (noteIds.length + ranges - 1) / ranges);
+		}
+		String server = db.getServer();
+		String path = db.getFilePath();
+		String userName = db.getAncestorSession().getEffectiveUserName();
+		List<Future<Result<R>>> futures = new ArrayList<Future<Result<R>>>();
+		// the start of each submitted range, in the same order as futures
+		List<Integer> starts = new ArrayList<Integer>();
+		for (int from = 0; from < noteIds.length; from += size) {
+			int to = Math.min(noteIds.length, from + size);
+			try {
+				futures.add(executor.submit(new RangeTask<R>(server, path, noteIds, from, to, callback, userName, key, factory)));
+				starts.add(Integer.valueOf(from));
+			} catch (RejectedExecutionException e) {
+				result.failAll(noteIds, from, to, e);
+			}
+		}
+		for (int f = 0; f < futures.size(); f++) {
+			int from = starts.get(f).intValue();
+			int to = Math.min(noteIds.length, from + size);
+			try {
+				result.addAll(futures.get(f).get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				for (int rest = f; rest < futures.size(); rest++) {
+					futures.get(rest).cancel(true);
+					int restFrom = starts.get(rest).intValue();
+					result.failAll(noteIds, restFrom, Math.min(noteIds.length, restFrom + size), e);
+				}
+				if (log_.isLoggable(Level.WARNING))
+					log_.log(Level.WARNING, "Interrupted while waiting for parallel processing of " + path + "; results are partial");
+				break;
+			} catch (ExecutionException e) {
+				// RangeTask catches everything itself, so this is a bug; the range's notes are failed all the same
+				if (log_.isLoggable(Level.WARNING))
+					log_.log(Level.WARNING, "A range failed unexpectedly while processing " + path, e.getCause());
+				result.failAll(noteIds, from, to, e.getCause());
+			} catch (CancellationException e) {
+				result.failAll(noteIds, from, to, e);
+			}
+		}
+		return result;
+	}
+}
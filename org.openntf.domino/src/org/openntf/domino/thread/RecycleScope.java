@@ -0,0 +1,209 @@
+/*
+ * Copyright 2013
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at:
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 
+ * implied. See the License for the specific language governing 
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.thread;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A unit of work whose Domino handles are released together. Every wrapper created on the opening thread while the scope is open is
+ * registered with it, and {@link #close()} recycles all of them in one pass instead of waiting for the GC to enqueue their references.
+ * 
+ * <pre>
+ * RecycleScope scope = RecycleScope.open();
+ * try {
+ * 	// ... work with documents, view entries, etc.
+ * } finally {
+ * 	scope.close();
+ * }
+ * </pre>
+ * 
+ * Objects that must outlive the scope are passed to {@link #escape(org.openntf.domino.Base)}; they are handed to the enclosing scope, or
+ * back to normal auto-recycling if there is none. Objects locked with {@link org.openntf.domino.impl.Base#lock(lotus.domino.Base)} are
+ * never recycled by a scope. A handle that is also wrapped by an object from outside the scope is only released, not recycled, since the
+ * outside wrapper still needs it.
+ * 
+ * Scopes nest, and belong to the thread that opened them.
+ * 
+ * @author nfreeman
+ */
+public class RecycleScope implements Closeable {
+	/** The Constant log_. */
+	private static final Logger log_ = Logger.getLogger(RecycleScope.class.getName());
+
+	/** The queue of the thread that opened the scope. */
+	private final DominoReferenceQueue queue_;
+
+	/** The enclosing scope. */
+	private final RecycleScope parent_;
+
+	/** The references registered with the scope. */
+	private final List<DominoReference> references_ = new ArrayList<DominoReference>();
+
+	/** The handle ids that have escaped the scope. */
+	private DominoReferenceMap escaped_;
+
+	/** The closed_. */
+	private boolean closed_;
+
+	/**
+	 * Opens a scope on the current thread. It becomes the current scope until it's closed.
+	 * 
+	 * @return the scope
+	 */
+	public static RecycleScope open() {
+		DominoReferenceQueue queue = org.openntf.domino.impl.Base.getRecycleQueue();
+		RecycleScope result = new RecycleScope(queue, queue.getScope());
+		queue.setScope(result);
+		return result;
+	}
+
+	/**
+	 * Gets the innermost open scope on the current thread.
+	 * 
+	 * @return the scope, or null if none is open
+	 */
+	public static RecycleScope current() {
+		return org.openntf.domino.impl.Base.getRecycleQueue().getScope();
+	}
+
+	/**
+	 * Instantiates a new recycle scope.
+	 * 
+	 * @param queue
+	 *            the queue
+	 * @param parent
+	 *            the parent
+	 */
+	private RecycleScope(final DominoReferenceQueue queue, final RecycleScope parent) {
+		queue_ = queue;
+		parent_ = parent;
+	}
+
+	/**
+	 * Registers a reference with the scope.
+	 * 
+	 * @param ref
+	 *            the ref
+	 */
+	void register(final DominoReference ref) {
+		references_.add(ref);
+	}
+
+	/**
+	 * Lets an object outlive the scope. It will not be recycled when the scope closes.
+	 * 
+	 * @param base
+	 *            the object
+	 */
+	@SuppressWarnings("rawtypes")
+	public void escape(final org.openntf.domino.Base<?> base) {
+		if (base instanceof org.openntf.domino.impl.Base) {
+			if (escaped_ == null) {
+				escaped_ = new DominoReferenceMap(16);
+			}
+			escaped_.put(org.openntf.domino.impl.Base.getDelegateId((org.openntf.domino.impl.Base) base), 1);
+		}
+	}
+
+	/**
+	 * Gets the parent.
+	 * 
+	 * @return the enclosing scope, or null
+	 */
+	public RecycleScope getParent() {
+		return parent_;
+	}
+
+	/**
+	 * Checks if is closed.
+	 * 
+	 * @return true, if is closed
+	 */
+	public boolean isClosed() {
+		return closed_;
+	}
+
+	/**
+	 * Gets the number of references registered with the scope.
+	 * 
+	 * @return the size
+	 */
+	public int size() {
+		return references_.size();
+	}
+
+	/**
+	 * Closes the scope, and any scopes still open inside it, recycling every handle created in it that hasn't escaped, isn't locked and
+	 * isn't still wrapped by an object from outside the scope.
+	 * 
+	 * @throws IllegalStateException
+	 *             if called from a thread other than the one that opened the scope
+	 */
+	public void close() {
+		closeScope();
+	}
+
+	/**
+	 * Closes the scope. See {@link #close()}.
+	 * 
+	 * @return the number of handles recycled
+	 * @throws IllegalStateException
+	 *             if called from a thread other than the one that opened the scope
+	 */
+	public int closeScope() {
+		if (closed_)
+			return 0;
+		if (queue_ != org.openntf.domino.impl.Base.getRecycleQueue()) {
+			throw new IllegalStateException("A RecycleScope must be closed by the thread that opened it");
+		}
+		int result = 0;
+		RecycleScope inner = queue_.getScope();
+		while (inner != null && inner != this) {
+			if (log_.isLoggable(Level.WARNING))
+				log_.log(Level.WARNING, "Closing a RecycleScope that was left open inside another one");
+			result += inner.closeScope();
+			inner = queue_.getScope();
+		}
+		// newest first, so children go before the parents they came from
+		for (int i = references_.size() - 1; i >= 0; i--) {
+			DominoReference ref = references_.get(i);
+			if (!ref.bagged_) {
+				continue; // already polled
+			}
+			if ((escaped_ != null && escaped_.containsKey(ref.getDelegateId())) || ref.isLocked()) {
+				if (parent_ != null) {
+					parent_.register(ref);
+				}
+				continue;
+			}
+			if (queue_.release(ref, 0l)) {
+				result++;
+			}
+		}
+		references_.clear();
+		queue_.setScope(parent_);
+		closed_ = true;
+		if (result > 0) {
+			// the wrappers we just recycled may still be reachable
+			org.openntf.domino.impl.Base.invalidateDelegates();
+		}
+		return result;
+	}
+}
@@ -0,0 +1,443 @@
+/*
+ * Copyright 2013
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at:
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 
+ * implied. See the License for the specific language governing 
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.thread;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import lotus.domino.NotesException;
+import lotus.domino.NotesFactory;
+
+import org.openntf.domino.impl.Base;
+
+/**
+ * A bounded pool of lotus Sessions, keyed by who they're for: user, server and kind of session.
+ * 
+ * Domino objects belong to the thread that created them, so a pooled Session is only ever handed back to the thread that created it. Each
+ * thread has its own idle sessions, and eviction, validity checks and recycling all happen on that thread. The pool helps threads that
+ * live across many units of work, such as {@link DominoExecutor} workers or an application server's request threads. A thread that runs a
+ * single task gains nothing from it, but must {@link #clearThread()} when it ends if it borrowed anything, which recycles whatever it left
+ * idle; DominoThread and DominoExecutor workers do that for the default pool when they exit.
+ * 
+ * Without a {@link SessionFactory}, sessions are created by NotesFactory, which can only create them for the identity the process runs
+ * as on the local server. Keys that name a user or a server need a SessionFactory that can honour them.
+ * 
+ * A Session is borrowed by one caller at a time. Borrowing a key that is already out on the same thread creates another Session.
+ * 
+ * @author nfreeman
+ */
+public class SessionPool {
+	/** The Constant log_. */
+	private static final Logger log_ = Logger.getLogger(SessionPool.class.getName());
+
+	/** The default maximum of idle sessions per thread. */
+	public static final int DEFAULT_MAX_IDLE_PER_THREAD = 4;
+
+	/** The default maximum of idle sessions across all threads. */
+	public static final int DEFAULT_MAX_IDLE = 256;
+
+	/** The default idle timeout, in milliseconds. */
+	public static final long DEFAULT_IDLE_TIMEOUT = 5 * 60 * 1000l;
+
+	/** The default pool. */
+	private static final SessionPool default_ = new SessionPool(DEFAULT_MAX_IDLE_PER_THREAD, DEFAULT_MAX_IDLE, DEFAULT_IDLE_TIMEOUT);
+
+	/**
+	 * The Enum Type.
+	 */
+	public static enum Type {
+		/** NotesFactory.createSession(). */
+		DEFAULT,
+		/** NotesFactory.createSessionWithFullAccess(). */
+		FULL_ACCESS,
+		/** NotesFactory.createTrustedSession(). */
+		TRUSTED,
+		/** An XPages session for a user. Can only be created by a {@link SessionFactory} supplied by the caller. */
+		XSP
+	}
+
+	/**
+	 * Creates the sessions for a key.
+	 */
+	public static interface SessionFactory {
+		/**
+		 * Creates a session.
+		 * 
+		 * @param key
+		 *            the key
+		 * @return the session, or null if none could be created
+		 * @throws NotesException
+		 *             the notes exception
+		 */
+		public lotus.domino.Session createSession(final Key key) throws NotesException;
+	}
+
+	/**
+	 * Identifies the sessions that can stand in for each other.
+	 */
+	public static final class Key {
+		/** The user name. */
+		private final String userName_;
+
+		/** The server. */
+		private final String server_;
+
+		/** The type. */
+		private final Type type_;
+
+		/**
+		 * Instantiates a new key.
+		 * 
+		 * @param userName
+		 *            the user name, or null for the identity the process runs as
+		 * @param server
+		 *            the server, or null for the local one
+		 * @param type
+		 *            the type
+		 */
+		public Key(final String userName, final String server, final Type type) {
+			userName_ = userName == null ? "" : userName;
+			server_ = server == null ? "" : server;
+			type_ = type;
+		}
+
+		/**
+		 * Gets the user name.
+		 * 
+		 * @return the user name
+		 */
+		public String getUserName() {
+			return userName_;
+		}
+
+		/**
+		 * Gets the server.
+		 * 
+		 * @return the server
+		 */
+		public String getServer() {
+			return server_;
+		}
+
+		/**
+		 * Gets the type.
+		 * 
+		 * @return the type
+		 */
+		public Type getType() {
+			return type_;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(final Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return type_ == other.type_ && userName_.equals(other.userName_) && server_.equals(other.server_);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return (userName_.hashCode() * 31 + server_.hashCode()) * 31 + (type_ == null ? 0 : type_.hashCode());
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return type_ + " session for " + (userName_.length() == 0 ? "(process)" : userName_) + " on "
+					+ (server_.length() == 0 ? "(local)" : server_);
+		}
+	}
+
+	/**
+	 * An idle session.
+	 */
+	private static class Idle {
+		/** The session. */
+		private final lotus.domino.Session session_;
+
+		/** When it was released. */
+		private final long since_;
+
+		/**
+		 * Instantiates a new idle session.
+		 * 
+		 * @param session
+		 *            the session
+		 */
+		Idle(final lotus.domino.Session session) {
+			session_ = session;
+			since_ = System.currentTimeMillis();
+		}
+	}
+
+	/** The maximum of idle sessions per thread. */
+	private final int maxIdlePerThread_;
+
+	/** The maximum of idle sessions across all threads. */
+	private final int maxIdle_;
+
+	/** The idle timeout, in milliseconds. */
+	private final long idleTimeout_;
+
+	/** The number of idle sessions across all threads. */
+	private final AtomicInteger idleCount_ = new AtomicInteger();
+
+	/** The idle sessions of each thread. */
+	private final ThreadLocal<Map<Key, List<Idle>>> idle_ = new ThreadLocal<Map<Key, List<Idle>>>() {
+		@Override
+		protected Map<Key, List<Idle>> initialValue() {
+			return new HashMap<Key, List<Idle>>();
+		}
+	};
+
+	/**
+	 * Gets the default pool.
+	 * 
+	 * @return the default pool
+	 */
+	public static SessionPool getDefault() {
+		return default_;
+	}
+
+	/**
+	 * Instantiates a new session pool.
+	 * 
+	 * @param maxIdlePerThread
+	 *            the maximum of idle sessions per thread
+	 * @param maxIdle
+	 *            the maximum of idle sessions across all threads
+	 * @param idleTimeout
+	 *            how long, in milliseconds, a session may stay idle before it's recycled
+	 */
+	public SessionPool(final int maxIdlePerThread, final int maxIdle, final long idleTimeout) {
+		maxIdlePerThread_ = maxIdlePerThread;
+		maxIdle_ = maxIdle;
+		idleTimeout_ = idleTimeout;
+	}
+
+	/**
+	 * Borrows a session of one of the types NotesFactory can create on its own, for the process identity on the local server.
+	 * 
+	 * @param key
+	 *            the key
+	 * @return the session, or null if none could be created
+	 * @throws NotesException
+	 *             the notes exception
+	 * @throws IllegalArgumentException
+	 *             if the key names a user or a server, or is for an XSP session
+	 */
+	public lotus.domino.Session borrow(final Key key) throws NotesException {
+		return borrow(key, null);
+	}
+
+	/**
+	 * Borrows a session, reusing one the current thread released earlier if it's still valid.
+	 * 
+	 * @param key
+	 *            the key
+	 * @param factory
+	 *            creates the session if none is idle, or null to use NotesFactory
+	 * @return the session, or null if none could be created
+	 * @throws NotesException
+	 *             the notes exception
+	 */
+	public lotus.domino.Session borrow(final Key key, final SessionFactory factory) throws NotesException {
+		evictIdle();
+		List<Idle> idle = idle_.get().get(key);
+		while (idle != null && !idle.isEmpty()) {
+			Idle entry = idle.remove(idle.size() - 1);
+			idleCount_.decrementAndGet();
+			if (isValid(entry.session_)) {
+				return entry.session_;
+			}
+			if (log_.isLoggable(Level.FINE))
+				log_.log(Level.FINE, "Discarding an invalid pooled " + key);
+			Base.s_recycle((lotus.domino.local.NotesBase) entry.session_);
+		}
+		return factory == null ? createSession(key) : factory.createSession(key);
+	}
+
+	/**
+	 * Releases a session borrowed by the current thread. It's kept for the next borrower on this thread if there's room, and recycled
+	 * otherwise.
+	 * 
+	 * @param key
+	 *            the key it was borrowed with
+	 * @param session
+	 *            the session
+	 */
+	public void release(final Key key, final lotus.domino.Session session) {
+		if (session == null) {
+			return;
+		}
+		Map<Key, List<Idle>> threadIdle = idle_.get();
+		if (countIdle(threadIdle) < maxIdlePerThread_ && isValid(session)) {
+			if (idleCount_.incrementAndGet() <= maxIdle_) {
+				List<Idle> idle = threadIdle.get(key);
+				if (idle == null) {
+					idle = new ArrayList<Idle>(2);
+					threadIdle.put(key, idle);
+				}
+				idle.add(new Idle(session));
+				return;
+			}
+			idleCount_.decrementAndGet();
+		}
+		Base.s_recycle((lotus.domino.local.NotesBase) session);
+	}
+
+	/**
+	 * Recycles the current thread's sessions that have been idle for longer than the idle timeout.
+	 * 
+	 * @return the number of sessions recycled
+	 */
+	public int evictIdle() {
+		int result = 0;
+		long cutoff = System.currentTimeMillis() - idleTimeout_;
+		Iterator<List<Idle>> lists = idle_.get().values().iterator();
+		while (lists.hasNext()) {
+			List<Idle> idle = lists.next();
+			Iterator<Idle> entries = idle.iterator();
+			while (entries.hasNext()) {
+				Idle entry = entries.next();
+				if (entry.since_ < cutoff) {
+					entries.remove();
+					idleCount_.decrementAndGet();
+					Base.s_recycle((lotus.domino.local.NotesBase) entry.session_);
+					result++;
+				}
+			}
+			if (idle.isEmpty()) {
+				lists.remove();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Recycles all of the current thread's idle sessions. Call it before a thread that used the pool terminates.
+	 * 
+	 * @return the number of sessions recycled
+	 */
+	public int clearThread() {
+		int result = 0;
+		for (List<Idle> idle : idle_.get().values()) {
+			for (Idle entry : idle) {
+				idleCount_.decrementAndGet();
+				Base.s_recycle((lotus.domino.local.NotesBase) entry.session_);
+				result++;
+			}
+		}
+		idle_.remove();
+		return result;
+	}
+
+	/**
+	 * Gets the number of idle sessions of the current thread.
+	 * 
+	 * @return the idle count
+	 */
+	public int getThreadIdleCount() {
+		return countIdle(idle_.get());
+	}
+
+	/**
+	 * Gets the number of idle sessions across all threads.
+	 * 
+	 * @return the idle count
+	 */
+	public int getIdleCount() {
+		return idleCount_.get();
+	}
+
+	/**
+	 * Count idle.
+	 * 
+	 * @param threadIdle
+	 *            a thread's idle sessions
+	 * @return the number of sessions
+	 */
+	private static int countIdle(final Map<Key, List<Idle>> threadIdle) {
+		int result = 0;
+		for (List<Idle> idle : threadIdle.values()) {
+			result += idle.size();
+		}
+		return result;
+	}
+
+	/**
+	 * Checks if a session can still be used.
+	 * 
+	 * @param session
+	 *            the session
+	 * @return true, if valid
+	 */
+	private static boolean isValid(final lotus.domino.Session session) {
+		if (Base.isRecycled((lotus.domino.local.NotesBase) session)) {
+			return false;
+		}
+		try {
+			return session.isValid();
+		} catch (NotesException ne) {
+			return false;
+		}
+	}
+
+	/**
+	 * Creates a session with NotesFactory.
+	 * 
+	 * @param key
+	 *            the key
+	 * @return the session
+	 * @throws NotesException
+	 *             the notes exception
+	 */
+	private static lotus.domino.Session createSession(final Key key) throws NotesException {
+		if (key.getUserName().length() > 0 || key.getServer().length() > 0) {
+			// NotesFactory would silently hand back a session for the process identity on the local server
+			throw new IllegalArgumentException("A " + key + " needs a SessionFactory");
+		}
+		switch (key.getType()) {
+		case FULL_ACCESS:
+			return NotesFactory.createSessionWithFullAccess();
+		case TRUSTED:
+			return NotesFactory.createTrustedSession();
+		case XSP:
+			throw new IllegalArgumentException("XSP sessions need a SessionFactory");
+		default:
+			return NotesFactory.createSession();
+		}
+	}
+}
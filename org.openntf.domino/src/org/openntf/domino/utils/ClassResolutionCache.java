@@ -0,0 +1,126 @@
+/*
+ * Copyright 2013
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at:
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 
+ * implied. See the License for the specific language governing 
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.utils;
+
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A cache of Class.forName results for restoring MIMEBeans, keyed by class loader and class name.
+ * 
+ * The loaders are held weakly and the classes too, since a class holds on to its loader: once an XPages application is redesigned or
+ * unloaded and its class loader discarded, its entries go away with it and nothing here keeps the old classes alive. Each loader keeps at
+ * most {@link #MAX_PER_LOADER} names, least recently used first out. Lookups that fail are not cached.
+ */
+public enum ClassResolutionCache {
+	;
+	/** The most class names kept per loader. */
+	public static final int MAX_PER_LOADER = 1024;
+
+	/** The resolved classes by loader, then by name. Guarded by itself. */
+	private static final Map<ClassLoader, Map<String, Resolved>> loaders_ = new WeakHashMap<ClassLoader, Map<String, Resolved>>();
+
+	/**
+	 * A resolved class, and whether it's been initialized through here.
+	 */
+	private static class Resolved {
+		private final WeakReference<Class<?>> class_;
+		private volatile boolean initialized_;
+
+		Resolved(final Class<?> cls, final boolean initialized) {
+			class_ = new WeakReference<Class<?>>(cls);
+			initialized_ = initialized;
+		}
+	}
+
+	/**
+	 * An access-ordered map that drops its eldest entry past {@link ClassResolutionCache#MAX_PER_LOADER}.
+	 */
+	private static class LoaderMap extends LinkedHashMap<String, Resolved> {
+		private static final long serialVersionUID = 1L;
+
+		LoaderMap() {
+			super(16, 0.75f, true);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, Resolved> eldest) {
+			return size() > MAX_PER_LOADER;
+		}
+	}
+
+	/**
+	 * Resolves a class like Class.forName(name, initialize, loader), from the cache if it can.
+	 * 
+	 * @param name
+	 *            the class name
+	 * @param initialize
+	 *            whether the class must be initialized
+	 * @param loader
+	 *            the class loader
+	 * @return the class
+	 * @throws ClassNotFoundException
+	 *             if the loader can't find the class
+	 */
+	public static Class<?> forName(final String name, final boolean initialize, final ClassLoader loader) throws ClassNotFoundException {
+		Resolved resolved;
+		synchronized (loaders_) {
+			Map<String, Resolved> classes = loaders_.get(loader);
+			resolved = classes == null ? null : classes.get(name);
+		}
+		Class<?> result = resolved == null ? null : resolved.class_.get();
+		if (result != null) {
+			if (initialize && !resolved.initialized_) {
+				Class.forName(name, true, loader);
+				resolved.initialized_ = true;
+			}
+			return result;
+		}
+		result = Class.forName(name, initialize, loader);
+		synchronized (loaders_) {
+			Map<String, Resolved> classes = loaders_.get(loader);
+			if (classes == null) {
+				classes = new LoaderMap();
+				loaders_.put(loader, classes);
+			}
+			classes.put(name, new Resolved(result, initialize));
+		}
+		return result;
+	}
+
+	/**
+	 * Drops everything cached for a class loader, for when an application's loader is replaced but may still be reachable for a while.
+	 * 
+	 * @param loader
+	 *            the class loader
+	 */
+	public static void invalidate(final ClassLoader loader) {
+		synchronized (loaders_) {
+			loaders_.remove(loader);
+		}
+	}
+
+	/**
+	 * Drops everything cached.
+	 */
+	public static void clear() {
+		synchronized (loaders_) {
+			loaders_.clear();
+		}
+	}
+}
@@ -16,15 +16,14 @@
 package org.openntf.domino.utils;
 
 import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.Externalizable;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.ObjectStreamClass;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.lang.reflect.Method;
 import java.math.BigInteger;
@@ -40,8 +39,6 @@ import java.util.Set;
 import java.util.Vector;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import org.openntf.domino.Base;
 import org.openntf.domino.Database;
@@ -56,7 +53,15 @@ import org.openntf.domino.NoteCollection;
 import org.openntf.domino.Session;
 import org.openntf.domino.Stream;
 import org.openntf.domino.exceptions.InvalidNotesUrlException;
+import org.openntf.domino.impl.LazyDocumentCollection;
+import org.openntf.domino.impl.LazyNoteCollection;
 import org.openntf.domino.logging.LogUtils;
+import org.openntf.domino.utils.mime.AdaptiveCompressionOutputStream;
+import org.openntf.domino.utils.mime.MIMEBeanCodec;
+import org.openntf.domino.utils.mime.MIMEBeanCodecs;
+import org.openntf.domino.utils.mime.MIMEBeanCompression;
+import org.openntf.domino.utils.mime.NotesStreamInputStream;
+import org.openntf.domino.utils.mime.NotesStreamOutputStream;
 
 import com.ibm.icu.util.Calendar;
 import com.ibm.icu.util.ULocale;
@@ -97,7 +102,7 @@ public enum DominoUtils {
 		protected Class<?> resolveClass(final ObjectStreamClass desc) throws IOException, ClassNotFoundException {
 			try {
 				String name = desc.getName();
-				return Class.forName(name, false, loader_);
+				return ClassResolutionCache.forName(name, false, loader_);
 			} catch (ClassNotFoundException e) {
 				return super.resolveClass(desc);
 			}
@@ -476,7 +481,6 @@ public enum DominoUtils {
 	 * @throws Throwable
 	 *             the throwable
 	 */
-	@SuppressWarnings("unchecked")
 	public static Object restoreState(final org.openntf.domino.Document doc, final String itemName) throws Throwable {
 		Session session = Factory.getSession((Base<?>) doc);
 		boolean convertMime = session.isConvertMime();
@@ -492,7 +496,7 @@ public enum DominoUtils {
 		String className = entity.getNthHeader("X-Java-Class").getHeaderVal();
 		ClassLoader cl = Factory.getClassLoader();
 		try {
-			chkClass = (Class<?>) Class.forName(className, true, cl);
+			chkClass = ClassResolutionCache.forName(className, true, cl);
 		} catch (Throwable t) {
 			log_.log(Level.SEVERE, "Unable to load class " + className + " from a ClassLoader of " + cl.getClass().getName()
 					+ " so object deserialization is likely to fail...");
@@ -503,67 +507,65 @@ public enum DominoUtils {
 		}
 
 		entity.getContentAsBytes(mimeStream);
+		mimeStream.setPosition(0);
 
-		ByteArrayOutputStream streamOut = new ByteArrayOutputStream();
-		mimeStream.getContents(streamOut);
-		// mimeStream.recycle();
-
-		byte[] stateBytes = streamOut.toByteArray();
-		ByteArrayInputStream byteStream = new ByteArrayInputStream(stateBytes);
-		ObjectInputStream objectStream;
-		if (entity.getHeaders().toLowerCase().contains("content-encoding: gzip")) {
-			GZIPInputStream zipStream = new GZIPInputStream(byteStream);
-			objectStream = new LoaderObjectInputStream(cl, zipStream);
-		} else {
-			objectStream = new LoaderObjectInputStream(cl, byteStream);
+		// Read the content straight out of the Stream a chunk at a time, rather than copying all of it to the heap first
+		MIMEHeader contentEncoding = entity.getNthHeader("Content-Encoding");
+		InputStream byteStream = MIMEBeanCompression.decoding(new NotesStreamInputStream(mimeStream), contentEncoding == null ? null
+				: contentEncoding.getHeaderVal());
+
+		// The X-Storage-Scheme names the codec; without one, Externalizable and Serializable are distinguished by type
+		MIMEHeader storageScheme = entity.getNthHeader("X-Storage-Scheme");
+		String scheme = storageScheme == null ? null : storageScheme.getHeaderVal();
+		MIMEBeanCodec codec = MIMEBeanCodecs.forScheme(scheme, entity.getContentSubType());
+		Object restored;
+		try {
+			restored = codec.decode(byteStream, chkClass, cl);
+		} finally {
+			byteStream.close();
 		}
+		// mimeStream.recycle();
 
-		// There are three potential storage forms: Externalizable, Serializable, and StateHolder, distinguished by type or header
-		if (entity.getContentSubType().equals("x-java-externalized-object")) {
-			Class<Externalizable> externalizableClass = (Class<Externalizable>) Class.forName(entity.getNthHeader("X-Java-Class")
-					.getHeaderVal(), true, Factory.getClassLoader());
-			Externalizable restored = externalizableClass.newInstance();
-			restored.readExternal(objectStream);
-			result = restored;
-		} else {
-
-			Object restored = (Serializable) objectStream.readObject();
-
-			// But wait! It might be a StateHolder object or Collection!
-			MIMEHeader storageScheme = entity.getNthHeader("X-Storage-Scheme");
-			MIMEHeader originalJavaClass = entity.getNthHeader("X-Original-Java-Class");
-			if (storageScheme != null && storageScheme.getHeaderVal().equals("StateHolder")) {
-				Class<?> facesContextClass = Class.forName("javax.faces.context.FacesContext", true, Factory.getClassLoader());
-				Method getCurrentInstance = facesContextClass.getMethod("getCurrentInstance");
-
-				Class<?> stateHoldingClass = (Class<?>) Class.forName(originalJavaClass.getHeaderVal(), true, Factory.getClassLoader());
-				Method restoreStateMethod = stateHoldingClass.getMethod("restoreState", facesContextClass, Object.class);
-				result = stateHoldingClass.newInstance();
-				restoreStateMethod.invoke(result, getCurrentInstance.invoke(null), restored);
-			} else if (originalJavaClass != null && originalJavaClass.getHeaderVal().equals("org.openntf.domino.DocumentCollection")) {
-				// Maybe this can be sped up by not actually getting the documents
-				try {
-					String[] unids = (String[]) restored;
-					Database db = doc.getParentDatabase();
-					DocumentCollection docCollection = db.createDocumentCollection();
-					for (String unid : unids) {
-						docCollection.addDocument(db.getDocumentByUNID(unid));
-					}
-					result = docCollection;
-				} catch (Exception e) {
-					e.printStackTrace();
-				}
-			} else if (originalJavaClass != null && originalJavaClass.getHeaderVal().equals("org.openntf.domino.NoteCollection")) {
+		// But wait! It might be a StateHolder object or Collection!
+		MIMEHeader originalJavaClass = entity.getNthHeader("X-Original-Java-Class");
+		if (MIMEBeanCodecs.STATE_HOLDER_SCHEME.equals(scheme)) {
+			Class<?> facesContextClass = Class.forName("javax.faces.context.FacesContext", true, Factory.getClassLoader());
+			Method getCurrentInstance = facesContextClass.getMethod("getCurrentInstance");
+
+			Class<?> stateHoldingClass = ClassResolutionCache.forName(originalJavaClass.getHeaderVal(), true, Factory.getClassLoader());
+			Method restoreStateMethod = stateHoldingClass.getMethod("restoreState", facesContextClass, Object.class);
+			result = stateHoldingClass.newInstance();
+			restoreStateMethod.invoke(result, getCurrentInstance.invoke(null), restored);
+		} else if (restored instanceof PackedUnids && originalJavaClass != null
+				&& originalJavaClass.getHeaderVal().equals("org.openntf.domino.DocumentCollection")) {
+			// The documents are only looked up when the collection is first used
+			result = new LazyDocumentCollection(doc.getParentDatabase(), (PackedUnids) restored);
+		} else if (restored instanceof PackedUnids && originalJavaClass != null
+				&& originalJavaClass.getHeaderVal().equals("org.openntf.domino.NoteCollection")) {
+			result = new LazyNoteCollection(doc.getParentDatabase(), (PackedUnids) restored);
+		} else if (originalJavaClass != null && originalJavaClass.getHeaderVal().equals("org.openntf.domino.DocumentCollection")) {
+			// Collections stored before PackedUnids are arrays of UNID strings
+			try {
 				String[] unids = (String[]) restored;
 				Database db = doc.getParentDatabase();
-				NoteCollection noteCollection = db.createNoteCollection(false);
+				DocumentCollection docCollection = db.createDocumentCollection();
 				for (String unid : unids) {
-					noteCollection.add(db.getDocumentByUNID(unid));
+					docCollection.addDocument(db.getDocumentByUNID(unid));
 				}
-				result = noteCollection;
-			} else {
-				result = restored;
+				result = docCollection;
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		} else if (originalJavaClass != null && originalJavaClass.getHeaderVal().equals("org.openntf.domino.NoteCollection")) {
+			String[] unids = (String[]) restored;
+			Database db = doc.getParentDatabase();
+			NoteCollection noteCollection = db.createNoteCollection(false);
+			for (String unid : unids) {
+				noteCollection.add(db.getDocumentByUNID(unid));
 			}
+			result = noteCollection;
+		} else {
+			result = restored;
 		}
 
 		// entity.recycle();
@@ -601,7 +603,7 @@ public enum DominoUtils {
 	 * @param itemName
 	 *            the item name
 	 * @param compress
-	 *            the compress
+	 *            whether to use the {@link MIMEBeanCompression#getDefault() default compression}
 	 * @param headers
 	 *            the headers
 	 * @throws Throwable
@@ -609,6 +611,27 @@ public enum DominoUtils {
 	 */
 	public static void saveState(final Serializable object, final Document doc, final String itemName, final boolean compress,
 			final Map<String, String> headers) throws Throwable {
+		saveState(object, doc, itemName, compress ? MIMEBeanCompression.getDefault() : MIMEBeanCompression.NONE, headers);
+	}
+
+	/**
+	 * Save state. Content below the {@link MIMEBeanCompression#getThreshold() threshold} is stored uncompressed whatever the compression.
+	 * 
+	 * @param object
+	 *            the object
+	 * @param doc
+	 *            the doc
+	 * @param itemName
+	 *            the item name
+	 * @param compression
+	 *            the compression
+	 * @param headers
+	 *            the headers
+	 * @throws Throwable
+	 *             the throwable
+	 */
+	public static void saveState(final Serializable object, final Document doc, final String itemName,
+			final MIMEBeanCompression compression, final Map<String, String> headers) throws Throwable {
 		if (object == null) {
 			System.out.println("Ignoring attempt to save MIMEBean value of null");
 			return;
@@ -624,23 +647,25 @@ public enum DominoUtils {
 		// diagCount.put(diagKey, 1);
 		// }
 
-		ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-		ObjectOutputStream objectStream = compress ? new ObjectOutputStream(new GZIPOutputStream(byteStream)) : new ObjectOutputStream(
-				byteStream);
-		String contentType = null;
-		// Prefer externalization if available
-		if (object instanceof Externalizable) {
-			((Externalizable) object).writeExternal(objectStream);
-			contentType = "application/x-java-externalized-object";
+		// A caller-supplied storage scheme (a StateHolder's) relies on plain serialization; otherwise the codec rules choose
+		MIMEBeanCodec codec;
+		if (headers != null && headers.containsKey("X-Storage-Scheme")) {
+			codec = MIMEBeanCodecs.getSerializationCodec();
 		} else {
-			objectStream.writeObject(object);
-			contentType = "application/x-java-serialized-object";
+			codec = MIMEBeanCodecs.select(object, itemName);
 		}
-
-		objectStream.flush();
-		objectStream.close();
-
+		// Encode straight into the Stream through pooled chunks, so the bean is never held on the heap in serialized form
 		Stream mimeStream = session.createStream();
+		OutputStream streamOut = new NotesStreamOutputStream(mimeStream);
+		AdaptiveCompressionOutputStream codecStream = new AdaptiveCompressionOutputStream(streamOut, compression);
+		try {
+			codec.encode(object, codecStream);
+		} finally {
+			codecStream.close();
+		}
+		mimeStream.setPosition(0);
+		String contentType = codec.getContentType();
+
 		MIMEEntity previousState = doc.getMIMEEntity(itemName);
 		MIMEEntity entity = null;
 		if (previousState == null) {
@@ -652,10 +677,7 @@ public enum DominoUtils {
 		} else {
 			entity = previousState;
 		}
-		byte[] bytes = byteStream.toByteArray();
-		ByteArrayInputStream byteIn = new ByteArrayInputStream(bytes);
 
-		mimeStream.setContents(byteIn);
 		entity.setContentFromBytes(mimeStream, contentType, MIMEEntity.ENC_NONE);
 		MIMEHeader javaClass = entity.getNthHeader("X-Java-Class");
 		if (javaClass == null) {
@@ -674,11 +696,12 @@ public enum DominoUtils {
 			t.printStackTrace();
 		}
 		MIMEHeader contentEncoding = entity.getNthHeader("Content-Encoding");
-		if (compress) {
+		String encoding = codecStream.getCompression().getContentEncoding();
+		if (encoding != null) {
 			if (contentEncoding == null) {
 				contentEncoding = entity.createHeader("Content-Encoding");
 			}
-			contentEncoding.setHeaderVal("gzip");
+			contentEncoding.setHeaderVal(encoding);
 
 			// contentEncoding.recycle();
 		} else {
@@ -691,6 +714,14 @@ public enum DominoUtils {
 
 		// javaClass.recycle();
 
+		if (headers == null || !headers.containsKey("X-Storage-Scheme")) {
+			MIMEHeader schemeHeader = entity.getNthHeader("X-Storage-Scheme");
+			if (schemeHeader == null) {
+				schemeHeader = entity.createHeader("X-Storage-Scheme");
+			}
+			schemeHeader.setHeaderVal(codec.getId());
+		}
+
 		if (headers != null) {
 			for (Map.Entry<String, String> entry : headers.entrySet()) {
 				MIMEHeader paramHeader = entity.getNthHeader(entry.getKey());
@@ -17,6 +17,12 @@ package org.openntf.domino.utils;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -29,6 +35,7 @@ import org.openntf.domino.graph.DominoGraph;
 import org.openntf.domino.impl.Base;
 import org.openntf.domino.impl.DocumentCollection;
 import org.openntf.domino.impl.Session;
+import org.openntf.domino.thread.DominoReferenceQueue;
 import org.openntf.domino.types.DatabaseDescendant;
 import org.openntf.domino.types.SessionDescendant;
 
@@ -59,71 +66,295 @@ public enum Factory {
 	/** The Constant log_. */
 	private static final Logger log_ = Logger.getLogger(Factory.class.getName());
 
-	/** The Constant TRACE_COUNTERS. */
-	private static final boolean TRACE_COUNTERS = true;
+	/** Whether the per-thread counters are kept. */
+	private static volatile boolean traceCounters_ = true;
 
 	/**
-	 * The Class Counter.
+	 * The counters of one thread. Only the owning thread writes to them, so they're plain primitives: counting takes no lock and boxes
+	 * nothing. Snapshots read them from other threads without locking either, so they may lag slightly behind.
 	 */
-	static class Counter extends ThreadLocal<Integer> {
-		// TODO NTF - I'm open to a faster implementation of this. Maybe a mutable int of some kind?
-		/*
-		 * (non-Javadoc)
+	private static class Counters {
+		/** The owning thread, or null for the totals of finished threads. */
+		private final Thread thread_;
+
+		/** The wraps. */
+		private long wraps_;
+
+		/** The auto recycles. */
+		private long autoRecycles_;
+
+		/** The recycle errors. */
+		private long recycleErrors_;
+
+		/** The wraps, indexed by WrapperFactory ordinal. */
+		private final long[] wrapsByType_;
+
+		/** The auto recycles, indexed by WrapperFactory ordinal. */
+		private final long[] autoRecyclesByType_;
+
+		/**
+		 * Instantiates new counters.
 		 * 
-		 * @see java.lang.ThreadLocal#initialValue()
+		 * @param thread
+		 *            the owning thread
 		 */
-		@Override
-		protected Integer initialValue() {
-			return Integer.valueOf(0);
+		Counters(final Thread thread) {
+			thread_ = thread;
+			int types = WrapperFactory.values().length;
+			wrapsByType_ = new long[types];
+			autoRecyclesByType_ = new long[types];
 		}
 
 		/**
-		 * Increment.
+		 * Adds these counts to another set of counters.
 		 * 
-		 * @return the int
+		 * @param total
+		 *            the counters to add to
 		 */
-		public int increment() {
-			int result = get() + 1;
-			set(result);
-			return result;
+		void addTo(final Counters total) {
+			total.wraps_ += wraps_;
+			total.autoRecycles_ += autoRecycles_;
+			total.recycleErrors_ += recycleErrors_;
+			for (int i = 0; i < wrapsByType_.length; i++) {
+				total.wrapsByType_[i] += wrapsByType_[i];
+				total.autoRecyclesByType_[i] += autoRecyclesByType_[i];
+			}
+		}
+
+		/**
+		 * Takes a snapshot.
+		 * 
+		 * @return the snapshot
+		 */
+		CounterSnapshot snapshot() {
+			return new CounterSnapshot(thread_, wraps_, autoRecycles_, recycleErrors_, byType(wrapsByType_), byType(autoRecyclesByType_));
+		}
+
+		/**
+		 * Maps per-type counts to the lotus types, leaving out the ones that are zero.
+		 * 
+		 * @param counts
+		 *            the counts, indexed by WrapperFactory ordinal
+		 * @return the counts by lotus type
+		 */
+		private static Map<Class<?>, Long> byType(final long[] counts) {
+			Map<Class<?>, Long> result = new LinkedHashMap<Class<?>, Long>();
+			WrapperFactory[] factories = WrapperFactory.values();
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] != 0) {
+					result.put(factories[i].lotusType_, Long.valueOf(counts[i]));
+				}
+			}
+			return Collections.unmodifiableMap(result);
+		}
+	}
+
+	/**
+	 * A snapshot of the counters of one thread, or the totals across threads.
+	 */
+	public static class CounterSnapshot {
+		/** The thread name. */
+		private final String threadName_;
+
+		/** The thread id. */
+		private final long threadId_;
+
+		/** The wraps. */
+		private final long wraps_;
+
+		/** The auto recycles. */
+		private final long autoRecycles_;
+
+		/** The recycle errors. */
+		private final long recycleErrors_;
+
+		/** The wraps by type. */
+		private final Map<Class<?>, Long> wrapsByType_;
+
+		/** The auto recycles by type. */
+		private final Map<Class<?>, Long> autoRecyclesByType_;
+
+		/**
+		 * Instantiates a new counter snapshot.
+		 * 
+		 * @param thread
+		 *            the thread, or null for totals
+		 * @param wraps
+		 *            the wraps
+		 * @param autoRecycles
+		 *            the auto recycles
+		 * @param recycleErrors
+		 *            the recycle errors
+		 * @param wrapsByType
+		 *            the wraps by type
+		 * @param autoRecyclesByType
+		 *            the auto recycles by type
+		 */
+		CounterSnapshot(final Thread thread, final long wraps, final long autoRecycles, final long recycleErrors,
+				final Map<Class<?>, Long> wrapsByType, final Map<Class<?>, Long> autoRecyclesByType) {
+			threadName_ = thread == null ? null : thread.getName();
+			threadId_ = thread == null ? -1l : thread.getId();
+			wraps_ = wraps;
+			autoRecycles_ = autoRecycles;
+			recycleErrors_ = recycleErrors;
+			wrapsByType_ = wrapsByType;
+			autoRecyclesByType_ = autoRecyclesByType;
+		}
+
+		/**
+		 * Gets the thread name.
+		 * 
+		 * @return the thread name, or null for totals
+		 */
+		public String getThreadName() {
+			return threadName_;
+		}
+
+		/**
+		 * Gets the thread id.
+		 * 
+		 * @return the thread id, or -1 for totals
+		 */
+		public long getThreadId() {
+			return threadId_;
+		}
+
+		/**
+		 * Gets the number of lotus objects wrapped.
+		 * 
+		 * @return the wraps
+		 */
+		public long getWraps() {
+			return wraps_;
+		}
+
+		/**
+		 * Gets the number of handles auto-recycled.
+		 * 
+		 * @return the auto recycles
+		 */
+		public long getAutoRecycles() {
+			return autoRecycles_;
 		}
 
 		/**
-		 * Decrement.
+		 * Gets the number of recycles that failed.
 		 * 
-		 * @return the int
+		 * @return the recycle errors
 		 */
-		public int decrement() {
-			int result = get() - 1;
-			set(result);
+		public long getRecycleErrors() {
+			return recycleErrors_;
+		}
+
+		/**
+		 * Gets the wraps by lotus type.
+		 * 
+		 * @return the wraps by type
+		 */
+		public Map<Class<?>, Long> getWrapsByType() {
+			return wrapsByType_;
+		}
+
+		/**
+		 * Gets the auto recycles by lotus type.
+		 * 
+		 * @return the auto recycles by type
+		 */
+		public Map<Class<?>, Long> getAutoRecyclesByType() {
+			return autoRecyclesByType_;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return (threadName_ == null ? "All threads" : "Thread " + threadName_) + ": " + wraps_ + " wraps, " + autoRecycles_
+					+ " auto-recycles, " + recycleErrors_ + " recycle errors";
+		}
+	}
+
+	/** The counters of every thread that has counted something and hasn't been retired yet. Guarded by itself. */
+	private static final List<Counters> threadCounters_ = new ArrayList<Counters>();
+
+	/** The totals of retired threads. Guarded by threadCounters_. */
+	private static final Counters retiredCounters_ = new Counters(null);
+
+	/** The counters of the current thread. */
+	private static ThreadLocal<Counters> counters_ = new ThreadLocal<Counters>() {
+		@Override
+		protected Counters initialValue() {
+			Counters result = new Counters(Thread.currentThread());
+			synchronized (threadCounters_) {
+				retireCounters();
+				threadCounters_.add(result);
+			}
 			return result;
 		}
 	};
 
-	/** The lotus counter. */
-	private static Counter lotusCounter = new Counter();
+	/**
+	 * Folds the counters of threads that have finished into the retired totals. Must hold the threadCounters_ lock.
+	 */
+	private static void retireCounters() {
+		Iterator<Counters> it = threadCounters_.iterator();
+		while (it.hasNext()) {
+			Counters counters = it.next();
+			if (!counters.thread_.isAlive()) {
+				counters.addTo(retiredCounters_);
+				it.remove();
+			}
+		}
+	}
 
-	/** The recycle err counter. */
-	private static Counter recycleErrCounter = new Counter();
+	/**
+	 * Checks if the per-thread counters are kept.
+	 * 
+	 * @return true, if counting
+	 */
+	public static boolean isTraceCounters() {
+		return traceCounters_;
+	}
 
-	/** The auto recycle counter. */
-	private static Counter autoRecycleCounter = new Counter();
+	/**
+	 * Sets whether the per-thread counters are kept. They're cheap enough to leave on.
+	 * 
+	 * @param trace
+	 *            true to count
+	 */
+	public static void setTraceCounters(final boolean trace) {
+		traceCounters_ = trace;
+	}
 
 	/**
 	 * Gets the lotus count.
 	 * 
-	 * @return the lotus count
+	 * @return the number of lotus objects the current thread has wrapped
 	 */
 	public static int getLotusCount() {
-		return lotusCounter.get().intValue();
+		return (int) counters_.get().wraps_;
+	}
+
+	/**
+	 * Count wrap.
+	 * 
+	 * @param factory
+	 *            the factory that made the wrapper
+	 */
+	private static void countWrap(final WrapperFactory factory) {
+		if (traceCounters_) {
+			Counters counters = counters_.get();
+			counters.wraps_++;
+			counters.wrapsByType_[factory.ordinal()]++;
+		}
 	}
 
 	/**
 	 * Count recycle error.
 	 */
 	public static void countRecycleError() {
-		if (TRACE_COUNTERS)
-			recycleErrCounter.increment();
+		if (traceCounters_)
+			counters_.get().recycleErrors_++;
 	}
 
 	/**
@@ -132,8 +363,26 @@ public enum Factory {
 	 * @return the int
 	 */
 	public static int countAutoRecycle() {
-		if (TRACE_COUNTERS) {
-			return autoRecycleCounter.increment();
+		return countAutoRecycle(null);
+	}
+
+	/**
+	 * Count auto recycle.
+	 * 
+	 * @param delegateType
+	 *            the class of the recycled lotus object, or null if unknown
+	 * @return the number of handles the current thread has auto-recycled
+	 */
+	public static int countAutoRecycle(final Class<?> delegateType) {
+		if (traceCounters_) {
+			Counters counters = counters_.get();
+			if (delegateType != null) {
+				WrapperFactory factory = findWrapperFactory(delegateType);
+				if (factory != null) {
+					counters.autoRecyclesByType_[factory.ordinal()]++;
+				}
+			}
+			return (int) ++counters.autoRecycles_;
 		} else {
 			return 0;
 		}
@@ -145,7 +394,7 @@ public enum Factory {
 	 * @return the auto recycle count
 	 */
 	public static int getAutoRecycleCount() {
-		return autoRecycleCounter.get().intValue();
+		return (int) counters_.get().autoRecycles_;
 	}
 
 	/**
@@ -154,7 +403,122 @@ public enum Factory {
 	 * @return the recycle error count
 	 */
 	public static int getRecycleErrorCount() {
-		return recycleErrCounter.get().intValue();
+		return (int) counters_.get().recycleErrors_;
+	}
+
+	/**
+	 * Gets a snapshot of the counters of every live thread that has counted something.
+	 * 
+	 * @return the snapshots, one per thread
+	 */
+	public static List<CounterSnapshot> getCounterSnapshots() {
+		List<CounterSnapshot> result = new ArrayList<CounterSnapshot>();
+		synchronized (threadCounters_) {
+			retireCounters();
+			for (Counters counters : threadCounters_) {
+				result.add(counters.snapshot());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Gets a snapshot of the counters summed over all threads, including the ones that have finished.
+	 * 
+	 * @return the totals
+	 */
+	public static CounterSnapshot getCounterTotals() {
+		Counters total = new Counters(null);
+		synchronized (threadCounters_) {
+			retiredCounters_.addTo(total);
+			for (Counters counters : threadCounters_) {
+				counters.addTo(total);
+			}
+		}
+		return total.snapshot();
+	}
+
+	/**
+	 * Sets when wrapper construction on the current thread drains the recycle queue.
+	 * 
+	 * @param mode
+	 *            the mode
+	 */
+	public static void setDrainMode(final DominoReferenceQueue.DrainMode mode) {
+		Base.getRecycleQueue().setDrainMode(mode);
+	}
+
+	/**
+	 * Sets the number of wraps between drains on the current thread, for {@link DominoReferenceQueue.DrainMode#EVERY_N_WRAPS} and for
+	 * iterator checkpoints.
+	 * 
+	 * @param interval
+	 *            the interval
+	 */
+	public static void setDrainInterval(final int interval) {
+		Base.getRecycleQueue().setDrainInterval(interval);
+	}
+
+	/**
+	 * Sets the number of live references above which wrapper construction on the current thread drains the recycle queue, for
+	 * {@link DominoReferenceQueue.DrainMode#LIVE_HANDLE_THRESHOLD}.
+	 * 
+	 * @param threshold
+	 *            the threshold
+	 */
+	public static void setDrainThreshold(final int threshold) {
+		Base.getRecycleQueue().setDrainThreshold(threshold);
+	}
+
+	/**
+	 * Fully drains the current thread's recycle queue, whatever its drain mode. Call it at safe points, e.g. between batches.
+	 * 
+	 * @return the number of references drained
+	 */
+	public static int drainRecycleQueue() {
+		return Base.drainQueue(0l);
+	}
+
+	/**
+	 * Sets the handle budget for the current thread. Once more than budget handles are live, wrapper construction drains the recycle
+	 * queue, optionally hints a GC, and throws a HandleBudgetExceededException if that doesn't bring the count back under.
+	 * 
+	 * @param budget
+	 *            the high-water mark, or 0 for no budget
+	 * @param gcHint
+	 *            whether to call System.gc() when draining alone isn't enough
+	 */
+	public static void setHandleBudget(final int budget, final boolean gcHint) {
+		Base.getRecycleQueue().setHandleBudget(budget, gcHint);
+	}
+
+	/**
+	 * Turns wrapper interning on or off for the current thread. While it's on, wrapping a handle that already has a live wrapper on this
+	 * thread returns that wrapper, so repeated lookups of the same document share one wrapper and its caches.
+	 * 
+	 * @param interning
+	 *            the interning
+	 */
+	public static void setInterning(final boolean interning) {
+		Base.getRecycleQueue().setInterning(interning);
+	}
+
+	/**
+	 * Gets the number of live handles the current thread is tracking.
+	 * 
+	 * @return the live handle count
+	 */
+	public static int getLiveHandleCount() {
+		return Base.getRecycleQueue().getLiveCount();
+	}
+
+	/**
+	 * Gets the live wrappers the current thread is tracking, counted by delegate type.
+	 * 
+	 * @return the live handle counts
+	 */
+	public static Map<Class<?>, Integer> getLiveHandleCounts() {
+		return Base.getRecycleQueue().getLiveCountsByType();
 	}
 
 	public static RunContext getRunContext() {
@@ -192,6 +556,421 @@ public enum Factory {
 		return result;
 	}
 
+	/**
+	 * The Enum WrapperFactory. One constant per wrapper type, each knowing the lotus interface it wraps and how to construct the wrapper.
+	 * Constants are declared in resolution order, so a more specific type (e.g. RichTextItem) must come before its supertype (e.g. Item).
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static enum WrapperFactory {
+		ACL(lotus.domino.ACL.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.ACL((lotus.domino.ACL) lotus, parent);
+			}
+		},
+		ACL_ENTRY(lotus.domino.ACLEntry.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.ACLEntry((lotus.domino.ACLEntry) lotus, (org.openntf.domino.ACL) parent);
+			}
+		},
+		ADMINISTRATION_PROCESS(lotus.domino.AdministrationProcess.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.AdministrationProcess((lotus.domino.AdministrationProcess) lotus, parent);
+			}
+		},
+		AGENT(lotus.domino.Agent.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.Agent((lotus.domino.Agent) lotus, parent);
+			}
+		},
+		AGENT_CONTEXT(lotus.domino.AgentContext.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.AgentContext((lotus.domino.AgentContext) lotus, parent);
+			}
+		},
+		COLOR_OBJECT(lotus.domino.ColorObject.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.ColorObject((lotus.domino.ColorObject) lotus, parent);
+			}
+		},
+		DATABASE(lotus.domino.Database.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.Database((lotus.domino.Database) lotus, parent);
+			}
+		},
+		DATE_RANGE(lotus.domino.DateRange.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.DateRange((lotus.domino.DateRange) lotus, parent);
+			}
+		},
+		DATE_TIME(lotus.domino.DateTime.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.DateTime((lotus.domino.DateTime) lotus, parent);
+			}
+		},
+		DB_DIRECTORY(lotus.domino.DbDirectory.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.DbDirectory((lotus.domino.DbDirectory) lotus, parent);
+			}
+		},
+		DIRECTORY(lotus.domino.Directory.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.Directory((lotus.domino.Directory) lotus, parent);
+			}
+		},
+		DIRECTORY_NAVIGATOR(lotus.domino.DirectoryNavigator.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.DirectoryNavigator((lotus.domino.DirectoryNavigator) lotus, parent);
+			}
+		},
+		DOCUMENT(lotus.domino.Document.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.Document((lotus.domino.Document) lotus, parent);
+			}
+		},
+		DOCUMENT_COLLECTION(lotus.domino.DocumentCollection.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.DocumentCollection((lotus.domino.DocumentCollection) lotus, parent);
+			}
+		},
+		DXL_EXPORTER(lotus.domino.DxlExporter.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.DxlExporter((lotus.domino.DxlExporter) lotus, parent);
+			}
+		},
+		DXL_IMPORTER(lotus.domino.DxlImporter.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.DxlImporter((lotus.domino.DxlImporter) lotus, parent);
+			}
+		},
+		EMBEDDED_OBJECT(lotus.domino.EmbeddedObject.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.EmbeddedObject((lotus.domino.EmbeddedObject) lotus, parent);
+			}
+		},
+		FORM(lotus.domino.Form.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.Form((lotus.domino.Form) lotus, parent);
+			}
+		},
+		INTERNATIONAL(lotus.domino.International.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.International((lotus.domino.International) lotus, parent);
+			}
+		},
+		RICH_TEXT_ITEM(lotus.domino.RichTextItem.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.RichTextItem((lotus.domino.RichTextItem) lotus, parent);
+			}
+		},
+		ITEM(lotus.domino.Item.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.Item((lotus.domino.Item) lotus, parent);
+			}
+		},
+		LOG(lotus.domino.Log.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.Log((lotus.domino.Log) lotus, parent);
+			}
+		},
+		MIME_ENTITY(lotus.domino.MIMEEntity.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.MIMEEntity((lotus.domino.MIMEEntity) lotus, parent);
+			}
+		},
+		MIME_HEADER(lotus.domino.MIMEHeader.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.MIMEHeader((lotus.domino.MIMEHeader) lotus, parent);
+			}
+		},
+		NAME(lotus.domino.Name.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.Name((lotus.domino.Name) lotus, parent);
+			}
+		},
+		NEWSLETTER(lotus.domino.Newsletter.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.Newsletter((lotus.domino.Newsletter) lotus, parent);
+			}
+		},
+		NOTE_COLLECTION(lotus.domino.NoteCollection.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.NoteCollection((lotus.domino.NoteCollection) lotus, (org.openntf.domino.Database) parent);
+			}
+		},
+		NOTES_CALENDAR(lotus.domino.NotesCalendar.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.NotesCalendar((lotus.domino.NotesCalendar) lotus, parent);
+			}
+		},
+		NOTES_CALENDAR_ENTRY(lotus.domino.NotesCalendarEntry.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.NotesCalendarEntry((lotus.domino.NotesCalendarEntry) lotus, parent);
+			}
+		},
+		NOTES_CALENDAR_NOTICE(lotus.domino.NotesCalendarNotice.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.NotesCalendarNotice((lotus.domino.NotesCalendarNotice) lotus, parent);
+			}
+		},
+		NOTES_PROPERTY(lotus.domino.NotesProperty.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.NotesProperty((lotus.domino.NotesProperty) lotus, parent);
+			}
+		},
+		OUTLINE(lotus.domino.Outline.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.Outline((lotus.domino.Outline) lotus, parent);
+			}
+		},
+		OUTLINE_ENTRY(lotus.domino.OutlineEntry.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.OutlineEntry((lotus.domino.OutlineEntry) lotus, parent);
+			}
+		},
+		PROPERTY_BROKER(lotus.domino.PropertyBroker.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.PropertyBroker((lotus.domino.PropertyBroker) lotus, parent);
+			}
+		},
+		REGISTRATION(lotus.domino.Registration.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.Registration((lotus.domino.Registration) lotus, parent);
+			}
+		},
+		REPLICATION(lotus.domino.Replication.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.Replication((lotus.domino.Replication) lotus, parent);
+			}
+		},
+		REPLICATION_ENTRY(lotus.domino.ReplicationEntry.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.ReplicationEntry((lotus.domino.ReplicationEntry) lotus, parent);
+			}
+		},
+		RICH_TEXT_DOCLINK(lotus.domino.RichTextDoclink.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.RichTextDoclink((lotus.domino.RichTextDoclink) lotus, parent);
+			}
+		},
+		RICH_TEXT_NAVIGATOR(lotus.domino.RichTextNavigator.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.RichTextNavigator((lotus.domino.RichTextNavigator) lotus, parent);
+			}
+		},
+		RICH_TEXT_PARAGRAPH_STYLE(lotus.domino.RichTextParagraphStyle.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.RichTextParagraphStyle((lotus.domino.RichTextParagraphStyle) lotus, parent);
+			}
+		},
+		RICH_TEXT_RANGE(lotus.domino.RichTextRange.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.RichTextRange((lotus.domino.RichTextRange) lotus, parent);
+			}
+		},
+		RICH_TEXT_SECTION(lotus.domino.RichTextSection.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.RichTextSection((lotus.domino.RichTextSection) lotus, parent);
+			}
+		},
+		RICH_TEXT_STYLE(lotus.domino.RichTextStyle.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.RichTextStyle((lotus.domino.RichTextStyle) lotus, parent);
+			}
+		},
+		RICH_TEXT_TAB(lotus.domino.RichTextTab.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.RichTextTab((lotus.domino.RichTextTab) lotus, parent);
+			}
+		},
+		RICH_TEXT_TABLE(lotus.domino.RichTextTable.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.RichTextTable((lotus.domino.RichTextTable) lotus, parent);
+			}
+		},
+		SESSION(lotus.domino.Session.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				org.openntf.domino.impl.Session result = new org.openntf.domino.impl.Session((lotus.domino.Session) lotus, parent);
+				if (currentSessionHolder_.get() != null) {
+					try {
+						lotus.domino.Session rawSession = (lotus.domino.Session) Base.getDelegate(currentSessionHolder_.get());
+						rawSession.isConvertMime();
+					} catch (NotesException ne) {
+						// System.out.println("Resetting default local session because we got an exception");
+						setSession(result);
+					}
+				} else {
+					// System.out.println("Resetting default local session because it was null");
+					setSession(result);
+				}
+				return result;
+			}
+		},
+		STREAM(lotus.domino.Stream.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.Stream((lotus.domino.Stream) lotus, parent);
+			}
+		},
+		VIEW(lotus.domino.View.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.View((lotus.domino.View) lotus, (org.openntf.domino.Database) parent);
+			}
+		},
+		VIEW_COLUMN(lotus.domino.ViewColumn.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.ViewColumn((lotus.domino.ViewColumn) lotus, (org.openntf.domino.View) parent);
+			}
+		},
+		VIEW_ENTRY(lotus.domino.ViewEntry.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.ViewEntry((lotus.domino.ViewEntry) lotus, parent);
+			}
+		},
+		VIEW_ENTRY_COLLECTION(lotus.domino.ViewEntryCollection.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.ViewEntryCollection((lotus.domino.ViewEntryCollection) lotus,
+						(org.openntf.domino.View) parent);
+			}
+		},
+		VIEW_NAVIGATOR(lotus.domino.ViewNavigator.class) {
+			@Override
+			Object wrap(final lotus.domino.Base lotus, final org.openntf.domino.Base parent) {
+				return new org.openntf.domino.impl.ViewNavigator((lotus.domino.ViewNavigator) lotus, (org.openntf.domino.View) parent);
+			}
+		};
+
+		/** The lotus interface this factory wraps. */
+		private final Class<?> lotusType_;
+
+		/**
+		 * Instantiates a new wrapper factory.
+		 * 
+		 * @param lotusType
+		 *            the lotus interface this factory wraps
+		 */
+		private WrapperFactory(final Class<?> lotusType) {
+			lotusType_ = lotusType;
+		}
+
+		/**
+		 * Wraps the lotus object. The caller guarantees the object is an instance of this factory's lotus type.
+		 * 
+		 * @param lotus
+		 *            the lotus object
+		 * @param parent
+		 *            the parent
+		 * @return the wrapper
+		 */
+		abstract Object wrap(lotus.domino.Base lotus, org.openntf.domino.Base parent);
+
+		/**
+		 * Finds the first factory, in declaration order, whose lotus type the given class implements.
+		 * 
+		 * @param delegateClass
+		 *            the concrete delegate class
+		 * @return the factory, or null if the class isn't a known lotus type
+		 */
+		static WrapperFactory resolve(final Class<?> delegateClass) {
+			for (WrapperFactory factory : values()) {
+				if (factory.lotusType_.isAssignableFrom(delegateClass)) {
+					return factory;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * The wrapper factory registry, keyed by concrete delegate class (e.g. lotus.domino.local.Document). Filled lazily the first time a
+	 * class is seen, so the ordered type resolution only runs once per delegate class.
+	 */
+	private static final Map<Class<?>, WrapperFactory> wrapperRegistry_ = new ConcurrentHashMap<Class<?>, WrapperFactory>();
+
+	/**
+	 * Gets the wrapper factory for a concrete delegate class.
+	 * 
+	 * @param delegateClass
+	 *            the delegate class
+	 * @return the wrapper factory
+	 * @throws UndefinedDelegateTypeException
+	 *             if the class isn't a known lotus type
+	 */
+	private static WrapperFactory getWrapperFactory(final Class<?> delegateClass) {
+		WrapperFactory result = findWrapperFactory(delegateClass);
+		if (result == null) {
+			throw new UndefinedDelegateTypeException();
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the wrapper factory for a concrete delegate class.
+	 * 
+	 * @param delegateClass
+	 *            the delegate class
+	 * @return the wrapper factory, or null if the class isn't a known lotus type
+	 */
+	private static WrapperFactory findWrapperFactory(final Class<?> delegateClass) {
+		WrapperFactory result = wrapperRegistry_.get(delegateClass);
+		if (result == null) {
+			result = WrapperFactory.resolve(delegateClass);
+			if (result != null) {
+				wrapperRegistry_.put(delegateClass, result);
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * From lotus.
 	 * 
@@ -221,139 +1000,114 @@ public enum Factory {
 				log_.log(Level.FINE, "Returning an assignable object....");
 			return (T) lotus;
 		}
+		DominoReferenceQueue drq = Base.getRecycleQueue();
+		if (drq.isInterning()) {
+			Object interned = getInterned(drq, lotus, T);
+			if (interned != null) {
+				return (T) interned;
+			}
+		}
+		WrapperFactory factory = getWrapperFactory(lotus.getClass());
+		countWrap(factory);
+		return (T) factory.wrap(lotus, parent);
+	}
 
-		T result = null;
-		if (lotus instanceof lotus.domino.ACL) {
-			result = (T) new org.openntf.domino.impl.ACL((lotus.domino.ACL) lotus, parent);
-		} else if (lotus instanceof lotus.domino.ACLEntry) {
-			result = (T) new org.openntf.domino.impl.ACLEntry((lotus.domino.ACLEntry) lotus, (org.openntf.domino.ACL) parent);
-		} else if (lotus instanceof lotus.domino.AdministrationProcess) {
-			result = (T) new org.openntf.domino.impl.AdministrationProcess((lotus.domino.AdministrationProcess) lotus, parent);
-		} else if (lotus instanceof lotus.domino.Agent) {
-			result = (T) new org.openntf.domino.impl.Agent((lotus.domino.Agent) lotus, parent);
-		} else if (lotus instanceof lotus.domino.AgentContext) {
-			result = (T) new org.openntf.domino.impl.AgentContext((lotus.domino.AgentContext) lotus, parent);
-		} else if (lotus instanceof lotus.domino.ColorObject) {
-			result = (T) new org.openntf.domino.impl.ColorObject((lotus.domino.ColorObject) lotus, parent);
-		} else if (lotus instanceof lotus.domino.Database) {
-			result = (T) new org.openntf.domino.impl.Database((lotus.domino.Database) lotus, parent);
-		} else if (lotus instanceof lotus.domino.DateRange) {
-			result = (T) new org.openntf.domino.impl.DateRange((lotus.domino.DateRange) lotus, parent);
-		} else if (lotus instanceof lotus.domino.DateTime) {
-			result = (T) new org.openntf.domino.impl.DateTime((lotus.domino.DateTime) lotus, parent);
-		} else if (lotus instanceof lotus.domino.DbDirectory) {
-			result = (T) new org.openntf.domino.impl.DbDirectory((lotus.domino.DbDirectory) lotus, parent);
-		} else if (lotus instanceof lotus.domino.Directory) {
-			result = (T) new org.openntf.domino.impl.Directory((lotus.domino.Directory) lotus, parent);
-		} else if (lotus instanceof lotus.domino.DirectoryNavigator) {
-			result = (T) new org.openntf.domino.impl.DirectoryNavigator((lotus.domino.DirectoryNavigator) lotus, parent);
-		} else if (lotus instanceof lotus.domino.Document) {
-			result = (T) new org.openntf.domino.impl.Document((lotus.domino.Document) lotus, parent);
-		} else if (lotus instanceof lotus.domino.DocumentCollection) {
-			result = (T) new org.openntf.domino.impl.DocumentCollection((lotus.domino.DocumentCollection) lotus, parent);
-		} else if (lotus instanceof lotus.domino.DxlExporter) {
-			result = (T) new org.openntf.domino.impl.DxlExporter((lotus.domino.DxlExporter) lotus, parent);
-		} else if (lotus instanceof lotus.domino.DxlImporter) {
-			result = (T) new org.openntf.domino.impl.DxlImporter((lotus.domino.DxlImporter) lotus, parent);
-		} else if (lotus instanceof lotus.domino.EmbeddedObject) {
-			result = (T) new org.openntf.domino.impl.EmbeddedObject((lotus.domino.EmbeddedObject) lotus, parent);
-		} else if (lotus instanceof lotus.domino.Form) {
-			result = (T) new org.openntf.domino.impl.Form((lotus.domino.Form) lotus, parent);
-		} else if (lotus instanceof lotus.domino.International) {
-			result = (T) new org.openntf.domino.impl.International((lotus.domino.International) lotus, parent);
-		} else if (lotus instanceof lotus.domino.Item) {
-			if (lotus instanceof lotus.domino.RichTextItem) {
-				result = (T) new org.openntf.domino.impl.RichTextItem((lotus.domino.RichTextItem) lotus, parent);
-			} else {
-				result = (T) new org.openntf.domino.impl.Item((lotus.domino.Item) lotus, parent);
-			}
-		} else if (lotus instanceof lotus.domino.Log) {
-			result = (T) new org.openntf.domino.impl.Log((lotus.domino.Log) lotus, parent);
-		} else if (lotus instanceof lotus.domino.MIMEEntity) {
-			result = (T) new org.openntf.domino.impl.MIMEEntity((lotus.domino.MIMEEntity) lotus, parent);
-		} else if (lotus instanceof lotus.domino.MIMEHeader) {
-			result = (T) new org.openntf.domino.impl.MIMEHeader((lotus.domino.MIMEHeader) lotus, parent);
-		} else if (lotus instanceof lotus.domino.Name) {
-			result = (T) new org.openntf.domino.impl.Name((lotus.domino.Name) lotus, parent);
-		} else if (lotus instanceof lotus.domino.Newsletter) {
-			result = (T) new org.openntf.domino.impl.Newsletter((lotus.domino.Newsletter) lotus, parent);
-		} else if (lotus instanceof lotus.domino.NoteCollection) {
-			result = (T) new org.openntf.domino.impl.NoteCollection((lotus.domino.NoteCollection) lotus,
-					(org.openntf.domino.Database) parent);
-		} else if (lotus instanceof lotus.domino.NotesCalendar) {
-			result = (T) new org.openntf.domino.impl.NotesCalendar((lotus.domino.NotesCalendar) lotus, parent);
-		} else if (lotus instanceof lotus.domino.NotesCalendarEntry) {
-			result = (T) new org.openntf.domino.impl.NotesCalendarEntry((lotus.domino.NotesCalendarEntry) lotus, parent);
-		} else if (lotus instanceof lotus.domino.NotesCalendarNotice) {
-			result = (T) new org.openntf.domino.impl.NotesCalendarNotice((lotus.domino.NotesCalendarNotice) lotus, parent);
-		} else if (lotus instanceof lotus.domino.NotesProperty) {
-			result = (T) new org.openntf.domino.impl.NotesProperty((lotus.domino.NotesProperty) lotus, parent);
-		} else if (lotus instanceof lotus.domino.Outline) {
-			result = (T) new org.openntf.domino.impl.Outline((lotus.domino.Outline) lotus, parent);
-		} else if (lotus instanceof lotus.domino.OutlineEntry) {
-			result = (T) new org.openntf.domino.impl.OutlineEntry((lotus.domino.OutlineEntry) lotus, parent);
-		} else if (lotus instanceof lotus.domino.PropertyBroker) {
-			result = (T) new org.openntf.domino.impl.PropertyBroker((lotus.domino.PropertyBroker) lotus, parent);
-		} else if (lotus instanceof lotus.domino.Registration) {
-			result = (T) new org.openntf.domino.impl.Registration((lotus.domino.Registration) lotus, parent);
-		} else if (lotus instanceof lotus.domino.Replication) {
-			result = (T) new org.openntf.domino.impl.Replication((lotus.domino.Replication) lotus, parent);
-		} else if (lotus instanceof lotus.domino.ReplicationEntry) {
-			result = (T) new org.openntf.domino.impl.ReplicationEntry((lotus.domino.ReplicationEntry) lotus, parent);
-		} else if (lotus instanceof lotus.domino.RichTextDoclink) {
-			result = (T) new org.openntf.domino.impl.RichTextDoclink((lotus.domino.RichTextDoclink) lotus, parent);
-		} else if (lotus instanceof lotus.domino.RichTextItem) {
-			result = (T) new org.openntf.domino.impl.RichTextItem((lotus.domino.RichTextItem) lotus, parent);
-		} else if (lotus instanceof lotus.domino.RichTextNavigator) {
-			result = (T) new org.openntf.domino.impl.RichTextNavigator((lotus.domino.RichTextNavigator) lotus, parent);
-		} else if (lotus instanceof lotus.domino.RichTextParagraphStyle) {
-			result = (T) new org.openntf.domino.impl.RichTextParagraphStyle((lotus.domino.RichTextParagraphStyle) lotus, parent);
-		} else if (lotus instanceof lotus.domino.RichTextRange) {
-			result = (T) new org.openntf.domino.impl.RichTextRange((lotus.domino.RichTextRange) lotus, parent);
-		} else if (lotus instanceof lotus.domino.RichTextSection) {
-			result = (T) new org.openntf.domino.impl.RichTextSection((lotus.domino.RichTextSection) lotus, parent);
-		} else if (lotus instanceof lotus.domino.RichTextStyle) {
-			result = (T) new org.openntf.domino.impl.RichTextStyle((lotus.domino.RichTextStyle) lotus, parent);
-		} else if (lotus instanceof lotus.domino.RichTextTab) {
-			result = (T) new org.openntf.domino.impl.RichTextTab((lotus.domino.RichTextTab) lotus, parent);
-		} else if (lotus instanceof lotus.domino.RichTextTable) {
-			result = (T) new org.openntf.domino.impl.RichTextTable((lotus.domino.RichTextTable) lotus, parent);
-		} else if (lotus instanceof lotus.domino.Session) {
-			result = (T) new org.openntf.domino.impl.Session((lotus.domino.Session) lotus, parent);
-			if (currentSessionHolder_.get() != null) {
-				try {
-					lotus.domino.Session rawSession = (lotus.domino.Session) Base.getDelegate(currentSessionHolder_.get());
-					rawSession.isConvertMime();
-				} catch (NotesException ne) {
-					// System.out.println("Resetting default local session because we got an exception");
-					setSession((org.openntf.domino.Session) result);
+	/**
+	 * Creates a document that opens its note only when it's first used, for iterating note ids without paying an NSF open for each.
+	 * 
+	 * @param db
+	 *            the database
+	 * @param noteid
+	 *            the note id
+	 * @return the document
+	 */
+	public static org.openntf.domino.Document lazyDocument(final org.openntf.domino.Database db, final int noteid) {
+		countWrap(WrapperFactory.DOCUMENT);
+		return new org.openntf.domino.impl.LazyDocument(db, noteid);
+	}
+
+	/**
+	 * Gets the live wrapper interned for a lotus object's handle, if there is one that can stand in for it.
+	 * 
+	 * @param drq
+	 *            the thread's recycle queue, which must be interning
+	 * @param lotus
+	 *            the lotus object
+	 * @param T
+	 *            the wrapper type asked for
+	 * @return the wrapper, or null if the lotus object has to be wrapped
+	 */
+	private static Object getInterned(final DominoReferenceQueue drq, final lotus.domino.Base lotus, final Class<?> T) {
+		if (!(lotus instanceof lotus.domino.local.NotesBase)) {
+			return null;
+		}
+		Object interned = drq.getInterned(Base.getLotusId((lotus.domino.local.NotesBase) lotus));
+		if (interned != null && T.isInstance(interned) && isLiveWrapperOf(interned, lotus)) {
+			return interned;
+		}
+		return null;
+	}
+
+	/**
+	 * Checks whether an interned wrapper can stand in for a newly obtained lotus object with the same handle id: it has to wrap the same
+	 * kind of object, and its own delegate mustn't have been recycled, since a recycled handle's id can be reused. The wrapper's delegate
+	 * is read as it is, so a document that has released its note isn't opened again just to be compared.
+	 * 
+	 * @param wrapper
+	 *            the interned wrapper
+	 * @param lotus
+	 *            the lotus object
+	 * @return true, if the wrapper can be returned instead of wrapping the lotus object
+	 */
+	private static boolean isLiveWrapperOf(final Object wrapper, final lotus.domino.Base lotus) {
+		lotus.domino.Base delegate = Base.getDelegateUnopened((lotus.domino.Base) wrapper);
+		if (delegate == lotus) {
+			return true;
+		}
+		return delegate != null && delegate.getClass() == lotus.getClass()
+				&& !Base.isRecycled((lotus.domino.local.NotesBase) delegate);
+	}
+
+	/**
+	 * Wraps each lotus member of a collection, resolving the wrapper factory only when the delegate class changes from one member to the
+	 * next. Collections from the lotus API are nearly always homogeneous, so that is usually once per collection. Like a single object,
+	 * a member whose handle already has a live interned wrapper gets that wrapper.
+	 * 
+	 * @param lotusColl
+	 *            the lotus coll
+	 * @param T
+	 *            the t
+	 * @param parent
+	 *            the parent
+	 * @param result
+	 *            the collection to add the wrappers to
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static void fromLotus(final Collection<?> lotusColl, final Class<? extends org.openntf.domino.Base> T,
+			final org.openntf.domino.Base<?> parent, final Collection result) {
+		Class<?> lastClass = null;
+		WrapperFactory factory = null;
+		DominoReferenceQueue drq = Base.getRecycleQueue();
+		boolean interning = drq.isInterning();
+		for (Object lotus : lotusColl) {
+			if (lotus instanceof lotus.domino.Base) {
+				Class<?> curClass = lotus.getClass();
+				Object interned = interning ? getInterned(drq, (lotus.domino.Base) lotus, T) : null;
+				if (interned != null) {
+					result.add(interned);
+				} else if (curClass == lastClass) {
+					countWrap(factory);
+					result.add(factory.wrap((lotus.domino.Base) lotus, parent));
+				} else if (lotus instanceof org.openntf.domino.Base || T.isAssignableFrom(curClass)) {
+					result.add(lotus);
+				} else {
+					factory = getWrapperFactory(curClass);
+					lastClass = curClass;
+					countWrap(factory);
+					result.add(factory.wrap((lotus.domino.Base) lotus, parent));
 				}
-			} else {
-				// System.out.println("Resetting default local session because it was null");
-				setSession((org.openntf.domino.Session) result);
-			}
-		} else if (lotus instanceof lotus.domino.Stream) {
-			result = (T) new org.openntf.domino.impl.Stream((lotus.domino.Stream) lotus, parent);
-		} else if (lotus instanceof lotus.domino.View) {
-			result = (T) new org.openntf.domino.impl.View((lotus.domino.View) lotus, (org.openntf.domino.Database) parent);
-		} else if (lotus instanceof lotus.domino.ViewColumn) {
-			result = (T) new org.openntf.domino.impl.ViewColumn((lotus.domino.ViewColumn) lotus, (org.openntf.domino.View) parent);
-		} else if (lotus instanceof lotus.domino.ViewEntry) {
-			result = (T) new org.openntf.domino.impl.ViewEntry((lotus.domino.ViewEntry) lotus, parent);
-		} else if (lotus instanceof lotus.domino.ViewEntryCollection) {
-			result = (T) new org.openntf.domino.impl.ViewEntryCollection((lotus.domino.ViewEntryCollection) lotus,
-					(org.openntf.domino.View) parent);
-		} else if (lotus instanceof lotus.domino.ViewNavigator) {
-			result = (T) new org.openntf.domino.impl.ViewNavigator((lotus.domino.ViewNavigator) lotus, (org.openntf.domino.View) parent);
-		}
-
-		if (result != null) {
-			return result;
+			}
 		}
-		// if (TRACE_COUNTERS)
-		// lotusCounter.increment();
-		//
-		throw new UndefinedDelegateTypeException();
 	}
 
 	/**
@@ -369,16 +1123,12 @@ public enum Factory {
 	 *            the parent
 	 * @return the collection
 	 */
-	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@SuppressWarnings({ "rawtypes" })
 	public static <T> Collection<T> fromLotus(final Collection<?> lotusColl, final Class<? extends org.openntf.domino.Base> T,
 			final org.openntf.domino.Base<?> parent) {
-		Collection<T> result = new ArrayList<T>(); // TODO anyone got a better implementation?
+		Collection<T> result = new ArrayList<T>(lotusColl.size());
 		if (!lotusColl.isEmpty()) {
-			for (Object lotus : lotusColl) {
-				if (lotus instanceof lotus.domino.Base) {
-					result.add((T) fromLotus((lotus.domino.Base) lotus, T, parent));
-				}
-			}
+			fromLotus(lotusColl, T, parent, result);
 		}
 		return result;
 
@@ -397,16 +1147,12 @@ public enum Factory {
 	 *            the parent
 	 * @return the org.openntf.domino.impl. vector
 	 */
-	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@SuppressWarnings({ "rawtypes" })
 	public static <T> org.openntf.domino.impl.Vector<T> fromLotusAsVector(final Collection<?> lotusColl,
 			final Class<? extends org.openntf.domino.Base> T, final org.openntf.domino.Base<?> parent) {
 		org.openntf.domino.impl.Vector<T> result = new org.openntf.domino.impl.Vector<T>(); // TODO anyone got a better implementation?
 		if (!lotusColl.isEmpty()) {
-			for (Object lotus : lotusColl) {
-				if (lotus instanceof lotus.domino.local.NotesBase) {
-					result.add((T) fromLotus((lotus.domino.Base) lotus, T, parent));
-				}
-			}
+			fromLotus(lotusColl, T, parent, result);
 		}
 		return result;
 
@@ -528,6 +1274,8 @@ public enum Factory {
 	}
 
 	public static void setSession(final lotus.domino.Session session) {
+		// a new current Session usually means a new request, and the runtime may have recycled the last one's objects
+		Base.invalidateDelegates();
 		currentSessionHolder_.set((Session) fromLotus(session, org.openntf.domino.Session.class, null));
 	}
 
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2013
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at:
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 
+ * implied. See the License for the specific language governing 
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.utils;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A list of distinct UNIDs packed as 16 binary bytes each, which is how DocumentCollection and NoteCollection values are stored in
+ * MIMEBean items. The UNIDs keep the order they were given in.
+ * 
+ * Externalized, each UNID is written as the number of leading bytes it shares with the one before it followed by the rest, so runs of
+ * UNIDs created close together (whose leading bytes are mostly the same), as note id order tends to give, take a few bytes each before
+ * any compression.
+ */
+public class PackedUnids implements Externalizable, Iterable<String> {
+	private static final long serialVersionUID = 1L;
+
+	/** The format version. */
+	private static final int VERSION = 1;
+
+	/** The bytes per UNID. */
+	public static final int UNID_BYTES = 16;
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	/** The packed_ UNIDs, in the order given, without duplicates. */
+	private byte[] packed_;
+
+	/** The count_ of UNIDs. */
+	private int count_;
+
+	/**
+	 * Instantiates an empty list, for externalization.
+	 */
+	public PackedUnids() {
+		packed_ = new byte[0];
+	}
+
+	/**
+	 * Instantiates a list of UNIDs.
+	 * 
+	 * @param unids
+	 *            the UNIDs, in any case; they keep their order, and any after the first of the same UNID are dropped
+	 * @throws IllegalArgumentException
+	 *             if one isn't 32 hex digits
+	 */
+	public PackedUnids(final Collection<String> unids) {
+		Set<String> seen = new HashSet<String>(unids.size() * 2);
+		packed_ = new byte[unids.size() * UNID_BYTES];
+		for (String unid : unids) {
+			if (unid == null || unid.length() != UNID_BYTES * 2) {
+				throw new IllegalArgumentException("Not a UNID: " + unid);
+			}
+			if (seen.add(unid.toUpperCase())) {
+				pack(unid, packed_, count_ * UNID_BYTES);
+				count_++;
+			}
+		}
+		if (count_ < unids.size()) {
+			packed_ = Arrays.copyOf(packed_, count_ * UNID_BYTES);
+		}
+	}
+
+	/**
+	 * Packs a UNID into 16 bytes.
+	 * 
+	 * @param unid
+	 *            the UNID
+	 * @param dest
+	 *            the array to write to
+	 * @param offset
+	 *            where to write
+	 * @throws IllegalArgumentException
+	 *             if it isn't 32 hex digits
+	 */
+	public static void pack(final String unid, final byte[] dest, final int offset) {
+		for (int i = 0; i < UNID_BYTES; i++) {
+			int hi = Character.digit(unid.charAt(i * 2), 16);
+			int lo = Character.digit(unid.charAt(i * 2 + 1), 16);
+			if (hi < 0 || lo < 0) {
+				throw new IllegalArgumentException("Not a UNID: " + unid);
+			}
+			dest[offset + i] = (byte) ((hi << 4) | lo);
+		}
+	}
+
+	/**
+	 * Unpacks 16 bytes into a UNID.
+	 * 
+	 * @param src
+	 *            the array to read from
+	 * @param offset
+	 *            where to read
+	 * @return the UNID, in upper case
+	 */
+	public static String unpack(final byte[] src, final int offset) {
+		char[] result = new char[UNID_BYTES * 2];
+		for (int i = 0; i < UNID_BYTES; i++) {
+			int b = src[offset + i] & 0xff;
+			result[i * 2] = HEX[b >>> 4];
+			result[i * 2 + 1] = HEX[b & 0xf];
+		}
+		return new String(result);
+	}
+
+	/**
+	 * Gets the number of UNIDs.
+	 * 
+	 * @return the size
+	 */
+	public int size() {
+		return count_;
+	}
+
+	/**
+	 * Gets a UNID.
+	 * 
+	 * @param index
+	 *            the index, in the order given
+	 * @return the UNID
+	 */
+	public String get(final int index) {
+		if (index < 0 || index >= count_) {
+			throw new IndexOutOfBoundsException(index + " of " + count_);
+		}
+		return unpack(packed_, index * UNID_BYTES);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Iterable#iterator()
+	 */
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+			private int next_ = 0;
+
+			@Override
+			public boolean hasNext() {
+				return next_ < count_;
+			}
+
+			@Override
+			public String next() {
+				if (next_ >= count_) {
+					throw new NoSuchElementException();
+				}
+				return unpack(packed_, UNID_BYTES * next_++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.io.Externalizable#writeExternal(java.io.ObjectOutput)
+	 */
+	@Override
+	public void writeExternal(final ObjectOutput out) throws IOException {
+		out.writeByte(VERSION);
+		out.writeInt(count_);
+		for (int i = 0; i < count_; i++) {
+			int offset = i * UNID_BYTES;
+			int shared = 0;
+			if (i > 0) {
+				while (shared < UNID_BYTES - 1 && packed_[offset + shared] == packed_[offset - UNID_BYTES + shared]) {
+					shared++;
+				}
+			}
+			out.writeByte(shared);
+			out.write(packed_, offset + shared, UNID_BYTES - shared);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.io.Externalizable#readExternal(java.io.ObjectInput)
+	 */
+	@Override
+	public void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException {
+		int version = in.readUnsignedByte();
+		if (version != VERSION) {
+			throw new InvalidObjectException("Unknown PackedUnids version " + version);
+		}
+		int count = in.readInt();
+		if (count < 0) {
+			throw new InvalidObjectException("Negative PackedUnids count " + count);
+		}
+		byte[] packed = new byte[count * UNID_BYTES];
+		for (int i = 0; i < count; i++) {
+			int offset = i * UNID_BYTES;
+			int shared = in.readUnsignedByte();
+			if (shared >= UNID_BYTES || (i == 0 && shared != 0)) {
+				throw new InvalidObjectException("Bad PackedUnids prefix length " + shared);
+			}
+			if (shared > 0) {
+				System.arraycopy(packed, offset - UNID_BYTES, packed, offset, shared);
+			}
+			in.readFully(packed, offset + shared, UNID_BYTES - shared);
+		}
+		packed_ = packed;
+		count_ = count;
+	}
+}
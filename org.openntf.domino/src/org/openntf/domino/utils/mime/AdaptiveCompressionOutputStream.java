@@ -0,0 +1,145 @@
+/*
+ * Copyright 2013
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at:
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 
+ * implied. See the License for the specific language governing 
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.utils.mime;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An OutputStream that holds back the first {@link MIMEBeanCompression#getThreshold()} bytes and only starts compressing once the
+ * content outgrows them. Small content is written uncompressed when the stream is closed; {@link #getCompression()} then says which was
+ * used, for the Content-Encoding header.
+ */
+public class AdaptiveCompressionOutputStream extends OutputStream {
+	/** The target_ stream. */
+	private final OutputStream target_;
+
+	/** The compression_ to use past the threshold. */
+	private final MIMEBeanCompression compression_;
+
+	/** The threshold_. */
+	private final int threshold_;
+
+	/** The buffer_ holding content below the threshold, or null once compressing or closed. */
+	private byte[] buffer_;
+
+	/** The count_ of bytes in buffer_. */
+	private int count_;
+
+	/** The out_ stream, once compressing. */
+	private OutputStream out_;
+
+	/** The compression that was used, once known. */
+	private MIMEBeanCompression used_;
+
+	/**
+	 * Instantiates a new output stream with the current threshold.
+	 * 
+	 * @param target
+	 *            the stream to write to; it's closed when this is
+	 * @param compression
+	 *            the compression to use if the content reaches the threshold
+	 */
+	public AdaptiveCompressionOutputStream(final OutputStream target, final MIMEBeanCompression compression) {
+		target_ = target;
+		compression_ = compression;
+		threshold_ = compression == MIMEBeanCompression.NONE ? 0 : MIMEBeanCompression.getThreshold();
+		buffer_ = ChunkPool.acquire();
+	}
+
+	/**
+	 * Gets the compression that was used. Only final once the stream is closed.
+	 * 
+	 * @return the compression
+	 */
+	public MIMEBeanCompression getCompression() {
+		return used_ == null ? MIMEBeanCompression.NONE : used_;
+	}
+
+	private void startCompressing() throws IOException {
+		out_ = compression_.compress(target_);
+		used_ = compression_;
+		byte[] buffer = buffer_;
+		buffer_ = null;
+		try {
+			out_.write(buffer, 0, count_);
+		} finally {
+			ChunkPool.release(buffer);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.io.OutputStream#write(int)
+	 */
+	@Override
+	public void write(final int b) throws IOException {
+		if (out_ == null) {
+			if (buffer_ == null) {
+				throw new IOException("Stream closed");
+			}
+			if (count_ < threshold_) {
+				buffer_[count_++] = (byte) b;
+				return;
+			}
+			startCompressing();
+		}
+		out_.write(b);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.io.OutputStream#write(byte[], int, int)
+	 */
+	@Override
+	public void write(final byte[] b, final int off, final int len) throws IOException {
+		if (out_ == null) {
+			if (buffer_ == null) {
+				throw new IOException("Stream closed");
+			}
+			if (count_ + len <= threshold_) {
+				System.arraycopy(b, off, buffer_, count_, len);
+				count_ += len;
+				return;
+			}
+			startCompressing();
+		}
+		out_.write(b, off, len);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.io.OutputStream#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		if (out_ != null) {
+			out_.close();
+		} else if (buffer_ != null) {
+			used_ = MIMEBeanCompression.NONE;
+			try {
+				target_.write(buffer_, 0, count_);
+			} finally {
+				ChunkPool.release(buffer_);
+				buffer_ = null;
+				target_.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2013
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at:
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 
+ * implied. See the License for the specific language governing 
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.utils.mime;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small shared pool of fixed-size byte arrays for moving MIMEBean content to and from Notes Streams, so that storing a bean doesn't
+ * allocate a buffer the size of the bean.
+ */
+public enum ChunkPool {
+	;
+	/** The size of every chunk. */
+	public static final int CHUNK_SIZE = 32 * 1024;
+
+	/** The most chunks kept for reuse; more than that are left to the garbage collector. */
+	private static final int MAX_POOLED = 16;
+
+	private static final Queue<byte[]> free_ = new ConcurrentLinkedQueue<byte[]>();
+	private static final AtomicInteger pooled_ = new AtomicInteger();
+
+	/**
+	 * Takes a chunk from the pool, or allocates one if the pool is empty.
+	 * 
+	 * @return a chunk of {@link #CHUNK_SIZE} bytes, with undefined contents
+	 */
+	public static byte[] acquire() {
+		byte[] result = free_.poll();
+		if (result == null) {
+			return new byte[CHUNK_SIZE];
+		}
+		pooled_.decrementAndGet();
+		return result;
+	}
+
+	/**
+	 * Returns a chunk to the pool. The caller must not use it afterwards.
+	 * 
+	 * @param chunk
+	 *            a chunk from {@link #acquire()}
+	 */
+	public static void release(final byte[] chunk) {
+		if (chunk == null || chunk.length != CHUNK_SIZE) {
+			return;
+		}
+		if (pooled_.incrementAndGet() <= MAX_POOLED) {
+			free_.offer(chunk);
+		} else {
+			pooled_.decrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.utils.mime;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+import org.openntf.domino.utils.DominoUtils;
+
+/**
+ * Calls writeExternal and readExternal directly, without writing a class descriptor; the class comes from the X-Java-Class header
+ * instead. This is the default for Externalizable objects.
+ */
+public class ExternalizableCodec implements MIMEBeanCodec {
+	/** The id. */
+	public static final String ID = "externalizable";
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.openntf.domino.utils.mime.MIMEBeanCodec#getId()
+	 */
+	@Override
+	public String getId() {
+		return ID;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.openntf.domino.utils.mime.MIMEBeanCodec#getContentType()
+	 */
+	@Override
+	public String getContentType() {
+		return "application/x-java-externalized-object";
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.openntf.domino.utils.mime.MIMEBeanCodec#canEncode(java.lang.Object)
+	 */
+	@Override
+	public boolean canEncode(final Object value) {
+		return value instanceof Externalizable;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.openntf.domino.utils.mime.MIMEBeanCodec#encode(java.lang.Object, java.io.OutputStream)
+	 */
+	@Override
+	public void encode(final Object value, final OutputStream out) throws IOException {
+		ObjectOutputStream objectStream = new ObjectOutputStream(out);
+		((Externalizable) value).writeExternal(objectStream);
+		objectStream.flush();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.openntf.domino.utils.mime.MIMEBeanCodec#decode(java.io.InputStream, java.lang.Class, java.lang.ClassLoader)
+	 */
+	@Override
+	public Object decode(final InputStream in, final Class<?> type, final ClassLoader loader) throws IOException, ClassNotFoundException {
+		if (type == null) {
+			throw new ClassNotFoundException("No class to restore an externalized object into");
+		}
+		if (!Externalizable.class.isAssignableFrom(type)) {
+			throw new InvalidClassException(type.getName(), "not Externalizable");
+		}
+		Externalizable restored;
+		try {
+			restored = (Externalizable) type.newInstance();
+		} catch (InstantiationException e) {
+			throw new InvalidClassException(type.getName(), "no public no-arg constructor");
+		} catch (IllegalAccessException e) {
+			throw new InvalidClassException(type.getName(), "no public no-arg constructor");
+		}
+		restored.readExternal(new DominoUtils.LoaderObjectInputStream(loader, in));
+		return restored;
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.utils.mime;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+import org.openntf.domino.utils.DominoUtils;
+
+/**
+ * Plain Java serialization, the way MIMEBeans have always been stored. Used for anything no other codec was chosen for.
+ */
+public class JavaSerializationCodec implements MIMEBeanCodec {
+	/** The id. */
+	public static final String ID = "java";
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.openntf.domino.utils.mime.MIMEBeanCodec#getId()
+	 */
+	@Override
+	public String getId() {
+		return ID;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.openntf.domino.utils.mime.MIMEBeanCodec#getContentType()
+	 */
+	@Override
+	public String getContentType() {
+		return "application/x-java-serialized-object";
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.openntf.domino.utils.mime.MIMEBeanCodec#canEncode(java.lang.Object)
+	 */
+	@Override
+	public boolean canEncode(final Object value) {
+		return value instanceof Serializable;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.openntf.domino.utils.mime.MIMEBeanCodec#encode(java.lang.Object, java.io.OutputStream)
+	 */
+	@Override
+	public void encode(final Object value, final OutputStream out) throws IOException {
+		ObjectOutputStream objectStream = new ObjectOutputStream(out);
+		objectStream.writeObject(value);
+		objectStream.flush();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.openntf.domino.utils.mime.MIMEBeanCodec#decode(java.io.InputStream, java.lang.Class, java.lang.ClassLoader)
+	 */
+	@Override
+	public Object decode(final InputStream in, final Class<?> type, final ClassLoader loader) throws IOException, ClassNotFoundException {
+		return new DominoUtils.LoaderObjectInputStream(loader, in).readObject();
+	}
+}
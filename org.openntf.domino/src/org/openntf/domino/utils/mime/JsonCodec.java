@@ -0,0 +1,396 @@
+/*
+ * Copyright 2013
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.utils.mime;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StreamCorruptedException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores maps, lists and scalars as UTF-8 JSON, so that the content can be read by anything that understands JSON, including server-side
+ * JavaScript and the REST services.
+ *
+ * JSON knows fewer types than Java: objects come back as LinkedHashMaps, arrays as ArrayLists, whole numbers as Longs and other numbers
+ * as Doubles. So that restoring gives back an equal value of the same class, {@link #canEncode(Object)} only accepts trees of exactly
+ * those: LinkedHashMaps with String keys, ArrayLists, Strings, Booleans, Longs and finite Doubles. Other collections, arrays, Integers
+ * and dates are refused, and an item rule naming this codec for them falls back to serialization.
+ */
+public class JsonCodec implements MIMEBeanCodec {
+	/** The id. */
+	public static final String ID = "json";
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.openntf.domino.utils.mime.MIMEBeanCodec#getId()
+	 */
+	@Override
+	public String getId() {
+		return ID;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.openntf.domino.utils.mime.MIMEBeanCodec#getContentType()
+	 */
+	@Override
+	public String getContentType() {
+		return "application/x-java-serialized-object";
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.openntf.domino.utils.mime.MIMEBeanCodec#canEncode(java.lang.Object)
+	 */
+	@Override
+	public boolean canEncode(final Object value) {
+		return canEncode(value, new IdentityHashMap<Object, Boolean>());
+	}
+
+	/**
+	 * Only accepts the types decoding gives back, so that a value restores to one of the same class: anything else, such as an Integer, an
+	 * Object[] or a HashMap, would come back as a different type and fail the caller's casts.
+	 */
+	private static boolean canEncode(final Object value, final IdentityHashMap<Object, Boolean> seen) {
+		if (value == null || value instanceof String || value instanceof Boolean || value instanceof Long) {
+			return true;
+		}
+		if (value instanceof Double) {
+			double d = ((Double) value).doubleValue();
+			return !Double.isNaN(d) && !Double.isInfinite(d);
+		}
+		if (seen.put(value, Boolean.TRUE) != null) {
+			return false;
+		}
+		if (value.getClass() == LinkedHashMap.class) {
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				if (!(entry.getKey() instanceof String) || !canEncode(entry.getValue(), seen)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if (value.getClass() == ArrayList.class) {
+			for (Object element : (List<?>) value) {
+				if (!canEncode(element, seen)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.openntf.domino.utils.mime.MIMEBeanCodec#encode(java.lang.Object, java.io.OutputStream)
+	 */
+	@Override
+	public void encode(final Object value, final OutputStream out) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+		write(writer, value);
+		writer.flush();
+	}
+
+	private static void write(final Writer out, final Object value) throws IOException {
+		if (value == null) {
+			out.write("null");
+		} else if (value instanceof String) {
+			writeString(out, (String) value);
+		} else if (value instanceof Boolean || value instanceof Number) {
+			out.write(value.toString());
+		} else if (value instanceof Map) {
+			out.write('{');
+			boolean first = true;
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				if (!first) {
+					out.write(',');
+				}
+				first = false;
+				writeString(out, (String) entry.getKey());
+				out.write(':');
+				write(out, entry.getValue());
+			}
+			out.write('}');
+		} else if (value instanceof Collection || value instanceof Object[]) {
+			Collection<?> elements = value instanceof Collection ? (Collection<?>) value : Arrays.asList((Object[]) value);
+			out.write('[');
+			boolean first = true;
+			for (Object element : elements) {
+				if (!first) {
+					out.write(',');
+				}
+				first = false;
+				write(out, element);
+			}
+			out.write(']');
+		} else {
+			throw new IOException("JSON can't hold a " + value.getClass().getName());
+		}
+	}
+
+	private static void writeString(final Writer out, final String value) throws IOException {
+		out.write('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				out.write("\\\"");
+				break;
+			case '\\':
+				out.write("\\\\");
+				break;
+			case '\n':
+				out.write("\\n");
+				break;
+			case '\r':
+				out.write("\\r");
+				break;
+			case '\t':
+				out.write("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					String hex = Integer.toHexString(c);
+					out.write("\\u0000", 0, 6 - hex.length());
+					out.write(hex);
+				} else {
+					out.write(c);
+				}
+			}
+		}
+		out.write('"');
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.openntf.domino.utils.mime.MIMEBeanCodec#decode(java.io.InputStream, java.lang.Class, java.lang.ClassLoader)
+	 */
+	@Override
+	public Object decode(final InputStream in, final Class<?> type, final ClassLoader loader) throws IOException, ClassNotFoundException {
+		Parser parser = new Parser(new BufferedReader(new InputStreamReader(in, "UTF-8")));
+		Object result = parser.readValue();
+		if (parser.skipWhitespace() != -1) {
+			throw new StreamCorruptedException("Unexpected content after the JSON value");
+		}
+		return result;
+	}
+
+	/**
+	 * A recursive descent JSON parser with one character of lookahead.
+	 */
+	private static class Parser {
+		private final Reader in_;
+		private int next_ = -2;
+
+		Parser(final Reader in) {
+			in_ = in;
+		}
+
+		private int peek() throws IOException {
+			if (next_ == -2) {
+				next_ = in_.read();
+			}
+			return next_;
+		}
+
+		private int read() throws IOException {
+			int result = peek();
+			next_ = -2;
+			return result;
+		}
+
+		int skipWhitespace() throws IOException {
+			int c = peek();
+			while (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+				read();
+				c = peek();
+			}
+			return c;
+		}
+
+		private void expect(final char expected) throws IOException {
+			int c = read();
+			if (c != expected) {
+				throw new StreamCorruptedException("Expected '" + expected + "' but found " + (c == -1 ? "the end" : "'" + (char) c + "'"));
+			}
+		}
+
+		private void expectWord(final String word) throws IOException {
+			for (int i = 0; i < word.length(); i++) {
+				expect(word.charAt(i));
+			}
+		}
+
+		Object readValue() throws IOException {
+			int c = skipWhitespace();
+			switch (c) {
+			case '{':
+				return readObject();
+			case '[':
+				return readArray();
+			case '"':
+				return readString();
+			case 't':
+				expectWord("true");
+				return Boolean.TRUE;
+			case 'f':
+				expectWord("false");
+				return Boolean.FALSE;
+			case 'n':
+				expectWord("null");
+				return null;
+			default:
+				if (c == '-' || (c >= '0' && c <= '9')) {
+					return readNumber();
+				}
+				throw new StreamCorruptedException("Unexpected " + (c == -1 ? "end of JSON" : "character '" + (char) c + "'"));
+			}
+		}
+
+		private Map<String, Object> readObject() throws IOException {
+			expect('{');
+			Map<String, Object> result = new LinkedHashMap<String, Object>();
+			if (skipWhitespace() == '}') {
+				read();
+				return result;
+			}
+			while (true) {
+				skipWhitespace();
+				String key = readString();
+				skipWhitespace();
+				expect(':');
+				result.put(key, readValue());
+				if (skipWhitespace() == ',') {
+					read();
+				} else {
+					expect('}');
+					return result;
+				}
+			}
+		}
+
+		private List<Object> readArray() throws IOException {
+			expect('[');
+			List<Object> result = new ArrayList<Object>();
+			if (skipWhitespace() == ']') {
+				read();
+				return result;
+			}
+			while (true) {
+				result.add(readValue());
+				if (skipWhitespace() == ',') {
+					read();
+				} else {
+					expect(']');
+					return result;
+				}
+			}
+		}
+
+		private String readString() throws IOException {
+			expect('"');
+			StringBuilder result = new StringBuilder();
+			while (true) {
+				int c = read();
+				if (c == -1) {
+					throw new StreamCorruptedException("Unterminated JSON string");
+				} else if (c == '"') {
+					return result.toString();
+				} else if (c == '\\') {
+					int escaped = read();
+					switch (escaped) {
+					case 'b':
+						result.append('\b');
+						break;
+					case 'f':
+						result.append('\f');
+						break;
+					case 'n':
+						result.append('\n');
+						break;
+					case 'r':
+						result.append('\r');
+						break;
+					case 't':
+						result.append('\t');
+						break;
+					case 'u':
+						char[] hex = new char[4];
+						for (int i = 0; i < 4; i++) {
+							hex[i] = (char) read();
+						}
+						try {
+							result.append((char) Integer.parseInt(new String(hex), 16));
+						} catch (NumberFormatException e) {
+							throw new StreamCorruptedException("Bad unicode escape \\u" + new String(hex));
+						}
+						break;
+					case -1:
+						throw new StreamCorruptedException("Unterminated JSON string");
+					default:
+						result.append((char) escaped);
+					}
+				} else {
+					result.append((char) c);
+				}
+			}
+		}
+
+		private Object readNumber() throws IOException {
+			StringBuilder text = new StringBuilder();
+			boolean integral = true;
+			int c = peek();
+			while (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' || (c >= '0' && c <= '9')) {
+				if (c == '.' || c == 'e' || c == 'E') {
+					integral = false;
+				}
+				text.append((char) read());
+				c = peek();
+			}
+			try {
+				if (integral) {
+					try {
+						return Long.valueOf(text.toString());
+					} catch (NumberFormatException tooLong) {
+						// falls through to a Double
+					}
+				}
+				return Double.valueOf(text.toString());
+			} catch (NumberFormatException e) {
+				throw new StreamCorruptedException("Bad JSON number " + text);
+			}
+		}
+	}
+}
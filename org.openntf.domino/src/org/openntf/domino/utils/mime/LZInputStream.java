@@ -0,0 +1,239 @@
+/*
+ * Copyright 2013
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at:
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 
+ * implied. See the License for the specific language governing 
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.utils.mime;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+
+/**
+ * Reads a stream written by {@link LZOutputStream}.
+ */
+public class LZInputStream extends InputStream {
+	/** The in_. */
+	private final InputStream in_;
+
+	/** The block_ of uncompressed bytes, or null once closed. */
+	private byte[] block_;
+
+	/** The packed_ block. */
+	private byte[] packed_;
+
+	/** The pos_ in block_. */
+	private int pos_;
+
+	/** The limit_ of block_. */
+	private int limit_;
+
+	/** Whether the last block was read. */
+	private boolean eos_;
+
+	/**
+	 * Instantiates a new LZ input stream and checks the stream header.
+	 * 
+	 * @param in
+	 *            the compressed stream
+	 * @throws IOException
+	 *             if the stream doesn't start with the LZ header
+	 */
+	public LZInputStream(final InputStream in) throws IOException {
+		in_ = in;
+		for (byte expected : LZOutputStream.MAGIC) {
+			if (in_.read() != expected) {
+				throw new StreamCorruptedException("Not an LZ stream");
+			}
+		}
+		block_ = ChunkPool.acquire();
+		packed_ = ChunkPool.acquire();
+	}
+
+	/**
+	 * Decompresses a block.
+	 * 
+	 * @param in
+	 *            the compressed bytes
+	 * @param inLen
+	 *            the number of compressed bytes
+	 * @param out
+	 *            the buffer for the uncompressed bytes
+	 * @param outLimit
+	 *            the expected uncompressed length
+	 * @return the uncompressed length
+	 * @throws StreamCorruptedException
+	 *             if the block is damaged
+	 */
+	static int decompress(final byte[] in, final int inLen, final byte[] out, final int outLimit) throws StreamCorruptedException {
+		int ip = 0;
+		int op = 0;
+		while (ip < inLen) {
+			int ctrl = in[ip++] & 0xff;
+			if (ctrl < 32) {
+				int run = ctrl + 1;
+				if (ip + run > inLen || op + run > outLimit) {
+					throw new StreamCorruptedException("LZ literal run overflows its block");
+				}
+				System.arraycopy(in, ip, out, op, run);
+				ip += run;
+				op += run;
+			} else {
+				int len = ctrl >>> 5;
+				if (len == 7) {
+					if (ip >= inLen) {
+						throw new StreamCorruptedException("LZ back reference is truncated");
+					}
+					len += in[ip++] & 0xff;
+				}
+				len += 2;
+				if (ip >= inLen) {
+					throw new StreamCorruptedException("LZ back reference is truncated");
+				}
+				int ref = op - (((ctrl & 0x1f) << 8) | (in[ip++] & 0xff)) - 1;
+				if (ref < 0 || op + len > outLimit) {
+					throw new StreamCorruptedException("LZ back reference is out of range");
+				}
+				// byte by byte, as the reference may overlap the bytes it produces
+				for (int i = 0; i < len; i++) {
+					out[op++] = out[ref++];
+				}
+			}
+		}
+		return op;
+	}
+
+	private int readShort() throws IOException {
+		int hi = in_.read();
+		int lo = in_.read();
+		if ((hi | lo) < 0) {
+			throw new EOFException("LZ block header is truncated");
+		}
+		return (hi << 8) | lo;
+	}
+
+	private void readFully(final byte[] b, final int len) throws IOException {
+		int n = 0;
+		while (n < len) {
+			int read = in_.read(b, n, len - n);
+			if (read < 0) {
+				throw new EOFException("LZ block is truncated");
+			}
+			n += read;
+		}
+	}
+
+	private boolean fill() throws IOException {
+		if (eos_) {
+			return false;
+		}
+		int type = in_.read();
+		if (type < 0) {
+			eos_ = true;
+			return false;
+		}
+		int raw = readShort();
+		if (raw == 0 || raw > block_.length) {
+			throw new StreamCorruptedException("LZ block length " + raw + " is out of range");
+		}
+		if (type == LZOutputStream.BLOCK_STORED) {
+			readFully(block_, raw);
+		} else if (type == LZOutputStream.BLOCK_COMPRESSED) {
+			int packed = readShort();
+			if (packed == 0 || packed > packed_.length) {
+				throw new StreamCorruptedException("LZ block length " + packed + " is out of range");
+			}
+			readFully(packed_, packed);
+			if (decompress(packed_, packed, block_, raw) != raw) {
+				throw new StreamCorruptedException("LZ block is shorter than its header says");
+			}
+		} else {
+			throw new StreamCorruptedException("Unknown LZ block type " + type);
+		}
+		pos_ = 0;
+		limit_ = raw;
+		return true;
+	}
+
+	private void checkOpen() throws IOException {
+		if (block_ == null) {
+			throw new IOException("Stream closed");
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.io.InputStream#read()
+	 */
+	@Override
+	public int read() throws IOException {
+		checkOpen();
+		if (pos_ == limit_ && !fill()) {
+			return -1;
+		}
+		return block_[pos_++] & 0xff;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.io.InputStream#read(byte[], int, int)
+	 */
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		checkOpen();
+		if (off < 0 || len < 0 || off + len > b.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return 0;
+		}
+		if (pos_ == limit_ && !fill()) {
+			return -1;
+		}
+		int n = Math.min(len, limit_ - pos_);
+		System.arraycopy(block_, pos_, b, off, n);
+		pos_ += n;
+		return n;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.io.InputStream#available()
+	 */
+	@Override
+	public int available() {
+		return limit_ - pos_;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.io.InputStream#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		if (block_ != null) {
+			ChunkPool.release(block_);
+			ChunkPool.release(packed_);
+			block_ = null;
+			packed_ = null;
+			pos_ = 0;
+			limit_ = 0;
+			in_.close();
+		}
+	}
+}
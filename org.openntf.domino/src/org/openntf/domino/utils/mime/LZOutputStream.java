@@ -0,0 +1,246 @@
+/*
+ * Copyright 2013
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at:
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 
+ * implied. See the License for the specific language governing 
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.utils.mime;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A fast LZ77 compressor in the style of LZF: no entropy coding, a single hash probe per position and back references of up to 264 bytes
+ * within the last 8k. It compresses much less than deflate but costs a fraction of the CPU, which suits state that is written often and
+ * read back soon.
+ * 
+ * The stream starts with the four bytes "NLZ1", followed by blocks of at most {@link ChunkPool#CHUNK_SIZE} bytes each. A block is a type
+ * byte (0 stored, 1 compressed), the uncompressed length as two bytes, and for compressed blocks the compressed length as two bytes,
+ * followed by the data. Blocks that don't get smaller are stored. Read it back with {@link LZInputStream}.
+ */
+public class LZOutputStream extends OutputStream {
+	/** The magic bytes that start every stream. */
+	static final byte[] MAGIC = { 'N', 'L', 'Z', '1' };
+
+	static final int BLOCK_STORED = 0;
+	static final int BLOCK_COMPRESSED = 1;
+
+	private static final int HASH_BITS = 14;
+	private static final int MAX_LITERAL = 32;
+	private static final int MAX_OFFSET = 1 << 13;
+	private static final int MAX_MATCH = 264;
+
+	/** The out_. */
+	private final OutputStream out_;
+
+	/** The block_ of uncompressed bytes, or null once closed. */
+	private byte[] block_;
+
+	/** The count_ of bytes in block_. */
+	private int count_;
+
+	/** The packed_ block. */
+	private byte[] packed_;
+
+	/** The hash table_ of recent positions. */
+	private final int[] table_ = new int[1 << HASH_BITS];
+
+	/**
+	 * Instantiates a new LZ output stream and writes the stream header.
+	 * 
+	 * @param out
+	 *            the stream to write the compressed data to
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public LZOutputStream(final OutputStream out) throws IOException {
+		out_ = out;
+		out_.write(MAGIC);
+		block_ = ChunkPool.acquire();
+		packed_ = ChunkPool.acquire();
+	}
+
+	/**
+	 * Compresses a block.
+	 * 
+	 * @param in
+	 *            the bytes
+	 * @param inLen
+	 *            the number of bytes
+	 * @param out
+	 *            the buffer for the compressed bytes
+	 * @param table
+	 *            a hash table of 2^HASH_BITS entries
+	 * @return the compressed length, or -1 if it would not fit in out
+	 */
+	static int compress(final byte[] in, final int inLen, final byte[] out, final int[] table) {
+		Arrays.fill(table, -1);
+		int outLimit = out.length;
+		int ip = 0;
+		int op = 1; // out[0] is the control byte of the first literal run
+		int lit = 0;
+		while (ip < inLen) {
+			int ref = -1;
+			if (ip < inLen - 2) {
+				int h = ((in[ip] & 0xff) << 16) | ((in[ip + 1] & 0xff) << 8) | (in[ip + 2] & 0xff);
+				h = (h * -1640531535) >>> (32 - HASH_BITS);
+				ref = table[h];
+				table[h] = ip;
+			}
+			if (ref >= 0 && ip - ref <= MAX_OFFSET && in[ref] == in[ip] && in[ref + 1] == in[ip + 1] && in[ref + 2] == in[ip + 2]) {
+				int max = Math.min(inLen - ip, MAX_MATCH);
+				int len = 3;
+				while (len < max && in[ref + len] == in[ip + len]) {
+					len++;
+				}
+				if (op + 3 >= outLimit) {
+					return -1;
+				}
+				if (lit == 0) {
+					op--;
+				} else {
+					out[op - lit - 1] = (byte) (lit - 1);
+					lit = 0;
+				}
+				int off = ip - ref - 1;
+				int encoded = len - 2;
+				if (encoded < 7) {
+					out[op++] = (byte) ((encoded << 5) | (off >>> 8));
+				} else {
+					out[op++] = (byte) ((7 << 5) | (off >>> 8));
+					out[op++] = (byte) (encoded - 7);
+				}
+				out[op++] = (byte) off;
+				op++;
+				ip += len;
+			} else {
+				if (op >= outLimit) {
+					return -1;
+				}
+				out[op++] = in[ip++];
+				lit++;
+				if (lit == MAX_LITERAL) {
+					out[op - lit - 1] = (byte) (lit - 1);
+					lit = 0;
+					op++;
+				}
+			}
+		}
+		if (lit == 0) {
+			op--;
+		} else {
+			out[op - lit - 1] = (byte) (lit - 1);
+		}
+		return op > outLimit ? -1 : op;
+	}
+
+	private void writeShort(final int value) throws IOException {
+		out_.write(value >>> 8);
+		out_.write(value);
+	}
+
+	private void writeBlock() throws IOException {
+		if (count_ == 0) {
+			return;
+		}
+		int packed = compress(block_, count_, packed_, table_);
+		if (packed < 0 || packed >= count_) {
+			out_.write(BLOCK_STORED);
+			writeShort(count_);
+			out_.write(block_, 0, count_);
+		} else {
+			out_.write(BLOCK_COMPRESSED);
+			writeShort(count_);
+			writeShort(packed);
+			out_.write(packed_, 0, packed);
+		}
+		count_ = 0;
+	}
+
+	private void checkOpen() throws IOException {
+		if (block_ == null) {
+			throw new IOException("Stream closed");
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.io.OutputStream#write(int)
+	 */
+	@Override
+	public void write(final int b) throws IOException {
+		checkOpen();
+		if (count_ == block_.length) {
+			writeBlock();
+		}
+		block_[count_++] = (byte) b;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.io.OutputStream#write(byte[], int, int)
+	 */
+	@Override
+	public void write(final byte[] b, final int off, final int len) throws IOException {
+		checkOpen();
+		if (off < 0 || len < 0 || off + len > b.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		int pos = off;
+		int remaining = len;
+		while (remaining > 0) {
+			if (count_ == block_.length) {
+				writeBlock();
+			}
+			int n = Math.min(remaining, block_.length - count_);
+			System.arraycopy(b, pos, block_, count_, n);
+			count_ += n;
+			pos += n;
+			remaining -= n;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.io.OutputStream#flush()
+	 */
+	@Override
+	public void flush() throws IOException {
+		checkOpen();
+		writeBlock();
+		out_.flush();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.io.OutputStream#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		if (block_ != null) {
+			try {
+				writeBlock();
+			} finally {
+				ChunkPool.release(block_);
+				ChunkPool.release(packed_);
+				block_ = null;
+				packed_ = null;
+				out_.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright 2013
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at:
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 
+ * implied. See the License for the specific language governing 
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.utils.mime;
+
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An optional, process-wide cache of restored MIMEBean values, so that reading the same bean from an unchanged document again is a hash
+ * lookup rather than a MIME read and a deserialization. It is off until {@link #setEnabled(boolean)} turns it on.
+ * 
+ * Entries are keyed by replica id, UNID and item name, and carry a version built from the document's last-modified time and size. A lookup
+ * with a different version evicts the entry. Since callers may change what they get back, only values that can be handed out safely are
+ * cached: immutable JDK values are returned as they are, Dates, arrays and the cloneable java.util collections and maps are returned as
+ * copies, and anything else (most application beans and enums) is not cached at all, so the cache never holds on to an application's
+ * classes.
+ */
+public enum MIMEBeanCache {
+	;
+	private static final Logger log_ = Logger.getLogger(MIMEBeanCache.class.getName());
+
+	/** Whether the cache is used. */
+	private static volatile boolean enabled_ = false;
+
+	/** The most entries kept. */
+	private static volatile int maxEntries_ = 256;
+
+	/** The entries_, least recently used first. Guarded by itself. */
+	private static final Map<String, Cached> entries_ = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, Cached> eldest) {
+			return size() > maxEntries_;
+		}
+	};
+
+	/**
+	 * A cached value and the version of the document it came from.
+	 */
+	private static class Cached {
+		private final String version_;
+		private final Object value_;
+
+		Cached(final String version, final Object value) {
+			version_ = version;
+			value_ = value;
+		}
+	}
+
+	/**
+	 * Checks if the cache is used.
+	 * 
+	 * @return true, if enabled
+	 */
+	public static boolean isEnabled() {
+		return enabled_;
+	}
+
+	/**
+	 * Turns the cache on or off. Turning it off empties it.
+	 * 
+	 * @param enabled
+	 *            whether to use the cache
+	 */
+	public static void setEnabled(final boolean enabled) {
+		enabled_ = enabled;
+		if (!enabled) {
+			clear();
+		}
+	}
+
+	/**
+	 * Gets the most entries kept.
+	 * 
+	 * @return the maximum
+	 */
+	public static int getMaxEntries() {
+		return maxEntries_;
+	}
+
+	/**
+	 * Sets the most entries kept. The least recently used entries go first.
+	 * 
+	 * @param maxEntries
+	 *            the maximum
+	 */
+	public static void setMaxEntries(final int maxEntries) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("maxEntries must be positive");
+		}
+		maxEntries_ = maxEntries;
+	}
+
+	/**
+	 * Builds the key for an item.
+	 * 
+	 * @param replicaId
+	 *            the replica id of the database
+	 * @param unid
+	 *            the UNID of the document
+	 * @param itemName
+	 *            the item name
+	 * @return the key
+	 */
+	public static String getKey(final String replicaId, final String unid, final String itemName) {
+		return replicaId + unid + itemName.toLowerCase(Locale.US);
+	}
+
+	/**
+	 * Builds the version of a document.
+	 * 
+	 * @param lastModified
+	 *            the last modified time
+	 * @param size
+	 *            the size in bytes
+	 * @return the version, or null if there isn't enough to tell versions apart
+	 */
+	public static String getVersion(final Date lastModified, final int size) {
+		return lastModified == null ? null : lastModified.getTime() + ":" + size;
+	}
+
+	/**
+	 * Gets a cached value.
+	 * 
+	 * @param key
+	 *            the key from {@link #getKey(String, String, String)}
+	 * @param version
+	 *            the current version of the document
+	 * @return a value the caller may keep and change, or null if there is none for this version
+	 */
+	public static Object get(final String key, final String version) {
+		if (!enabled_ || version == null) {
+			return null;
+		}
+		Cached cached;
+		synchronized (entries_) {
+			cached = entries_.get(key);
+			if (cached != null && !version.equals(cached.version_)) {
+				entries_.remove(key);
+				cached = null;
+			}
+		}
+		return cached == null ? null : copy(cached.value_);
+	}
+
+	/**
+	 * Caches a value, if it's of a type that can be handed out safely.
+	 * 
+	 * @param key
+	 *            the key from {@link #getKey(String, String, String)}
+	 * @param version
+	 *            the version of the document the value was read from
+	 * @param value
+	 *            the value; the caller keeps it, the cache holds a copy
+	 */
+	public static void put(final String key, final String version, final Object value) {
+		if (!enabled_ || version == null || value == null || !isCopyable(value, new IdentityHashMap<Object, Boolean>())) {
+			return;
+		}
+		Object copy = copy(value);
+		if (copy == null) {
+			return;
+		}
+		synchronized (entries_) {
+			entries_.put(key, new Cached(version, copy));
+		}
+	}
+
+	/**
+	 * Drops the cached value for an item.
+	 * 
+	 * @param key
+	 *            the key from {@link #getKey(String, String, String)}
+	 */
+	public static void remove(final String key) {
+		synchronized (entries_) {
+			entries_.remove(key);
+		}
+	}
+
+	/**
+	 * Empties the cache.
+	 */
+	public static void clear() {
+		synchronized (entries_) {
+			entries_.clear();
+		}
+	}
+
+	/**
+	 * Checks for the immutable JDK types, i.e. ones loaded by the bootstrap loader. Application enums are immutable too, but holding them
+	 * here would pin their class loader after the application is redesigned, and hand its old constants to the new version.
+	 */
+	private static boolean isImmutable(final Object value) {
+		if (value == null || value.getClass().getClassLoader() != null) {
+			// also rules out application subclasses of BigDecimal and BigInteger
+			return false;
+		}
+		return value instanceof String || value instanceof Boolean || value instanceof Character || value instanceof Enum
+				|| value instanceof UUID || value instanceof Locale || value instanceof BigDecimal || value instanceof BigInteger
+				|| value instanceof Integer || value instanceof Long || value instanceof Double || value instanceof Float
+				|| value instanceof Short || value instanceof Byte;
+	}
+
+	private static boolean isCloneableContainer(final Object value) {
+		return (value instanceof Collection || value instanceof Map) && value instanceof Cloneable
+				&& value.getClass().getName().startsWith("java.util.");
+	}
+
+	/**
+	 * Checks that a value is made only of immutables, Dates, arrays and cloneable java.util containers, without cycles.
+	 */
+	private static boolean isCopyable(final Object value, final IdentityHashMap<Object, Boolean> seen) {
+		if (value == null || isImmutable(value) || value.getClass() == Date.class) {
+			return true;
+		}
+		if (value.getClass().isArray() && value.getClass().getComponentType().isPrimitive()) {
+			return true;
+		}
+		if (seen.put(value, Boolean.TRUE) != null) {
+			return false;
+		}
+		if (value instanceof Object[]) {
+			if (value.getClass().getClassLoader() != null) {
+				// an array of an application type would pin its class loader even if it's empty
+				return false;
+			}
+			for (Object element : (Object[]) value) {
+				if (!isCopyable(element, seen)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if (isCloneableContainer(value)) {
+			if (value instanceof Map) {
+				for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+					if (!isImmutable(entry.getKey()) || !isCopyable(entry.getValue(), seen)) {
+						return false;
+					}
+				}
+			} else {
+				for (Object element : (Collection<?>) value) {
+					if (!isCopyable(element, seen)) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Copies a value that passed {@link #isCopyable(Object, IdentityHashMap)}, sharing only its immutable parts.
+	 * 
+	 * @return the copy, or null if a container couldn't be cloned
+	 */
+	@SuppressWarnings("unchecked")
+	private static Object copy(final Object value) {
+		if (value == null || isImmutable(value)) {
+			return value;
+		}
+		if (value instanceof Date) {
+			return ((Date) value).clone();
+		}
+		if (value instanceof Object[]) {
+			Object[] result = ((Object[]) value).clone();
+			for (int i = 0; i < result.length; i++) {
+				result[i] = copy(result[i]);
+			}
+			return result;
+		}
+		if (value.getClass().isArray()) {
+			return copyPrimitiveArray(value);
+		}
+		Object result;
+		try {
+			Method clone = value.getClass().getMethod("clone");
+			result = clone.invoke(value);
+		} catch (Exception e) {
+			log_.log(Level.FINE, "Unable to clone a " + value.getClass().getName(), e);
+			return null;
+		}
+		if (result instanceof Map) {
+			for (Map.Entry<Object, Object> entry : ((Map<Object, Object>) result).entrySet()) {
+				Object element = entry.getValue();
+				if (element != null && !isImmutable(element)) {
+					Object elementCopy = copy(element);
+					if (elementCopy == null) {
+						return null;
+					}
+					entry.setValue(elementCopy);
+				}
+			}
+		} else {
+			Collection<Object> collection = (Collection<Object>) result;
+			boolean shallow = true;
+			for (Object element : collection) {
+				if (element != null && !isImmutable(element)) {
+					shallow = false;
+					break;
+				}
+			}
+			if (!shallow) {
+				Object[] elements = collection.toArray();
+				collection.clear();
+				for (Object element : elements) {
+					Object elementCopy = copy(element);
+					if (element != null && elementCopy == null) {
+						return null;
+					}
+					collection.add(elementCopy);
+				}
+			}
+		}
+		return result;
+	}
+
+	private static Object copyPrimitiveArray(final Object value) {
+		if (value instanceof byte[]) {
+			return ((byte[]) value).clone();
+		} else if (value instanceof int[]) {
+			return ((int[]) value).clone();
+		} else if (value instanceof long[]) {
+			return ((long[]) value).clone();
+		} else if (value instanceof double[]) {
+			return ((double[]) value).clone();
+		} else if (value instanceof char[]) {
+			return ((char[]) value).clone();
+		} else if (value instanceof boolean[]) {
+			return ((boolean[]) value).clone();
+		} else if (value instanceof float[]) {
+			return ((float[]) value).clone();
+		} else {
+			return ((short[]) value).clone();
+		}
+	}
+}
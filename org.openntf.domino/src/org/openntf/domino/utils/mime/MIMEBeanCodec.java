@@ -0,0 +1,83 @@
+/*
+ * Copyright 2013
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.utils.mime;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Turns a Java object into the bytes of a MIMEBean item and back. {@link org.openntf.domino.utils.DominoUtils#saveState} picks a codec
+ * through {@link MIMEBeanCodecs#select(Object, String)} and records its id in the X-Storage-Scheme header, which is how
+ * {@link org.openntf.domino.utils.DominoUtils#restoreState} finds it again.
+ *
+ * Implementations must be thread-safe; one instance serves every document.
+ */
+public interface MIMEBeanCodec {
+
+	/**
+	 * Gets the id stored in the X-Storage-Scheme header. Must not be "StateHolder", which that header already uses.
+	 *
+	 * @return the id
+	 */
+	public String getId();
+
+	/**
+	 * Gets the MIME content type of the entity. Document recognizes MIMEBeans by their content type, so this should be one of
+	 * "application/x-java-serialized-object" and "application/x-java-externalized-object".
+	 *
+	 * @return the content type
+	 */
+	public String getContentType();
+
+	/**
+	 * Checks whether this codec can write a value so that {@link #decode} gives back an equal one.
+	 *
+	 * @param value
+	 *            the value
+	 * @return true, if it can
+	 */
+	public boolean canEncode(Object value);
+
+	/**
+	 * Writes a value. The stream must be left open.
+	 *
+	 * @param value
+	 *            the value
+	 * @param out
+	 *            the stream
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void encode(Object value, OutputStream out) throws IOException;
+
+	/**
+	 * Reads a value.
+	 *
+	 * @param in
+	 *            the stream
+	 * @param type
+	 *            the class named in the X-Java-Class header, or null if it couldn't be loaded
+	 * @param loader
+	 *            the class loader to resolve any other classes with
+	 * @return the value
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws ClassNotFoundException
+	 *             if a class of the stored object graph can't be found
+	 */
+	public Object decode(InputStream in, Class<?> type, ClassLoader loader) throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2013
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.utils.mime;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The registry of {@link MIMEBeanCodec}s, and the rules for which one stores a value.
+ *
+ * A value is stored with the codec set for its item name, if there is one and it can encode the value; otherwise with the codec set for
+ * its class or the nearest superclass or interface that has one; otherwise with {@link ExternalizableCodec} if it's Externalizable and
+ * {@link JavaSerializationCodec} if not. Item and class rules are keyed by name, so they don't hold on to application class loaders.
+ *
+ * Restoring only needs the codec id from the X-Storage-Scheme header. MIMEBeans written before there were codecs have no such header and
+ * are told apart by their content type, as they always were.
+ */
+public enum MIMEBeanCodecs {
+	;
+	private static final Logger log_ = Logger.getLogger(MIMEBeanCodecs.class.getName());
+
+	/** The X-Storage-Scheme value Document uses for JSF StateHolders, whose state is always serialized. */
+	public static final String STATE_HOLDER_SCHEME = "StateHolder";
+
+	/** The registered codecs, by id. */
+	private static final Map<String, MIMEBeanCodec> codecs_ = new ConcurrentHashMap<String, MIMEBeanCodec>();
+
+	/** The codec ids for item names, keyed by lower case item name. */
+	private static final Map<String, String> itemCodecs_ = new ConcurrentHashMap<String, String>();
+
+	/** The codec ids for classes, keyed by class name. */
+	private static final Map<String, String> classCodecs_ = new ConcurrentHashMap<String, String>();
+
+	private static final MIMEBeanCodec JAVA = new JavaSerializationCodec();
+	private static final MIMEBeanCodec EXTERNALIZABLE = new ExternalizableCodec();
+
+	static {
+		register(JAVA);
+		register(EXTERNALIZABLE);
+		register(new TaggedBinaryCodec());
+		register(new JsonCodec());
+	}
+
+	/**
+	 * Registers a codec, replacing any codec with the same id.
+	 *
+	 * @param codec
+	 *            the codec
+	 */
+	public static void register(final MIMEBeanCodec codec) {
+		if (STATE_HOLDER_SCHEME.equals(codec.getId())) {
+			throw new IllegalArgumentException("The codec id " + STATE_HOLDER_SCHEME + " is reserved");
+		}
+		codecs_.put(codec.getId(), codec);
+	}
+
+	/**
+	 * Gets a registered codec.
+	 *
+	 * @param id
+	 *            the id
+	 * @return the codec, or null
+	 */
+	public static MIMEBeanCodec getCodec(final String id) {
+		return codecs_.get(id);
+	}
+
+	/**
+	 * Sets the codec for values stored in items of a name, in any document.
+	 *
+	 * @param itemName
+	 *            the item name, case-insensitive
+	 * @param id
+	 *            the codec id, or null to remove the rule
+	 */
+	public static void setItemCodec(final String itemName, final String id) {
+		if (id == null) {
+			itemCodecs_.remove(itemName.toLowerCase());
+		} else {
+			itemCodecs_.put(itemName.toLowerCase(), id);
+		}
+	}
+
+	/**
+	 * Sets the codec for values of a class and its subclasses, or of an interface and its implementations.
+	 *
+	 * @param type
+	 *            the class or interface
+	 * @param id
+	 *            the codec id, or null to remove the rule
+	 */
+	public static void setClassCodec(final Class<?> type, final String id) {
+		if (id == null) {
+			classCodecs_.remove(type.getName());
+		} else {
+			classCodecs_.put(type.getName(), id);
+		}
+	}
+
+	/**
+	 * Finds the class rule for a class, its superclasses and their interfaces, nearest first.
+	 *
+	 * @param type
+	 *            the class
+	 * @return the codec id, or null
+	 */
+	private static String findClassCodec(final Class<?> type) {
+		for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+			String id = classCodecs_.get(c.getName());
+			if (id != null) {
+				return id;
+			}
+		}
+		for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+			for (Class<?> iface : c.getInterfaces()) {
+				String id = classCodecs_.get(iface.getName());
+				if (id == null) {
+					id = findClassCodec(iface);
+				}
+				if (id != null) {
+					return id;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Checks a rule's codec.
+	 *
+	 * @param id
+	 *            the codec id
+	 * @param value
+	 *            the value
+	 * @return the codec, or null if it isn't registered or can't encode the value
+	 */
+	private static MIMEBeanCodec usable(final String id, final Object value) {
+		MIMEBeanCodec codec = codecs_.get(id);
+		if (codec == null) {
+			log_.log(Level.WARNING, "No MIMEBean codec is registered as " + id + "; ignoring the rule that names it");
+			return null;
+		}
+		if (!codec.canEncode(value)) {
+			if (log_.isLoggable(Level.FINE)) {
+				log_.log(Level.FINE, "MIMEBean codec " + id + " can't store a " + value.getClass().getName()
+						+ " losslessly; using the default");
+			}
+			return null;
+		}
+		return codec;
+	}
+
+	/**
+	 * Chooses the codec to store a value with.
+	 *
+	 * @param value
+	 *            the value
+	 * @param itemName
+	 *            the item name
+	 * @return the codec
+	 */
+	public static MIMEBeanCodec select(final Object value, final String itemName) {
+		MIMEBeanCodec result = null;
+		if (!itemCodecs_.isEmpty() && itemName != null) {
+			String id = itemCodecs_.get(itemName.toLowerCase());
+			if (id != null) {
+				result = usable(id, value);
+			}
+		}
+		if (result == null && !classCodecs_.isEmpty()) {
+			String id = findClassCodec(value.getClass());
+			if (id != null) {
+				result = usable(id, value);
+			}
+		}
+		if (result == null) {
+			result = value instanceof Externalizable ? EXTERNALIZABLE : JAVA;
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the codec a MIMEBean was stored with.
+	 *
+	 * @param storageScheme
+	 *            the X-Storage-Scheme header value, or null
+	 * @param contentSubType
+	 *            the content sub-type of the entity
+	 * @return the codec
+	 * @throws IOException
+	 *             if the scheme names a codec that isn't registered
+	 */
+	public static MIMEBeanCodec forScheme(final String storageScheme, final String contentSubType) throws IOException {
+		if (storageScheme == null || storageScheme.length() == 0 || STATE_HOLDER_SCHEME.equals(storageScheme)) {
+			return "x-java-externalized-object".equals(contentSubType) ? EXTERNALIZABLE : JAVA;
+		}
+		MIMEBeanCodec result = codecs_.get(storageScheme);
+		if (result == null) {
+			throw new IOException("No MIMEBean codec is registered as " + storageScheme);
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the codec used when the caller's storage scheme has to win, as for StateHolders.
+	 *
+	 * @return the Java serialization codec
+	 */
+	public static MIMEBeanCodec getSerializationCodec() {
+		return JAVA;
+	}
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2013
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at:
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 
+ * implied. See the License for the specific language governing 
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.utils.mime;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The compressions for MIMEBean content, named in the Content-Encoding header, and the settings for choosing between them.
+ * 
+ * Content smaller than {@link #getThreshold()} is stored uncompressed whatever the compression asked for, since a GZIP header and trailer
+ * alone would make it bigger. Restoring uses the Content-Encoding header and, where there is none, recognizes compressed content by its
+ * first bytes.
+ */
+public enum MIMEBeanCompression {
+	/** Stored as is. */
+	NONE(null),
+	/** Deflate at {@link MIMEBeanCompression#getGzipLevel()}, readable by any MIME client. */
+	GZIP("gzip"),
+	/** The fast {@link LZOutputStream} format. */
+	LZ("x-openntf-lz");
+
+	/** The default compression for saveState. */
+	private static volatile MIMEBeanCompression default_ = GZIP;
+
+	/** The uncompressed size below which content isn't compressed. */
+	private static volatile int threshold_ = 512;
+
+	/** The deflate level for GZIP. */
+	private static volatile int gzipLevel_ = Deflater.BEST_SPEED;
+
+	/** The contentEncoding_ header value. */
+	private final String contentEncoding_;
+
+	private MIMEBeanCompression(final String contentEncoding) {
+		contentEncoding_ = contentEncoding;
+	}
+
+	/**
+	 * Gets the Content-Encoding header value.
+	 * 
+	 * @return the header value, or null for {@link #NONE}
+	 */
+	public String getContentEncoding() {
+		return contentEncoding_;
+	}
+
+	/**
+	 * Wraps a stream so that what's written to it is compressed. Closing the result closes the stream.
+	 * 
+	 * @param out
+	 *            the stream
+	 * @return the compressing stream, or out itself for {@link #NONE}
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public OutputStream compress(final OutputStream out) throws IOException {
+		switch (this) {
+		case GZIP:
+			return new LeveledGZIPOutputStream(out, gzipLevel_);
+		case LZ:
+			return new LZOutputStream(out);
+		default:
+			return out;
+		}
+	}
+
+	/**
+	 * Wraps a stream written by {@link #compress(OutputStream)}.
+	 * 
+	 * @param in
+	 *            the stream
+	 * @return the decompressing stream, or in itself for {@link #NONE}
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public InputStream decompress(final InputStream in) throws IOException {
+		switch (this) {
+		case GZIP:
+			return new GZIPInputStream(in, ChunkPool.CHUNK_SIZE);
+		case LZ:
+			return new LZInputStream(in);
+		default:
+			return in;
+		}
+	}
+
+	/**
+	 * Finds the compression for a Content-Encoding header value.
+	 * 
+	 * @param contentEncoding
+	 *            the header value, or null
+	 * @return the compression
+	 * @throws IOException
+	 *             if the encoding is not one of these
+	 */
+	public static MIMEBeanCompression forContentEncoding(final String contentEncoding) throws IOException {
+		if (contentEncoding == null || contentEncoding.trim().length() == 0) {
+			return NONE;
+		}
+		String encoding = contentEncoding.trim().toLowerCase();
+		if ("identity".equals(encoding) || "binary".equals(encoding)) {
+			return NONE;
+		}
+		if ("x-gzip".equals(encoding)) {
+			return GZIP;
+		}
+		for (MIMEBeanCompression compression : values()) {
+			if (encoding.equals(compression.contentEncoding_)) {
+				return compression;
+			}
+		}
+		throw new IOException("Unsupported Content-Encoding " + contentEncoding);
+	}
+
+	/**
+	 * Wraps a stream of MIMEBean content for reading, undoing the compression named in its Content-Encoding header. Without a header, GZIP
+	 * and LZ content is recognized by its first bytes, which neither uncompressed serialized objects nor any of the codecs start with.
+	 * 
+	 * @param in
+	 *            the stream
+	 * @param contentEncoding
+	 *            the header value, or null
+	 * @return the stream to decode from
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static InputStream decoding(final InputStream in, final String contentEncoding) throws IOException {
+		MIMEBeanCompression compression = forContentEncoding(contentEncoding);
+		if (compression != NONE) {
+			return compression.decompress(in);
+		}
+		PushbackInputStream sniffer = new PushbackInputStream(in, 2);
+		int b0 = sniffer.read();
+		int b1 = b0 < 0 ? -1 : sniffer.read();
+		if (b1 >= 0) {
+			sniffer.unread(b1);
+		}
+		if (b0 >= 0) {
+			sniffer.unread(b0);
+		}
+		if (b0 == 0x1f && b1 == 0x8b) {
+			return GZIP.decompress(sniffer);
+		}
+		if (b0 == LZOutputStream.MAGIC[0] && b1 == LZOutputStream.MAGIC[1]) {
+			return LZ.decompress(sniffer);
+		}
+		return sniffer;
+	}
+
+	/**
+	 * Gets the default compression for saveState.
+	 * 
+	 * @return the default compression
+	 */
+	public static MIMEBeanCompression getDefault() {
+		return default_;
+	}
+
+	/**
+	 * Sets the default compression for saveState. Content written with {@link #LZ} can only be restored by versions that know it.
+	 * 
+	 * @param compression
+	 *            the new default compression
+	 */
+	public static void setDefault(final MIMEBeanCompression compression) {
+		if (compression == null) {
+			throw new IllegalArgumentException("compression cannot be null");
+		}
+		default_ = compression;
+	}
+
+	/**
+	 * Gets the uncompressed size in bytes below which content is stored uncompressed.
+	 * 
+	 * @return the threshold
+	 */
+	public static int getThreshold() {
+		return threshold_;
+	}
+
+	/**
+	 * Sets the uncompressed size in bytes below which content is stored uncompressed.
+	 * 
+	 * @param threshold
+	 *            the threshold, from 0 to {@link ChunkPool#CHUNK_SIZE}
+	 */
+	public static void setThreshold(final int threshold) {
+		if (threshold < 0 || threshold > ChunkPool.CHUNK_SIZE) {
+			throw new IllegalArgumentException("threshold must be from 0 to " + ChunkPool.CHUNK_SIZE);
+		}
+		threshold_ = threshold;
+	}
+
+	/**
+	 * Gets the deflate level for {@link #GZIP}.
+	 * 
+	 * @return the level
+	 */
+	public static int getGzipLevel() {
+		return gzipLevel_;
+	}
+
+	/**
+	 * Sets the deflate level for {@link #GZIP}, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}, or
+	 * {@link Deflater#DEFAULT_COMPRESSION}.
+	 * 
+	 * @param level
+	 *            the level
+	 */
+	public static void setGzipLevel(final int level) {
+		if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)) {
+			throw new IllegalArgumentException("Invalid deflate level " + level);
+		}
+		gzipLevel_ = level;
+	}
+
+	/**
+	 * A GZIPOutputStream with a deflate level.
+	 */
+	private static class LeveledGZIPOutputStream extends GZIPOutputStream {
+		LeveledGZIPOutputStream(final OutputStream out, final int level) throws IOException {
+			super(out, ChunkPool.CHUNK_SIZE);
+			def.setLevel(level);
+		}
+	}
+}
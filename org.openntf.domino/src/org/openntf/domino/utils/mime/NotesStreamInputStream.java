@@ -0,0 +1,121 @@
+/*
+ * Copyright 2013
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at:
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 
+ * implied. See the License for the specific language governing 
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.utils.mime;
+
+import java.io.InputStream;
+
+import org.openntf.domino.Stream;
+
+/**
+ * An InputStream that reads a Notes Stream one {@link ChunkPool#CHUNK_SIZE} chunk at a time, from its current position, instead of
+ * copying all of it out with getContents. Closing doesn't close the Notes Stream.
+ */
+public class NotesStreamInputStream extends InputStream {
+	/** The stream_. */
+	private final Stream stream_;
+
+	/** The chunk_ being read, or null before the first read and at the end. */
+	private byte[] chunk_;
+
+	/** The pos_ in chunk_. */
+	private int pos_;
+
+	/** Whether the end of the Stream was reached. */
+	private boolean eos_;
+
+	/**
+	 * Instantiates a new input stream.
+	 * 
+	 * @param stream
+	 *            the Notes Stream to read, from its current position
+	 */
+	public NotesStreamInputStream(final Stream stream) {
+		stream_ = stream;
+	}
+
+	private boolean fill() {
+		if (eos_ || stream_.isEOS()) {
+			eos_ = true;
+			chunk_ = null;
+			return false;
+		}
+		byte[] next = stream_.read(ChunkPool.CHUNK_SIZE);
+		if (next == null || next.length == 0) {
+			eos_ = true;
+			chunk_ = null;
+			return false;
+		}
+		chunk_ = next;
+		pos_ = 0;
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.io.InputStream#read()
+	 */
+	@Override
+	public int read() {
+		if ((chunk_ == null || pos_ == chunk_.length) && !fill()) {
+			return -1;
+		}
+		return chunk_[pos_++] & 0xff;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.io.InputStream#read(byte[], int, int)
+	 */
+	@Override
+	public int read(final byte[] b, final int off, final int len) {
+		if (off < 0 || len < 0 || off + len > b.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return 0;
+		}
+		if ((chunk_ == null || pos_ == chunk_.length) && !fill()) {
+			return -1;
+		}
+		int n = Math.min(len, chunk_.length - pos_);
+		System.arraycopy(chunk_, pos_, b, off, n);
+		pos_ += n;
+		return n;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.io.InputStream#available()
+	 */
+	@Override
+	public int available() {
+		return chunk_ == null ? 0 : chunk_.length - pos_;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.io.InputStream#close()
+	 */
+	@Override
+	public void close() {
+		chunk_ = null;
+		eos_ = true;
+	}
+}
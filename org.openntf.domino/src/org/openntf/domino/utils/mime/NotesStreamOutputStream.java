@@ -0,0 +1,126 @@
+/*
+ * Copyright 2013
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at:
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 
+ * implied. See the License for the specific language governing 
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.utils.mime;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.openntf.domino.Stream;
+
+/**
+ * An OutputStream that writes to a Notes Stream in {@link ChunkPool} sized chunks, so at most one chunk of the content is on the Java
+ * heap at a time.
+ * 
+ * Full chunks are handed to the Stream as they are; only the last, partial chunk is copied. For the same reason {@link #flush()} doesn't
+ * write a partial chunk: nothing reads the Stream before {@link #close()}, which writes what's left and returns the chunk to the pool.
+ * Closing doesn't close the Notes Stream.
+ */
+public class NotesStreamOutputStream extends OutputStream {
+	/** The stream_. */
+	private final Stream stream_;
+
+	/** The buffer_, or null once closed. */
+	private byte[] buffer_;
+
+	/** The count_ of bytes in buffer_. */
+	private int count_;
+
+	/**
+	 * Instantiates a new output stream.
+	 * 
+	 * @param stream
+	 *            the Notes Stream to write to, at its current position
+	 */
+	public NotesStreamOutputStream(final Stream stream) {
+		stream_ = stream;
+		buffer_ = ChunkPool.acquire();
+	}
+
+	private void checkOpen() throws IOException {
+		if (buffer_ == null) {
+			throw new IOException("Stream closed");
+		}
+	}
+
+	private void writeBuffer() throws IOException {
+		if (count_ == 0) {
+			return;
+		}
+		byte[] chunk = count_ == buffer_.length ? buffer_ : Arrays.copyOf(buffer_, count_);
+		int written = stream_.write(chunk);
+		if (written != count_) {
+			throw new IOException("Notes Stream accepted " + written + " of " + count_ + " bytes");
+		}
+		count_ = 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.io.OutputStream#write(int)
+	 */
+	@Override
+	public void write(final int b) throws IOException {
+		checkOpen();
+		if (count_ == buffer_.length) {
+			writeBuffer();
+		}
+		buffer_[count_++] = (byte) b;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.io.OutputStream#write(byte[], int, int)
+	 */
+	@Override
+	public void write(final byte[] b, final int off, final int len) throws IOException {
+		checkOpen();
+		if (off < 0 || len < 0 || off + len > b.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		int pos = off;
+		int remaining = len;
+		while (remaining > 0) {
+			if (count_ == buffer_.length) {
+				writeBuffer();
+			}
+			int n = Math.min(remaining, buffer_.length - count_);
+			System.arraycopy(b, pos, buffer_, count_, n);
+			count_ += n;
+			pos += n;
+			remaining -= n;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.io.OutputStream#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		if (buffer_ != null) {
+			try {
+				writeBuffer();
+			} finally {
+				ChunkPool.release(buffer_);
+				buffer_ = null;
+			}
+		}
+	}
+}
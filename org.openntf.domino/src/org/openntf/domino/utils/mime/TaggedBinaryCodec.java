@@ -0,0 +1,416 @@
+/*
+ * Copyright 2013
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.openntf.domino.utils.mime;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+/**
+ * A compact tagged binary format for trees of maps, collections, arrays, strings, boxed primitives and dates. Each value is one tag byte
+ * followed by its data; there are no class descriptors, block headers or back references, so a map of strings comes out several times
+ * smaller than its serialized form and is read back without reflection.
+ *
+ * Lists, sets and maps from java.util are restored as the same class. Anything else that implements those interfaces, such as the
+ * Collections wrappers, comes back as an ArrayList, LinkedHashSet or LinkedHashMap. Sorted collections with a comparator, shared
+ * references and cycles can't be written; {@link #canEncode(Object)} says no to them and the value is serialized instead.
+ */
+public class TaggedBinaryCodec implements MIMEBeanCodec {
+	/** The id. */
+	public static final String ID = "tagged";
+
+	/** The format version, written first. */
+	private static final byte VERSION = 1;
+
+	private static final byte NULL = 0;
+	private static final byte STRING = 1;
+	private static final byte TRUE = 2;
+	private static final byte FALSE = 3;
+	private static final byte BYTE = 4;
+	private static final byte SHORT = 5;
+	private static final byte INT = 6;
+	private static final byte LONG = 7;
+	private static final byte FLOAT = 8;
+	private static final byte DOUBLE = 9;
+	private static final byte CHAR = 10;
+	private static final byte DATE = 11;
+	private static final byte BYTES = 12;
+	private static final byte INTS = 13;
+	private static final byte LONGS = 14;
+	private static final byte DOUBLES = 15;
+	private static final byte ARRAY = 16;
+	private static final byte LIST = 17;
+	private static final byte SET = 18;
+	private static final byte MAP = 19;
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.openntf.domino.utils.mime.MIMEBeanCodec#getId()
+	 */
+	@Override
+	public String getId() {
+		return ID;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.openntf.domino.utils.mime.MIMEBeanCodec#getContentType()
+	 */
+	@Override
+	public String getContentType() {
+		return "application/x-java-serialized-object";
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.openntf.domino.utils.mime.MIMEBeanCodec#canEncode(java.lang.Object)
+	 */
+	@Override
+	public boolean canEncode(final Object value) {
+		return canEncode(value, new IdentityHashMap<Object, Boolean>());
+	}
+
+	private static boolean isScalar(final Object value) {
+		return value == null || value instanceof String || value instanceof Boolean || value instanceof Byte || value instanceof Short
+				|| value instanceof Integer || value instanceof Long || value instanceof Float || value instanceof Double
+				|| value instanceof Character || (value != null && value.getClass() == Date.class);
+	}
+
+	private static boolean isArrayComponent(final Class<?> type) {
+		return type == Object.class || type == String.class || type == Boolean.class || type == Byte.class || type == Short.class
+				|| type == Integer.class || type == Long.class || type == Float.class || type == Double.class || type == Character.class
+				|| type == Date.class;
+	}
+
+	private static boolean canEncode(final Object value, final IdentityHashMap<Object, Boolean> seen) {
+		if (isScalar(value) || value instanceof byte[] || value instanceof int[] || value instanceof long[] || value instanceof double[]) {
+			return true;
+		}
+		if (seen.put(value, Boolean.TRUE) != null) {
+			return false;
+		}
+		if (value instanceof Object[]) {
+			if (!isArrayComponent(value.getClass().getComponentType())) {
+				return false;
+			}
+			for (Object element : (Object[]) value) {
+				if (!canEncode(element, seen)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if (value instanceof Map) {
+			if (value instanceof SortedMap && ((SortedMap<?, ?>) value).comparator() != null) {
+				return false;
+			}
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				if (!canEncode(entry.getKey(), seen) || !canEncode(entry.getValue(), seen)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if (value instanceof List || value instanceof Set) {
+			if (value instanceof SortedSet && ((SortedSet<?>) value).comparator() != null) {
+				return false;
+			}
+			for (Object element : (Collection<?>) value) {
+				if (!canEncode(element, seen)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.openntf.domino.utils.mime.MIMEBeanCodec#encode(java.lang.Object, java.io.OutputStream)
+	 */
+	@Override
+	public void encode(final Object value, final OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeByte(VERSION);
+		write(data, value);
+		data.flush();
+	}
+
+	/**
+	 * Gets the name to record for a collection class, so the same class can be created on restore.
+	 *
+	 * @param type
+	 *            the class
+	 * @return the name, or "" for the default class
+	 */
+	private static String restorableName(final Class<?> type) {
+		int modifiers = type.getModifiers();
+		if (type.getName().startsWith("java.util.") && Modifier.isPublic(modifiers) && !Modifier.isAbstract(modifiers)) {
+			try {
+				type.getConstructor();
+				return type.getName();
+			} catch (NoSuchMethodException e) {
+				// fall through
+			}
+		}
+		return "";
+	}
+
+	private static void writeString(final DataOutputStream out, final String value) throws IOException {
+		byte[] bytes = value.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static void write(final DataOutputStream out, final Object value) throws IOException {
+		if (value == null) {
+			out.writeByte(NULL);
+		} else if (value instanceof String) {
+			out.writeByte(STRING);
+			writeString(out, (String) value);
+		} else if (value instanceof Boolean) {
+			out.writeByte(((Boolean) value).booleanValue() ? TRUE : FALSE);
+		} else if (value instanceof Integer) {
+			out.writeByte(INT);
+			out.writeInt(((Integer) value).intValue());
+		} else if (value instanceof Long) {
+			out.writeByte(LONG);
+			out.writeLong(((Long) value).longValue());
+		} else if (value instanceof Double) {
+			out.writeByte(DOUBLE);
+			out.writeDouble(((Double) value).doubleValue());
+		} else if (value instanceof Date) {
+			out.writeByte(DATE);
+			out.writeLong(((Date) value).getTime());
+		} else if (value instanceof Byte) {
+			out.writeByte(BYTE);
+			out.writeByte(((Byte) value).byteValue());
+		} else if (value instanceof Short) {
+			out.writeByte(SHORT);
+			out.writeShort(((Short) value).shortValue());
+		} else if (value instanceof Float) {
+			out.writeByte(FLOAT);
+			out.writeFloat(((Float) value).floatValue());
+		} else if (value instanceof Character) {
+			out.writeByte(CHAR);
+			out.writeChar(((Character) value).charValue());
+		} else if (value instanceof byte[]) {
+			byte[] bytes = (byte[]) value;
+			out.writeByte(BYTES);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		} else if (value instanceof int[]) {
+			int[] ints = (int[]) value;
+			out.writeByte(INTS);
+			out.writeInt(ints.length);
+			for (int i : ints) {
+				out.writeInt(i);
+			}
+		} else if (value instanceof long[]) {
+			long[] longs = (long[]) value;
+			out.writeByte(LONGS);
+			out.writeInt(longs.length);
+			for (long l : longs) {
+				out.writeLong(l);
+			}
+		} else if (value instanceof double[]) {
+			double[] doubles = (double[]) value;
+			out.writeByte(DOUBLES);
+			out.writeInt(doubles.length);
+			for (double d : doubles) {
+				out.writeDouble(d);
+			}
+		} else if (value instanceof Object[]) {
+			Object[] array = (Object[]) value;
+			out.writeByte(ARRAY);
+			out.writeUTF(array.getClass().getComponentType().getName());
+			out.writeInt(array.length);
+			for (Object element : array) {
+				write(out, element);
+			}
+		} else if (value instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) value;
+			out.writeByte(MAP);
+			out.writeUTF(restorableName(map.getClass()));
+			out.writeInt(map.size());
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				write(out, entry.getKey());
+				write(out, entry.getValue());
+			}
+		} else if (value instanceof List || value instanceof Set) {
+			Collection<?> collection = (Collection<?>) value;
+			out.writeByte(value instanceof List ? LIST : SET);
+			out.writeUTF(restorableName(collection.getClass()));
+			out.writeInt(collection.size());
+			for (Object element : collection) {
+				write(out, element);
+			}
+		} else {
+			throw new IOException("The tagged binary format can't hold a " + value.getClass().getName());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.openntf.domino.utils.mime.MIMEBeanCodec#decode(java.io.InputStream, java.lang.Class, java.lang.ClassLoader)
+	 */
+	@Override
+	public Object decode(final InputStream in, final Class<?> type, final ClassLoader loader) throws IOException, ClassNotFoundException {
+		DataInputStream data = new DataInputStream(in);
+		byte version = data.readByte();
+		if (version != VERSION) {
+			throw new StreamCorruptedException("Unknown tagged binary format version " + version);
+		}
+		return read(data);
+	}
+
+	private static String readString(final DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T create(final String className, final Class<T> kind, final Class<? extends T> fallback) {
+		if (className.startsWith("java.util.")) {
+			try {
+				Class<?> type = Class.forName(className, false, TaggedBinaryCodec.class.getClassLoader());
+				if (kind.isAssignableFrom(type)) {
+					return (T) type.newInstance();
+				}
+			} catch (Exception e) {
+				// fall back
+			}
+		}
+		try {
+			return fallback.newInstance();
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Object read(final DataInputStream in) throws IOException, ClassNotFoundException {
+		byte tag = in.readByte();
+		switch (tag) {
+		case NULL:
+			return null;
+		case STRING:
+			return readString(in);
+		case TRUE:
+			return Boolean.TRUE;
+		case FALSE:
+			return Boolean.FALSE;
+		case BYTE:
+			return Byte.valueOf(in.readByte());
+		case SHORT:
+			return Short.valueOf(in.readShort());
+		case INT:
+			return Integer.valueOf(in.readInt());
+		case LONG:
+			return Long.valueOf(in.readLong());
+		case FLOAT:
+			return Float.valueOf(in.readFloat());
+		case DOUBLE:
+			return Double.valueOf(in.readDouble());
+		case CHAR:
+			return Character.valueOf(in.readChar());
+		case DATE:
+			return new Date(in.readLong());
+		case BYTES: {
+			byte[] result = new byte[in.readInt()];
+			in.readFully(result);
+			return result;
+		}
+		case INTS: {
+			int[] result = new int[in.readInt()];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = in.readInt();
+			}
+			return result;
+		}
+		case LONGS: {
+			long[] result = new long[in.readInt()];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = in.readLong();
+			}
+			return result;
+		}
+		case DOUBLES: {
+			double[] result = new double[in.readInt()];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = in.readDouble();
+			}
+			return result;
+		}
+		case ARRAY: {
+			Class<?> component = Class.forName(in.readUTF(), false, TaggedBinaryCodec.class.getClassLoader());
+			if (!isArrayComponent(component)) {
+				throw new StreamCorruptedException("Unexpected array component type " + component.getName());
+			}
+			int size = in.readInt();
+			Object[] result = (Object[]) Array.newInstance(component, size);
+			for (int i = 0; i < size; i++) {
+				result[i] = read(in);
+			}
+			return result;
+		}
+		case MAP: {
+			Map<Object, Object> result = create(in.readUTF(), Map.class, LinkedHashMap.class);
+			int size = in.readInt();
+			for (int i = 0; i < size; i++) {
+				Object key = read(in);
+				result.put(key, read(in));
+			}
+			return result;
+		}
+		case LIST:
+		case SET: {
+			Collection<Object> result = tag == LIST ? create(in.readUTF(), List.class, ArrayList.class) : create(in.readUTF(), Set.class,
+					LinkedHashSet.class);
+			int size = in.readInt();
+			for (int i = 0; i < size; i++) {
+				result.add(read(in));
+			}
+			return result;
+		}
+		default:
+			throw new StreamCorruptedException("Unknown tag " + tag);
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package org.openntf.domino.tests.ntf;
+
+import java.util.logging.Logger;
+
+import org.openntf.domino.Database;
+import org.openntf.domino.Document;
+import org.openntf.domino.Session;
+import org.openntf.domino.impl.Base;
+import org.openntf.domino.thread.DominoThread;
+import org.openntf.domino.utils.Factory;
+
+/**
+ * Measures what a getter costs with the old per-call liveness probe (paranoid mode) and with the recycle epoch check, then recycles the
+ * Document's delegate behind the wrapper's back to make sure it still resurrects.
+ * 
+ * Needs a Notes runtime and a names.nsf with at least one document.
+ */
+public class DelegateCheckBenchmark {
+	private static final Logger log_ = Logger.getLogger(DelegateCheckBenchmark.class.getName());
+
+	private static final int CALLS = 200000;
+	private static final int ROUNDS = 5;
+
+	static class Doer implements Runnable {
+
+		private long time(final Database db, final Document doc) {
+			long start = System.nanoTime();
+			for (int i = 0; i < CALLS; i++) {
+				doc.hasItem("Form");
+				db.isOpen();
+			}
+			return System.nanoTime() - start;
+		}
+
+		@Override
+		public void run() {
+			Session s = Factory.getSession();
+			Database db = s.getDatabase("", "names.nsf");
+			Document doc = db.getAllDocuments().getFirstDocument();
+			boolean paranoid = Base.isParanoidDelegateCheck();
+			try {
+				for (int round = 0; round < ROUNDS; round++) {
+					Base.setParanoidDelegateCheck(true);
+					long probed = time(db, doc);
+					Base.setParanoidDelegateCheck(false);
+					long epoch = time(db, doc);
+					log_.info("Round " + round + ": probe " + (probed / (CALLS * 2)) + "ns/call, epoch " + (epoch / (CALLS * 2))
+							+ "ns/call");
+				}
+			} finally {
+				Base.setParanoidDelegateCheck(paranoid);
+			}
+
+			String noteid = doc.getNoteID();
+			Base.s_recycle((lotus.domino.local.NotesBase) Base.toLotus(doc));
+			log_.info("Recycled the delegate of " + noteid + "; hasItem(\"Form\") after resurrection: " + doc.hasItem("Form"));
+		}
+	}
+
+	/**
+	 * The main method.
+	 * 
+	 * @param args
+	 *            the arguments
+	 */
+	public static void main(final String[] args) {
+		DominoThread thread = new DominoThread(new Doer(), "DelegateCheckBenchmark");
+		thread.start();
+	}
+}
@@ -0,0 +1,74 @@
+package org.openntf.domino.tests.ntf;
+
+import java.util.logging.Logger;
+
+import lotus.domino.NotesException;
+import lotus.domino.NotesFactory;
+import lotus.domino.NotesThread;
+
+import org.openntf.domino.impl.FieldHandleAccessor;
+import org.openntf.domino.impl.HandleAccessor;
+import org.openntf.domino.impl.ReflectionHandleAccessor;
+
+/**
+ * Compares reading handle ids through reflection with reading them through a bound FieldHandleAccessor, which is what every wrapper
+ * construction does at least once.
+ * 
+ * Needs a Notes runtime. Uses the raw lotus API, so that nothing else is measured.
+ */
+public class HandleAccessorBenchmark {
+	private static final Logger log_ = Logger.getLogger(HandleAccessorBenchmark.class.getName());
+
+	private static final int CALLS = 10000000;
+	private static final int ROUNDS = 5;
+
+	private static long time(final HandleAccessor accessor, final lotus.domino.local.NotesBase base) {
+		long sum = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < CALLS; i++) {
+			sum += accessor.getCppId(base);
+		}
+		long elapsed = System.nanoTime() - start;
+		if (sum == 42) {
+			log_.info("");	// keeps the loop from being optimized away
+		}
+		return elapsed;
+	}
+
+	/**
+	 * The main method.
+	 * 
+	 * @param args
+	 *            the arguments
+	 */
+	public static void main(final String[] args) {
+		NotesThread.sinitThread();
+		try {
+			lotus.domino.Session session = NotesFactory.createSession();
+			lotus.domino.Database db = session.getDatabase("", "names.nsf");
+			lotus.domino.local.NotesBase base = (lotus.domino.local.NotesBase) db;
+
+			HandleAccessor reflection = new ReflectionHandleAccessor();
+			FieldHandleAccessor field = FieldHandleAccessor.bind(reflection);
+			if (field == null) {
+				log_.info("No FieldHandleAccessor can be bound to this Notes.jar; only reflection is available");
+				return;
+			}
+			for (int round = 0; round < ROUNDS; round++) {
+				long reflected = time(reflection, base);
+				long direct = time(field, base);
+				log_.info("Round " + round + ": reflection " + (reflected / (CALLS / 1000)) + "ps/call, field "
+						+ (direct / (CALLS / 1000)) + "ps/call");
+			}
+			if (field.isBroken()) {
+				log_.info("The field accessor disagreed with reflection and fell back to it; its timings are reflection's");
+			}
+			db.recycle();
+			session.recycle();
+		} catch (NotesException e) {
+			e.printStackTrace();
+		} finally {
+			NotesThread.stermThread();
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package org.openntf.domino.tests.ntf;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openntf.domino.thread.DominoReferenceCounter;
+
+/**
+ * Measures the cost of the reference counting done for each wrap/recycle cycle: one increment when a wrapper is bagged and one decrement
+ * when its DominoReference is polled. Compares the old boxed Map&lt;Long, AtomicInteger&gt; counter with the primitive
+ * DominoReferenceCounter, for both the unsynced (per-thread queue) and synced (Session) variants.
+ * 
+ * Doesn't need a Notes runtime. Allocation figures need a JVM whose ThreadMXBean supports getThreadAllocatedBytes; elsewhere only timings
+ * are printed.
+ */
+public class ReferenceCounterBenchmark {
+	private static final int LIVE_HANDLES = 20000;
+	private static final int CYCLES = 5000000;
+	private static final int ROUNDS = 5;
+
+	interface Counter {
+		int increment(long id);
+
+		int decrement(long id);
+	}
+
+	/**
+	 * The counter as it was before: every id boxed into a Long, every count into an AtomicInteger, and synchronized on top of a concurrent
+	 * map when synced.
+	 */
+	static class LegacyCounter implements Counter {
+		private final boolean synced_;
+		private final Map<Long, AtomicInteger> map;
+
+		LegacyCounter(final boolean synced) {
+			synced_ = synced;
+			map = synced ? new ConcurrentHashMap<Long, AtomicInteger>() : new HashMap<Long, AtomicInteger>();
+		}
+
+		private int doIncrement(final Long id) {
+			if (map.containsKey(id)) {
+				return map.get(id).incrementAndGet();
+			} else {
+				map.put(id, new AtomicInteger(1));
+				return 1;
+			}
+		}
+
+		private int doDecrement(final Long id) {
+			if (map.containsKey(id)) {
+				int result = map.get(id).decrementAndGet();
+				if (result == 0)
+					map.remove(id);
+				return result;
+			}
+			return 0;
+		}
+
+		public int increment(final long id) {
+			if (synced_) {
+				synchronized (map) {
+					return doIncrement(id);
+				}
+			}
+			return doIncrement(id);
+		}
+
+		public int decrement(final long id) {
+			if (synced_) {
+				synchronized (map) {
+					return doDecrement(id);
+				}
+			}
+			return doDecrement(id);
+		}
+	}
+
+	static class PrimitiveCounter implements Counter {
+		private final DominoReferenceCounter counter_;
+
+		PrimitiveCounter(final boolean synced) {
+			counter_ = new DominoReferenceCounter(synced);
+		}
+
+		public int increment(final long id) {
+			return counter_.increment(id);
+		}
+
+		public int decrement(final long id) {
+			return counter_.decrement(id);
+		}
+	}
+
+	private static Method allocatedBytesMethod_;
+	private static ThreadMXBean threadBean_ = ManagementFactory.getThreadMXBean();
+
+	static {
+		try {
+			Class<?> sunBean = Class.forName("com.sun.management.ThreadMXBean");
+			allocatedBytesMethod_ = sunBean.isInstance(threadBean_) ? sunBean.getMethod("getThreadAllocatedBytes", long.class) : null;
+		} catch (Throwable t) {
+			allocatedBytesMethod_ = null;
+		}
+	}
+
+	private static long allocatedBytes() {
+		if (allocatedBytesMethod_ == null)
+			return -1;
+		try {
+			return ((Long) allocatedBytesMethod_.invoke(threadBean_, Thread.currentThread().getId())).longValue();
+		} catch (Throwable t) {
+			return -1;
+		}
+	}
+
+	private static long[] makeHandles() {
+		// handles are pointers: aligned, and clustered in a few regions of the address space
+		long[] result = new long[LIVE_HANDLES];
+		long base = 0x7f3a12000000L;
+		for (int i = 0; i < result.length; i++) {
+			result[i] = base + (i * 48L) + ((i % 7) << 20);
+		}
+		return result;
+	}
+
+	private static void run(final String label, final Counter counter, final long[] handles) {
+		// fill the live set, so the table is at its working size before we start measuring
+		for (long id : handles) {
+			counter.increment(id);
+		}
+		int mask = handles.length - 1;
+		for (int round = 0; round < ROUNDS; round++) {
+			long startBytes = allocatedBytes();
+			long start = System.nanoTime();
+			int check = 0;
+			for (int i = 0; i < CYCLES; i++) {
+				// a new wrapper for a live handle, then an older wrapper on another handle gets polled
+				long id = handles[i % handles.length];
+				check += counter.increment(id);
+				check += counter.decrement(id);
+			}
+			long elapsed = System.nanoTime() - start;
+			long endBytes = allocatedBytes();
+			String alloc = startBytes < 0 ? "n/a" : String.format("%.2f", (double) (endBytes - startBytes) / CYCLES);
+			System.out.println(String.format("%-24s round %d: %6.1f ns/cycle, %s bytes/cycle (%d)", label, round,
+					(double) elapsed / CYCLES, alloc, check & mask));
+		}
+	}
+
+	public static void main(final String[] args) {
+		long[] handles = makeHandles();
+		run("legacy unsynced", new LegacyCounter(false), handles);
+		run("primitive unsynced", new PrimitiveCounter(false), handles);
+		run("legacy synced", new LegacyCounter(true), handles);
+		run("primitive synced", new PrimitiveCounter(true), handles);
+	}
+}